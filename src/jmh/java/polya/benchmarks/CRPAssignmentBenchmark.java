@@ -0,0 +1,60 @@
+package polya.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polya.crp.CRPState;
+import polya.crp.CRPs;
+import polya.crp.PYPrior;
+
+
+/**
+ * Throughput of the evaluation of the PY prior of a fixed seating 
+ * arrangement, CRPs.crpAssignmentLogProbabilitiy(), as used in the 
+ * MH moves on alpha0 and the discount.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CRPAssignmentBenchmark
+{
+  @Param({"1000", "100000"})
+  public int n;
+  
+  @Param({"10", "1000"})
+  public int nTables;
+  
+  private CRPState state;
+  private PYPrior prior;
+  
+  @Setup
+  public void setup()
+  {
+    state = SyntheticData.seatedByCluster(SyntheticData.generate(new Random(1), n, 2, nTables), nTables);
+    prior = new PYPrior(1.0, 0.5);
+  }
+  
+  @Benchmark
+  public double crpAssignmentLogProbability()
+  {
+    return CRPs.crpAssignmentLogProbabilitiy(prior, state);
+  }
+}
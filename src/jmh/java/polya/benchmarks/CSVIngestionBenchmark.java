@@ -0,0 +1,81 @@
+package polya.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.StatisticArena;
+
+
+/**
+ * Rows parsed per second by NIWs.loadFromCSVFileInParallel() and by 
+ * NIWs.loadFromCSVFile(), on data/circle.csv scaled up to N_ROWS rows by
+ * repeating its rows (written to a temporary file at setup).
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CSVIngestionBenchmark
+{
+  public static final int N_ROWS = 1000000;
+  
+  @Param({"1", "2", "4", "8"})
+  public int nThreads;
+  
+  private File csvFile;
+  
+  @Setup
+  public void setup() throws IOException
+  {
+    List<String> rows = Files.readAllLines(new File("data/circle.csv").toPath(), StandardCharsets.UTF_8);
+    csvFile = File.createTempFile("circle-scaled", ".csv");
+    csvFile.deleteOnExit();
+    PrintWriter out = new PrintWriter(csvFile);
+    for (int i = 0; i < N_ROWS; i++)
+      out.println(rows.get(i % rows.size()));
+    out.close();
+  }
+  
+  @Benchmark
+  @OperationsPerInvocation(N_ROWS)
+  public StatisticArena parallel()
+  {
+    return NIWs.loadFromCSVFileInParallel(csvFile, nThreads);
+  }
+  
+  /**
+   * Single threaded, does not depend on nThreads.
+   */
+  @Benchmark
+  @OperationsPerInvocation(N_ROWS)
+  public Map<Integer,SufficientStatistic> sequential()
+  {
+    return NIWs.loadFromCSVFile(csvFile, true);
+  }
+}
@@ -0,0 +1,87 @@
+package polya.benchmarks;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polya.crp.CRPState;
+import polya.crp.GibbsSweep;
+import polya.crp.PYPrior;
+import polya.crp.utils.ClusterId;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWHyperParameter;
+
+
+/**
+ * Throughput of single-customer Gibbs moves (removal of a customer picked 
+ * uniformly at random, followed by reinsertion from the conditional).
+ * 
+ * Note that nTables is the number of tables at initialization; it then 
+ * evolves with the moves.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GibbsMoveBenchmark
+{
+  @Param({"1000", "100000"})
+  public int n;
+  
+  @Param({"2", "8"})
+  public int dim;
+  
+  @Param({"10", "100"})
+  public int nTables;
+  
+  private Random rand;
+  private GibbsSweep sweep;
+  
+  /**
+   * Boxed once, so that the benchmark does not measure boxing.
+   */
+  private Integer [] customers;
+  
+  @Setup
+  public void setup()
+  {
+    rand = new Random(1);
+    Map<Integer,SufficientStatistic> data = SyntheticData.generate(rand, n, dim, nTables);
+    CRPState state = SyntheticData.seatedByCluster(data, nTables);
+    sweep = new GibbsSweep(state, NIWHyperParameter.withDimensionality(dim), CollapsedNIWModel.instance, new PYPrior(1.0, 0.0));
+    customers = new Integer[n];
+    for (int i = 0; i < n; i++)
+      customers[i] = i;
+  }
+  
+  @TearDown
+  public void tearDown()
+  {
+    sweep.detach();
+  }
+  
+  @Benchmark
+  public ClusterId gibbsMove()
+  {
+    return sweep.sample(rand, customers[rand.nextInt(n)]);
+  }
+}
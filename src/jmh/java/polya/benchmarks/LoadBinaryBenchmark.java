@@ -0,0 +1,74 @@
+package polya.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polya.crp.DenseCRPState;
+import polya.parametric.normal.BinaryDatasets;
+import polya.parametric.normal.StatisticArena;
+
+
+/**
+ * Throughput of BinaryDatasets.map(), on the same synthetic datasets as 
+ * LoadCSVBenchmark, converted at setup. Compare with LoadCSVBenchmark.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBinaryBenchmark
+{
+  @Param({"1000", "100000"})
+  public int n;
+  
+  @Param({"2", "8"})
+  public int dim;
+  
+  private File binaryFile;
+  
+  @Setup
+  public void setup() throws IOException
+  {
+    File csvFile = SyntheticData.toTemporaryCSV(SyntheticData.generate(new Random(1), n, dim, 10));
+    binaryFile = File.createTempFile("synthetic", ".bin");
+    binaryFile.deleteOnExit();
+    BinaryDatasets.convertFromCSV(csvFile, binaryFile);
+  }
+  
+  /**
+   * Mapping only: the points are not read.
+   */
+  @Benchmark
+  public StatisticArena map()
+  {
+    return BinaryDatasets.map(binaryFile);
+  }
+  
+  /**
+   * Mapping, then seating every customer at their own table, which reads all the points.
+   */
+  @Benchmark
+  public DenseCRPState mapAndSeat()
+  {
+    return DenseCRPState.fullyDisconnectedClustering(BinaryDatasets.map(binaryFile));
+  }
+}
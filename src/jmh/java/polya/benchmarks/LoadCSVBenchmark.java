@@ -0,0 +1,61 @@
+package polya.benchmarks;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.NIWs;
+
+
+/**
+ * Throughput of NIWs.loadFromCSVFile(), on a synthetic dataset written 
+ * to a temporary file at setup.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadCSVBenchmark
+{
+  @Param({"1000", "100000"})
+  public int n;
+  
+  @Param({"2", "8"})
+  public int dim;
+  
+  @Param({"false", "true"})
+  public boolean packedStatistics;
+  
+  private File csvFile;
+  
+  @Setup
+  public void setup()
+  {
+    csvFile = SyntheticData.toTemporaryCSV(SyntheticData.generate(new Random(1), n, dim, 10));
+  }
+  
+  @Benchmark
+  public Map<Integer,SufficientStatistic> loadFromCSVFile()
+  {
+    return NIWs.loadFromCSVFile(csvFile, packedStatistics);
+  }
+}
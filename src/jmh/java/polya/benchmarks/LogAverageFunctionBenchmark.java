@@ -0,0 +1,109 @@
+package polya.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.ejml.simple.SimpleMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polya.crp.CRPState;
+import polya.crp.utils.ClusterId;
+import polya.crp.utils.LogAverageFunction;
+import polya.parametric.normal.NIWCholeskyPosterior;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.StudentTMixture;
+import polya.parametric.normal.TwoMomentsStatistic;
+
+
+/**
+ * Throughput of the evaluation of a predictive density, 
+ * LogAverageFunction.value(), with one mixture component per table 
+ * (plus one for a new table), as in CompleteState.logPredictive().
+ * This is what dominates the plotting of the predictive.
+ * Compared with the compiled StudentTMixture.value().
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogAverageFunctionBenchmark
+{
+  @Param({"2", "8"})
+  public int dim;
+  
+  @Param({"10", "100"})
+  public int nTables;
+  
+  private LogAverageFunction function;
+  private StudentTMixture compiled;
+  private double [] point;
+  
+  @Setup
+  public void setup()
+  {
+    Random rand = new Random(1);
+    CRPState state = SyntheticData.seatedByCluster(SyntheticData.generate(rand, 10 * nTables, dim, nTables), nTables);
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(dim);
+    function = new LogAverageFunction();
+    compiled = new StudentTMixture(dim);
+    for (ClusterId id : state.getAllClusterIds())
+    {
+      TwoMomentsStatistic data = (TwoMomentsStatistic) state.getClusterStatistics(id);
+      function.addFunction(
+          Math.log(state.tableSize(id)), 
+          NIWs.logMarginalAsFunctionOfData(updated(hp, data)));
+      compiled.add(Math.log(state.tableSize(id)), NIWCholeskyPosterior.fromData(hp, data));
+    }
+    function.addFunction(0.0, NIWs.logMarginalAsFunctionOfData(hp));
+    compiled.add(0.0, NIWCholeskyPosterior.fromPrior(hp));
+    point = new double[dim];
+    for (int d = 0; d < dim; d++)
+      point[d] = rand.nextGaussian();
+  }
+  
+  /**
+   * The hyper-parameters updated with the data, read from their Cholesky form.
+   */
+  private static NIWHyperParameter updated(NIWHyperParameter hp, TwoMomentsStatistic data)
+  {
+    NIWCholeskyPosterior posterior = NIWCholeskyPosterior.fromData(hp, data);
+    final int dim = hp.dim();
+    SimpleMatrix mean = new SimpleMatrix(dim, 1), cholesky = new SimpleMatrix(dim, dim);
+    for (int i = 0; i < dim; i++)
+    {
+      mean.set(i, posterior.mean(i));
+      for (int j = 0; j <= i; j++)
+        cholesky.set(i, j, posterior.cholesky(i, j));
+    }
+    SimpleMatrix delta = cholesky.mult(cholesky.transpose()).scale(1.0 / posterior.nu());
+    return new NIWHyperParameter(posterior.kappa(), mean, posterior.nu(), delta);
+  }
+  
+  @Benchmark
+  public double value()
+  {
+    return function.value(point);
+  }
+  
+  @Benchmark
+  public double compiledValue()
+  {
+    return compiled.value(point);
+  }
+}
@@ -0,0 +1,61 @@
+package polya.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import polya.crp.CompleteState;
+
+
+/**
+ * Throughput of full sweeps, CompleteState.doOneSamplingRound().
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SamplingRoundBenchmark
+{
+  @Param({"1000", "10000"})
+  public int n;
+  
+  @Param({"10", "100"})
+  public int nTables;
+  
+  @Param({"2", "8"})
+  public int dim;
+  
+  private Random rand;
+  private CompleteState state;
+  
+  @Setup
+  public void setup()
+  {
+    rand = new Random(1);
+    state = CompleteState.standardInit(SyntheticData.seatedByCluster(SyntheticData.generate(rand, n, dim, nTables), nTables));
+    state.useGibbsSweep();
+  }
+  
+  @Benchmark
+  public CompleteState samplingRound()
+  {
+    state.doOneSamplingRound(rand);
+    return state;
+  }
+}
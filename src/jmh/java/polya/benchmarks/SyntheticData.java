@@ -0,0 +1,133 @@
+package polya.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import polya.crp.CRPState;
+import polya.crp.DenseCRPState;
+import polya.crp.utils.ClusterId;
+import polya.parametric.Parameter;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.MVNParameter;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.PackedTwoMomentsSufficientStatistics;
+import polya.parametric.normal.TwoMomentsStatistic;
+
+
+/**
+ * Synthetic datasets for the benchmarks, so that they can run without
+ * any data file.
+ * 
+ * Each cluster has its parameters drawn from an NIW via 
+ * CollapsedNIWModel.generateData(), and customer i is generated 
+ * from cluster i % nClusters.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class SyntheticData
+{
+  /**
+   * 
+   * @param rand
+   * @param nCustomers
+   * @param dim
+   * @param nClusters
+   * @return The statistics of the customers 0, 1, ..., nCustomers - 1
+   */
+  public static Map<Integer,SufficientStatistic> generate(Random rand, int nCustomers, int dim, int nClusters)
+  {
+    NIWHyperParameter hp = generatingHyperParameter(dim);
+    MVNParameter [] parameters = new MVNParameter[nClusters];
+    Map<Integer,SufficientStatistic> result = new HashMap<Integer,SufficientStatistic>();
+    for (int i = 0; i < nCustomers; i++)
+    {
+      final int cluster = i % nClusters;
+      final double [] point;
+      if (parameters[cluster] == null)
+      {
+        // first point of the cluster: draws the parameters as well
+        Pair<Parameter, SufficientStatistic> generated = CollapsedNIWModel.instance.generateData(rand, hp, 1);
+        parameters[cluster] = (MVNParameter) generated.getLeft();
+        TwoMomentsStatistic stat = (TwoMomentsStatistic) generated.getRight();
+        point = new double[dim];
+        for (int d = 0; d < dim; d++)
+          point[d] = stat.sumOfValues(d);
+      }
+      else
+        point = NIWs.nextMVN(rand, parameters[cluster].getMeanParameter(), parameters[cluster].getCovarianceParameter()).getMatrix().getData();
+      result.put(i, PackedTwoMomentsSufficientStatistics.fromOnePoint(point));
+    }
+    return result;
+  }
+  
+  /**
+   * Clusters well separated compared to their spread, and an integer
+   * nu, as required by NIWs.nextNIW().
+   */
+  private static NIWHyperParameter generatingHyperParameter(int dim)
+  {
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(dim);
+    hp.setKappa(0.01);
+    hp.setNu(dim + 2);
+    return hp;
+  }
+  
+  /**
+   * 
+   * @param data As created by generate()
+   * @param nTables
+   * @return A DenseCRPState where customer i is seated at table i % nTables
+   */
+  public static CRPState seatedByCluster(Map<Integer,SufficientStatistic> data, int nTables)
+  {
+    CRPState result = new DenseCRPState(data);
+    ClusterId [] tables = new ClusterId[nTables];
+    for (int i = 0; i < data.size(); i++)
+    {
+      final int table = i % nTables;
+      if (tables[table] == null)
+        tables[table] = result.addCustomerToNewTable(i);
+      else
+        result.addCustomerToExistingTable(i, tables[table]);
+    }
+    return result;
+  }
+  
+  /**
+   * 
+   * @param data
+   * @return A temporary csv file in the format read by NIWs.loadFromCSVFile()
+   */
+  public static File toTemporaryCSV(Map<Integer,SufficientStatistic> data)
+  {
+    try
+    {
+      File result = File.createTempFile("synthetic", ".csv");
+      result.deleteOnExit();
+      PrintWriter out = new PrintWriter(result);
+      for (int i = 0; i < data.size(); i++)
+      {
+        double [] point = ((PackedTwoMomentsSufficientStatistics) data.get(i)).sumOfValuesArray();
+        StringBuilder line = new StringBuilder();
+        for (int d = 0; d < point.length; d++)
+          line.append(d == 0 ? "" : ",").append(point[d]);
+        out.println(line);
+      }
+      out.close();
+      return result;
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package polya.crp;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.special.Gamma;
+
+
+/**
+ * Cache of CRPs.blockLogFactor(discount, size), i.e. the log rising factorial
+ * log (1-d)_{size-1}.
+ *
+ * The entries for the sizes up to MAX_TABULATED are filled, up to the largest
+ * requested so far, by the recurrence
+ *   log (1-d)_k = log (1-d)_{k-1} + log(k-d),
+ * one logarithm each, instead of two log gamma evaluations. Larger sizes
+ * cost one log gamma evaluation each,
+ *   log (1-d)_{k-1} = log (1-d)_{MAX_TABULATED-1} + logGamma(k-d) - logGamma(MAX_TABULATED-d),
+ * so that the first evaluation at a new discount (e.g. a proposed one) costs
+ * at most MAX_TABULATED logarithms plus one log gamma per large distinct
+ * size, independently of the size of the largest table.
+ *
+ * Tables for the two most recently used discounts are kept, so that
+ * alternating between the current and a proposed discount, as done by
+ * an MH move on the discount, does not cause recomputations.
+ *
+ * Not thread safe: use one instance per thread.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class BlockLogFactors
+{
+  /**
+   * Largest size filled by the recurrence.
+   */
+  static final int MAX_TABULATED = 64;
+
+  private Table current = new Table(), previous = new Table();
+
+  /**
+   *
+   * @param discount
+   * @param size A positive table size
+   * @return The same value as CRPs.blockLogFactor(discount, size)
+   */
+  public double blockLogFactor(double discount, int size)
+  {
+    if (current.discount != discount)
+    {
+      Table temp = current;
+      current = previous;
+      previous = temp;
+      if (current.discount != discount)
+        current.reset(discount);
+    }
+    return current.get(size);
+  }
+
+  private static class Table
+  {
+    /**
+     * NaN until the first call to reset(), so that no discount matches
+     */
+    private double discount = Double.NaN;
+
+    /**
+     * values[size] for size in [1, nComputed], nComputed <= MAX_TABULATED
+     */
+    private double [] values = new double[16];
+    private int nComputed = 0;
+
+    /**
+     * logGamma(MAX_TABULATED - discount); NaN when not computed yet
+     */
+    private double logGammaAtLast = Double.NaN;
+
+    private void reset(double discount)
+    {
+      this.discount = discount;
+      nComputed = 0;
+      logGammaAtLast = Double.NaN;
+    }
+
+    private double get(int size)
+    {
+      if (size <= 0)
+        throw new RuntimeException("Table sizes should be positive: " + size);
+      if (size <= nComputed)
+        return values[size];
+      if (size > MAX_TABULATED)
+      {
+        if (Double.isNaN(logGammaAtLast))
+          logGammaAtLast = Gamma.logGamma(MAX_TABULATED - discount);
+        return get(MAX_TABULATED) + Gamma.logGamma(size - discount) - logGammaAtLast;
+      }
+      if (size >= values.length)
+        values = Arrays.copyOf(values, Math.max(size + 1, Math.min(2 * values.length, MAX_TABULATED + 1)));
+      if (nComputed == 0)
+        values[++nComputed] = 0.0;
+      for (int k = nComputed + 1; k <= size; k++)
+        values[k] = values[k - 1] + Math.log(k - 1 - discount);
+      nComputed = size;
+      return values[size];
+    }
+  }
+}
@@ -3,10 +3,10 @@ package polya.crp;
 import java.io.File;
 import java.util.Random;
 
-import polya.crp.utils.LogAverageFunction;
 import polya.mcmc.ExponentialPrior;
 import polya.mcmc.RealVariableMHMove;
 import polya.mcmc.UniformPrior;
+import polya.parametric.normal.StudentTMixture;
 
 import tutorialj.Tutorial;
 import bayonet.coda.CodaParser;
@@ -25,7 +25,7 @@ import static briefj.Results.*;
  */
 public class CRPMain
 {
-  private static int paramThinPeriod = 10, burnIn = 1000, predThinPeriod = 1000;
+  private static int paramThinPeriod = 10, burnIn = 1000, predThinPeriod = 1000, checkpointPeriod = 1000;
 
   /**
    * ### Running the sampler
@@ -54,19 +54,39 @@ public class CRPMain
    * - Coda files for various variables (number of tables, more hyper-parameters later)
    * - Generated traceplots for the above ``codaPlots.pdf``
    * - The average of the predictive distributions, ``predictive.pdf`` (see ``CompleteState.logPredictive()``
-   * and ``LogAverageFunction`` if you are curious about how this plot is created).
+   * and ``StudentTMixture`` if you are curious about how this plot is created).
    * 
    * The predictive should be a fairly faithful reconstruction of the data if your code is 
    * correct.
+   * 
+   * A checkpoint of the chain, ``checkpoint.bin``, is also written every ``checkpointPeriod`` sweeps.
+   * To resume an interrupted run, provide the path of its checkpoint as the first command line 
+   * argument (see ``Checkpoints``). 
    */
   @Tutorial(showSource = false, showLink = true)
   public static void main(String [] args)
   {
-    // initialize with each customer alone at their table
-    CompleteState completeState = CompleteState.standardInit(new File("data/circle.csv"));
-    initMHMoves(completeState);
-    
-    Random rand = new Random(1);
+    CompleteState completeState;
+    Random rand;
+    int firstSweep = 0;
+    if (args.length > 0)
+    {
+      // resume from a checkpoint
+      Checkpoints.Checkpoint checkpoint = Checkpoints.restore(new File(args[0]));
+      completeState = checkpoint.state;
+      initMHMoves(completeState);
+      checkpoint.restoreMHMoves();
+      rand = checkpoint.rand;
+      firstSweep = (int) checkpoint.nSweeps;
+    }
+    else
+    {
+      // initialize with each customer alone at their table
+      completeState = CompleteState.standardInit(new File("data/circle.csv"));
+      initMHMoves(completeState);
+      rand = new Random(1);
+    }
+    Checkpointer checkpointer = new Checkpointer(new File(getResultFolder(), "checkpoint.bin"), checkpointPeriod);
     
     // utility to output the sampled variables (alpha0, disount, hyper-params, etc) into a csv
     OutputManager output = new OutputManager();
@@ -74,8 +94,8 @@ public class CRPMain
     output.setOutputFolder(csvSamples);
     
     // average (over MCMC samplers) of the predictive distribution
-    LogAverageFunction averagedPredictive = new LogAverageFunction();
-    for (int mcmcSweep = 0; mcmcSweep < 10000; mcmcSweep++)
+    StudentTMixture averagedPredictive = new StudentTMixture(completeState.hp.dim());
+    for (int mcmcSweep = firstSweep; mcmcSweep < 10000; mcmcSweep++)
     {
       // sample all the variables once
       completeState.doOneSamplingRound(rand);
@@ -90,10 +110,13 @@ public class CRPMain
       }
       if (mcmcSweep % predThinPeriod  == 0 && mcmcSweep > burnIn)
       {
-        averagedPredictive.addFunction(0.0, completeState.logPredictive());
+        averagedPredictive.addAll(0.0, completeState.logPredictive());
       }
+      
+      checkpointer.afterSweep(completeState, rand, mcmcSweep + 1);
     }
     
+    checkpointer.close();
     output.close();
     
     // use R's coda to create trace plots and histograms for real-valued parameters
@@ -105,7 +128,8 @@ public class CRPMain
     codaPlots.toPDF(new File(getResultFolder(), "codaPlots.pdf"));
     
     // plot the predictive distribution
-    PlotContour pc = PlotContour.fromFunction(averagedPredictive);
+    // the grid is evaluated once, in parallel, then interpolated by the plot
+    PlotContour pc = PlotContour.fromFunction(averagedPredictive.tabulate(15, 301, Runtime.getRuntime().availableProcessors()));
     pc.centerToZero(15);
     pc.toPDF(new File(getResultFolder(), "predictive.pdf"));
   }
@@ -129,7 +153,7 @@ public class CRPMain
    * (see ``state.clusteringFactor`` and ``state.collapsedLikelihoodFactor``).
    */
   @Tutorial(showLink = true, nextStep = RealVariableMHMove.class)
-  private static void initMHMoves(CompleteState state)
+  static void initMHMoves(CompleteState state)
   {
     // state.mhMoves.addRealNodeToResampleWithPrior(state.clusteringParams.alpha0VariableView(), ExponentialPrior.withRate(1e-100).truncateAt(-1), state.clusteringFactor); 
   }
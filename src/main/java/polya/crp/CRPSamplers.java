@@ -34,6 +34,10 @@ public class CRPSamplers
    * 
    * To make sure you are avoiding underflows, have a look 
    * at the utilities in ``bayonet.distributions.Multinomial``.
+   * 
+   * Tip: ``Parametrics.logSinglePointPredictive()`` computes the same thing as
+   * ``Parametrics.logPredictive()`` for a single point, but uses a closed form
+   * when the model provides one (as ``CollapsedNIWModel`` does).
    */
   @Tutorial(showSource = false, showLink = true, nextStep = CRPMain.class)
   public static void gibbs(
@@ -41,6 +41,10 @@ public class CRPState
    * Recall that ``removeCustomer()`` should behave as follows: it should remove 
    * one customer, destroying the table if the customer was the last. The method
    * should throw a RuntimeException if customer was not in restaurant.
+   * 
+   * Once the customer is removed, call ``fireCustomerRemoved()`` so that the 
+   * ``SeatingListener``s attached to the restaurant (for example caches) are 
+   * kept up to date.
    */
   @Tutorial(showSource = false, showLink = true)
   public void removeCustomer(Integer customer)
@@ -70,6 +74,16 @@ public class CRPState
    */
   private final Map<Integer, SufficientStatistic> customer2Statistic;
   
+  /**
+   * Objects notified when customers are added or removed
+   */
+  private final List<SeatingListener> listeners = new ArrayList<SeatingListener>();
+  
+  /**
+   * Number of tables of each size, updated before the listeners are notified
+   */
+  private final TableSizeHistogram tableSizeHistogram = new TableSizeHistogram();
+  
   /**
    * Creates a new CRPState where each customer sits at that table. This is
    * the standard recommended initialization for CRP-based samplers.
@@ -131,6 +145,70 @@ public class CRPState
     return result;
   }
   
+  /**
+   * Writes the ids of all non-empty tables, in no particular order, 
+   * without creating a new list (see getAllClusterIds()).
+   * 
+   * @param result An array of length at least nTables()
+   * @return The number of ids written, i.e. nTables()
+   */
+  public int getAllClusterIds(ClusterId [] result)
+  {
+    int i = 0;
+    for (ClusterId id : cluster2Customers.keySet())
+      result[i++] = id;
+    return i;
+  }
+  
+  /**
+   * 
+   * @param clusterId
+   * @return The number of customers at the given table
+   */
+  public int tableSize(ClusterId clusterId)
+  {
+    return cluster2Customers.get(clusterId).size();
+  }
+  
+  /**
+   * Note: the returned object is a live view, updated as customers are
+   * seated and removed.
+   * 
+   * @return The number of tables of each size
+   */
+  public TableSizeHistogram tableSizeHistogram()
+  {
+    return tableSizeHistogram;
+  }
+  
+  /**
+   * Makes a new customer known to the restaurant, so that it can then be 
+   * seated, for example when data arrives after the restaurant was created.
+   * 
+   * Note: this adds an entry to the map provided at construction.
+   * 
+   * @param customer A customer without a statistic yet
+   * @param statistic The statistic of that customer
+   * 
+   * @throws RuntimeException If the customer already had a statistic
+   */
+  public void registerCustomer(Integer customer, SufficientStatistic statistic)
+  {
+    if (customer2Statistic.containsKey(customer))
+      throw new RuntimeException("Customer already registered: " + customer);
+    customer2Statistic.put(customer, statistic);
+  }
+  
+  /**
+   * For implementations creating copies of a restaurant.
+   * 
+   * @param source The restaurant being copied
+   */
+  protected void copyTableSizeHistogram(CRPState source)
+  {
+    tableSizeHistogram.setTo(source.tableSizeHistogram);
+  }
+  
   /**
    * 
    * @param customer A customer not currently in restaurant
@@ -145,6 +223,7 @@ public class CRPState
     cluster2Customers.get(clusterId).add(customer);
     customer2Cluster.put(customer, clusterId);
     cluster2Statistic.get(clusterId).plusEqual(customer2Statistic.get(customer));
+    fireCustomerAdded(customer, clusterId, false);
   }
   
   /**
@@ -168,10 +247,61 @@ public class CRPState
     // note that we make a copy in this case because we want customer2Statistic
     // to stay unchanged
     cluster2Statistic.put(clusterId, customer2Statistic.get(customer).copy());
+    fireCustomerAdded(customer, clusterId, true);
     
     return clusterId;
   }
   
+  /**
+   * Attach a listener, which will be notified after each addition and removal
+   * of customers.
+   * 
+   * @param listener
+   */
+  public void addListener(SeatingListener listener)
+  {
+    listeners.add(listener);
+  }
+  
+  /**
+   * 
+   * @param listener
+   */
+  public void removeListener(SeatingListener listener)
+  {
+    listeners.remove(listener);
+  }
+  
+  /**
+   * To be called by implementations after a customer was seated.
+   * 
+   * @param customer
+   * @param clusterId The table the customer joined
+   * @param newTable If the table was created for this customer
+   */
+  protected void fireCustomerAdded(Integer customer, ClusterId clusterId, boolean newTable)
+  {
+    final int size = tableSize(clusterId);
+    tableSizeHistogram.tableResized(size - 1, size);
+    for (int i = 0; i < listeners.size(); i++)
+      listeners.get(i).customerAdded(customer, clusterId, newTable);
+  }
+  
+  /**
+   * To be called by implementations after a customer was removed.
+   * 
+   * @param customer
+   * @param clusterId The table the customer left
+   * @param tableDestroyed If the customer was the last at that table
+   */
+  protected void fireCustomerRemoved(Integer customer, ClusterId clusterId, boolean tableDestroyed)
+  {
+    final int size = tableDestroyed ? 0 : tableSize(clusterId);
+    tableSizeHistogram.tableResized(size + 1, size);
+    for (int i = 0; i < listeners.size(); i++)
+      listeners.get(i).customerRemoved(customer, clusterId, tableDestroyed);
+  }
+  
   /**
    * 
    * @return Total number of customers in restaurant.
@@ -197,6 +327,28 @@ public class CRPState
     }
     if (check != nCustomers())
       throw new RuntimeException();
+    checkTableSizeHistogram();
+  }
+  
+  /**
+   * Checks that tableSizeHistogram() agrees with the tables.
+   */
+  protected void checkTableSizeHistogram()
+  {
+    Map<Integer,Integer> expected = new HashMap<Integer,Integer>();
+    for (ClusterId id : getAllClusterIds())
+    {
+      final int size = tableSize(id);
+      expected.put(size, 1 + (expected.containsKey(size) ? expected.get(size) : 0));
+    }
+    if (expected.size() != tableSizeHistogram.nDistinctSizes())
+      throw new RuntimeException();
+    for (int i = 0; i < tableSizeHistogram.nDistinctSizes(); i++)
+    {
+      final int size = tableSizeHistogram.distinctSize(i);
+      if (!expected.containsKey(size) || expected.get(size) != tableSizeHistogram.nTablesOfSize(size))
+        throw new RuntimeException();
+    }
   }
   
   /**
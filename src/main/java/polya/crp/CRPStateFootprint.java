@@ -0,0 +1,98 @@
+package polya.crp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import polya.parametric.SufficientStatistic;
+
+
+/**
+ * Measures the heap used by the seating arrangement data structures
+ * (CRPState versus DenseCRPState) on a synthetic restaurant.
+ *
+ * The customer statistics only count points, so that the measurement
+ * reflects the seating bookkeeping. Run with e.g. -Xmx4g.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class CRPStateFootprint
+{
+  public static void main(String [] args)
+  {
+    final int nCustomers = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    final int nTables = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+    Map<Integer,SufficientStatistic> data = new HashMap<Integer,SufficientStatistic>();
+    for (int i = 0; i < nCustomers; i++)
+      data.put(i, new CountStatistic(1));
+
+    for (boolean dense : new boolean[]{false, true})
+    {
+      long before = usedHeap();
+      CRPState state = seat(data, nTables, dense);
+      long after = usedHeap();
+      System.out.println(
+          state.getClass().getSimpleName() + ": " +
+          "nCustomers=" + state.nCustomers() + ", " +
+          "nTables=" + state.nTables() + ", " +
+          "heapMB=" + (after - before) / 1024 / 1024);
+    }
+  }
+
+  private static CRPState seat(Map<Integer,SufficientStatistic> data, int nTables, boolean dense)
+  {
+    CRPState state = dense ? new DenseCRPState(data) : new CRPState(data);
+    for (int i = 0; i < data.size(); i++)
+      if (i < nTables)
+        state.addCustomerToNewTable(i);
+      else
+        state.addCustomerToExistingTable(i, state.getClusterIdOfCustomer(i % nTables));
+    return state;
+  }
+
+  private static long usedHeap()
+  {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++)
+      System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * A statistic that only counts points.
+   */
+  private static class CountStatistic implements SufficientStatistic
+  {
+    private int numberOfPoints;
+
+    private CountStatistic(int numberOfPoints)
+    {
+      this.numberOfPoints = numberOfPoints;
+    }
+
+    @Override
+    public void plusEqual(SufficientStatistic other)
+    {
+      numberOfPoints += other.numberOfPoints();
+    }
+
+    @Override
+    public void minusEqual(SufficientStatistic other)
+    {
+      numberOfPoints -= other.numberOfPoints();
+    }
+
+    @Override
+    public int numberOfPoints()
+    {
+      return numberOfPoints;
+    }
+
+    @Override
+    public SufficientStatistic copy()
+    {
+      return new CountStatistic(numberOfPoints);
+    }
+  }
+}
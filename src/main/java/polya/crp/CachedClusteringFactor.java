@@ -0,0 +1,108 @@
+package polya.crp;
+
+import polya.crp.utils.ClusterId;
+import polya.mcmc.Factor;
+
+
+/**
+ * The PY prior of the seating arrangement, with the same value as
+ * CompleteState.clusteringFactor (see CRPs.crpAssignmentLogProbabilitiy()),
+ * but maintained incrementally.
+ *
+ * The sum over tables of CRPs.blockLogFactor() is kept for the current
+ * discount, and updated as customers are seated and removed. As a result:
+ *
+ * - after a seating change, an evaluation costs O(1)
+ * - after a change of alpha0 only, an evaluation costs O(1)
+ * - after a change of the discount, an evaluation costs O(number of distinct
+ *   table sizes), using CRPState.tableSizeHistogram()
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class CachedClusteringFactor implements Factor, SeatingListener
+{
+  private final CRPState state;
+  private final PYPrior prior;
+
+  /**
+   * Sum over the tables of CRPs.blockLogFactor(blockDiscount, table size),
+   * NaN when it needs to be recomputed from the histogram.
+   */
+  private double blockSum = Double.NaN;
+  private double blockDiscount;
+
+  /**
+   * Number of incremental updates of blockSum since it was last summed from
+   * scratch; used to bound the accumulation of round-off errors.
+   */
+  private int nUpdates = 0;
+
+  private final BlockLogFactors blocks = new BlockLogFactors();
+
+  /**
+   * Creates a factor and attaches it to the provided restaurant.
+   *
+   * @param state
+   * @param prior
+   */
+  public CachedClusteringFactor(CRPState state, PYPrior prior)
+  {
+    this.state = state;
+    this.prior = prior;
+    state.addListener(this);
+  }
+
+  /**
+   * Detaches this factor from the restaurant.
+   */
+  public void detach()
+  {
+    state.removeListener(this);
+  }
+
+  @Override
+  public double logUnnormalizedPotential()
+  {
+    if (!prior.inBounds())
+      return Double.NEGATIVE_INFINITY;
+    final double discount = prior.discount();
+    if (Double.isNaN(blockSum) || blockDiscount != discount || nUpdates > state.nCustomers())
+    {
+      blockDiscount = discount;
+      blockSum = 0.0;
+      nUpdates = 0;
+      TableSizeHistogram histogram = state.tableSizeHistogram();
+      for (int i = 0; i < histogram.nDistinctSizes(); i++)
+      {
+        final int size = histogram.distinctSize(i);
+        blockSum += histogram.nTablesOfSize(size) * blocks.blockLogFactor(discount, size);
+      }
+    }
+    return CRPs.crpNormalization(prior, state.nTables(), state.nCustomers()) + blockSum;
+  }
+
+  private void increment(int size, int delta)
+  {
+    if (size == 0 || Double.isNaN(blockSum))
+      return;
+    blockSum += delta * blocks.blockLogFactor(blockDiscount, size);
+    nUpdates++;
+  }
+
+  @Override
+  public void customerAdded(Integer customer, ClusterId clusterId, boolean newTable)
+  {
+    final int size = state.tableSize(clusterId);
+    increment(size - 1, -1);
+    increment(size, 1);
+  }
+
+  @Override
+  public void customerRemoved(Integer customer, ClusterId clusterId, boolean tableDestroyed)
+  {
+    final int size = tableDestroyed ? 0 : state.tableSize(clusterId);
+    increment(size + 1, -1);
+    increment(size, 1);
+  }
+}
@@ -0,0 +1,252 @@
+package polya.crp;
+
+import java.util.Arrays;
+
+import polya.crp.utils.ClusterId;
+import polya.mcmc.Factor;
+import polya.parametric.CollapsedConjugateModel;
+import polya.parametric.HyperParameter;
+import polya.parametric.Parametrics;
+import polya.parametric.normal.NIWHyperParameter;
+
+
+/**
+ * The collapsed likelihood, sum over the tables of their log marginal, with
+ * the same value as CompleteState.collapsedLikelihoodFactor, but keeping the
+ * log marginal of each table across evaluations.
+ *
+ * - Seating changes mark the tables involved; only these are recomputed at
+ *   the next evaluation.
+ * - A change of the hyper-parameters invalidates all the tables. To make MH
+ *   moves on the hyper-parameters cheap, the values for the previous
+ *   hyper-parameters are also kept, so that going back to them after a
+ *   rejection does not require any recomputation.
+ *
+ * Changes of the hyper-parameters are detected automatically for kappa and
+ * nu of an NIWHyperParameter. For other modifications, call invalidate().
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class CachedLikelihoodFactor implements Factor, SeatingListener
+{
+  private final CRPState state;
+  private final HyperParameter hp;
+  private final CollapsedConjugateModel model;
+
+  /**
+   * The values for the current and previous hyper-parameters.
+   */
+  private Values current = new Values(), previous = new Values();
+
+  /**
+   * Tables modified since current was up to date, without duplicates.
+   */
+  private ClusterId [] modified = new ClusterId[16];
+  private int nModified = 0;
+
+  /**
+   * Indexed by ClusterId.id(): whether the table is in modified, and whether
+   * it is occupied. The latter is maintained from the seating events, so that
+   * it can be read without allocating a view of the table.
+   */
+  private boolean [] isModified = new boolean[0], occupied = new boolean[0];
+
+  /**
+   * Creates a factor and attaches it to the provided restaurant.
+   *
+   * @param state
+   * @param hp
+   * @param model
+   */
+  public CachedLikelihoodFactor(CRPState state, HyperParameter hp, CollapsedConjugateModel model)
+  {
+    this.state = state;
+    this.hp = hp;
+    this.model = model;
+    for (ClusterId id : state.getAllClusterIds())
+      setOccupied(id.id(), true);
+    state.addListener(this);
+  }
+
+  /**
+   * Detaches this factor from the restaurant.
+   */
+  public void detach()
+  {
+    state.removeListener(this);
+  }
+
+  /**
+   * Forces a recomputation of all tables at the next evaluation.
+   */
+  public void invalidate()
+  {
+    current.upToDate = false;
+    previous.upToDate = false;
+  }
+
+  @Override
+  public double logUnnormalizedPotential()
+  {
+    if (current.upToDate && current.hasHyperParameters())
+    {
+      updateModified();
+      return current.total;
+    }
+    if (previous.upToDate && previous.hasHyperParameters())
+    {
+      // e.g. after the rejection of an MH move on the hyper-parameters
+      swap();
+      return current.total;
+    }
+    if (current.upToDate && nModified == 0)
+      // keep the values of the old hyper-parameters
+      swap();
+    current.recomputeAll();
+    clearModified();
+    return current.total;
+  }
+
+  private void swap()
+  {
+    Values temp = current;
+    current = previous;
+    previous = temp;
+  }
+
+  private void updateModified()
+  {
+    for (int i = 0; i < nModified; i++)
+      current.update(modified[i]);
+    clearModified();
+    current.resumIfNeeded();
+  }
+
+  private void clearModified()
+  {
+    for (int i = 0; i < nModified; i++)
+    {
+      isModified[modified[i].id()] = false;
+      modified[i] = null;
+    }
+    nModified = 0;
+  }
+
+  private void markModified(ClusterId clusterId)
+  {
+    // the values of the previous hyper-parameters are not updated
+    previous.upToDate = false;
+    final int id = clusterId.id();
+    if (id >= isModified.length)
+      isModified = Arrays.copyOf(isModified, Math.max(id + 1, 2 * isModified.length));
+    if (isModified[id])
+      return;
+    isModified[id] = true;
+    if (nModified == modified.length)
+      modified = Arrays.copyOf(modified, 2 * modified.length);
+    modified[nModified++] = clusterId;
+  }
+
+  private void setOccupied(int id, boolean value)
+  {
+    if (id >= occupied.length)
+      occupied = Arrays.copyOf(occupied, Math.max(id + 1, 2 * occupied.length));
+    occupied[id] = value;
+  }
+
+  @Override
+  public void customerAdded(Integer customer, ClusterId clusterId, boolean newTable)
+  {
+    if (newTable)
+      setOccupied(clusterId.id(), true);
+    markModified(clusterId);
+  }
+
+  @Override
+  public void customerRemoved(Integer customer, ClusterId clusterId, boolean tableDestroyed)
+  {
+    if (tableDestroyed)
+      setOccupied(clusterId.id(), false);
+    markModified(clusterId);
+  }
+
+  /**
+   * The log marginals of the tables for one value of the hyper-parameters.
+   */
+  private class Values
+  {
+    private boolean upToDate = false;
+    private double kappa, nu;
+
+    /**
+     * Indexed by ClusterId.id(), zero for tables that do not exist.
+     */
+    private double [] logMarginals = new double[0];
+    private double total;
+
+    /**
+     * Number of incremental updates of total since it was last summed
+     * from scratch; used to bound the accumulation of round-off errors.
+     */
+    private int nUpdates;
+
+    private boolean hasHyperParameters()
+    {
+      if (!(hp instanceof NIWHyperParameter))
+        return true;
+      NIWHyperParameter niw = (NIWHyperParameter) hp;
+      return kappa == niw.kappa() && nu == niw.nu();
+    }
+
+    private void recomputeAll()
+    {
+      if (hp instanceof NIWHyperParameter)
+      {
+        kappa = ((NIWHyperParameter) hp).kappa();
+        nu = ((NIWHyperParameter) hp).nu();
+      }
+      Arrays.fill(logMarginals, 0.0);
+      for (ClusterId id : state.getAllClusterIds())
+      {
+        ensureCapacity(id.id());
+        logMarginals[id.id()] = Parametrics.logMarginalWithClosedForm(model, hp, state.getClusterStatistics(id));
+      }
+      resum();
+      upToDate = true;
+    }
+
+    private void update(ClusterId clusterId)
+    {
+      final int id = clusterId.id();
+      ensureCapacity(id);
+      final double before = logMarginals[id];
+      logMarginals[id] = !occupied[id] ?
+          0.0 :
+          Parametrics.logMarginalWithClosedForm(model, hp, state.getClusterStatistics(clusterId));
+      total += logMarginals[id] - before;
+      nUpdates++;
+    }
+
+    private void resumIfNeeded()
+    {
+      if (nUpdates > logMarginals.length)
+        resum();
+    }
+
+    private void resum()
+    {
+      total = 0.0;
+      for (int i = 0; i < logMarginals.length; i++)
+        total += logMarginals[i];
+      nUpdates = 0;
+    }
+
+    private void ensureCapacity(int id)
+    {
+      if (id < logMarginals.length)
+        return;
+      logMarginals = Arrays.copyOf(logMarginals, Math.max(id + 1, 2 * logMarginals.length));
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package polya.crp;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Writes a checkpoint of a chain every period sweeps (see Checkpoints).
+ *
+ * The seating and parameters are copied on the sampling thread, in a time
+ * linear in the number of customers, while the encoding and the writing
+ * of the file are done on a background thread. At most one checkpoint is
+ * pending: if the previous one is still being written, the sampling
+ * thread waits for it.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class Checkpointer
+{
+  private final File file;
+  private final int period;
+  private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable)
+    {
+      Thread result = new Thread(runnable, "checkpoint-writer");
+      result.setDaemon(true);
+      return result;
+    }
+  });
+  private Future<?> pending = null;
+
+  /**
+   *
+   * @param file Replaced at each checkpoint
+   * @param period Number of sweeps between checkpoints
+   */
+  public Checkpointer(File file, int period)
+  {
+    if (period < 1)
+      throw new RuntimeException();
+    this.file = file;
+    this.period = period;
+  }
+
+  /**
+   * Call after each sweep; writes a checkpoint when nSweeps is a multiple
+   * of the period.
+   *
+   * @param state
+   * @param rand The random number generator used by the chain
+   * @param nSweeps The number of sweeps done so far
+   */
+  public void afterSweep(CompleteState state, Random rand, long nSweeps)
+  {
+    if (nSweeps % period == 0)
+      checkpoint(state, rand, nSweeps);
+  }
+
+  /**
+   * Writes a checkpoint in the background.
+   *
+   * @param state
+   * @param rand
+   * @param nSweeps
+   */
+  public void checkpoint(CompleteState state, Random rand, long nSweeps)
+  {
+    waitForPending();
+    final Checkpoints.Image image = Checkpoints.capture(state, rand, nSweeps);
+    pending = writer.submit(new Runnable() {
+      @Override
+      public void run()
+      {
+        image.writeTo(file);
+      }
+    });
+  }
+
+  /**
+   * Waits for the last checkpoint to be written.
+   */
+  public void waitForPending()
+  {
+    if (pending == null)
+      return;
+    try
+    {
+      pending.get();
+    }
+    catch (InterruptedException e)
+    {
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e)
+    {
+      throw new RuntimeException(e.getCause());
+    }
+    finally
+    {
+      pending = null;
+    }
+  }
+
+  /**
+   * Waits for the last checkpoint to be written, and stops the
+   * background thread.
+   */
+  public void close()
+  {
+    waitForPending();
+    writer.shutdown();
+  }
+}
@@ -0,0 +1,422 @@
+package polya.crp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.ejml.simple.SimpleMatrix;
+
+import polya.crp.utils.ClusterId;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.StatisticArena;
+import polya.parametric.normal.TwoMomentsStatistic;
+
+
+/**
+ * Checkpoints of a running chain in a binary file, so that a long run can
+ * be resumed after a crash without re-parsing the data.
+ *
+ * A checkpoint contains the points of the customers, the table of each
+ * customer, the order of CompleteState.allCustomers, the values of the PY
+ * and NIW parameters, the streaming and sampler settings, the inverse
+ * temperature (see CompleteState.setInverseTemperature()), the state of
+ * the MH moves, including the scales of the adaptive moves (see
+ * MHAlternation.writeState()), and the state of the random number
+ * generator. The statistics of the tables are recomputed from the
+ * points when restoring, which takes a time linear in the number of
+ * customers, like reading the file.
+ *
+ * Layout (big endian, as written by DataOutputStream): MAGIC, the version
+ * (int), the kind of seating (byte), the number of sweeps done (long), the
+ * number of customers, the dimensionality and the number of tables (ints),
+ * alpha0, discount, kappa, nu, scriptV and delta (doubles), the streaming
+ * state, then the arrays described above.
+ *
+ * The customers should be 0, 1, ..., n-1, as created by the loaders in
+ * NIWs and by CompleteState.addCustomer(). Restored seatings are
+ * DenseCRPStates reading their points from a StatisticArena, except
+ * CopyOnWriteCRPStates which are restored as such.
+ *
+ * Use Checkpointer to write checkpoints periodically on a background thread.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class Checkpoints
+{
+  public static final byte [] MAGIC = "POLYACKP".getBytes(StandardCharsets.US_ASCII);
+  public static final int VERSION = 4;
+
+  private static final byte DENSE_SEATING = 0, COPY_ON_WRITE_SEATING = 1;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * A restored chain.
+   */
+  public static class Checkpoint
+  {
+    /**
+     * The restored state. Its MH moves are not restored, add them
+     * then call restoreMHMoves().
+     */
+    public final CompleteState state;
+
+    /**
+     * The random number generator, in the state it was when the
+     * checkpoint was taken.
+     */
+    public final Random rand;
+
+    /**
+     * The number of sweeps done when the checkpoint was taken.
+     */
+    public final long nSweeps;
+
+    private final byte [] mhState;
+
+    private Checkpoint(CompleteState state, Random rand, long nSweeps, byte [] mhState)
+    {
+      this.state = state;
+      this.rand = rand;
+      this.nSweeps = nSweeps;
+      this.mhState = mhState;
+    }
+
+    /**
+     * Restores the state of the MH moves, after the same moves as in the
+     * checkpointed chain were added to state.mhMoves (e.g. with
+     * CRPMain.initMHMoves()).
+     */
+    public void restoreMHMoves()
+    {
+      try
+      {
+        state.mhMoves.readState(new DataInputStream(new ByteArrayInputStream(mhState)));
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Writes a checkpoint, replacing the file atomically when the file
+   * system supports it, so that a crash while writing leaves the previous
+   * checkpoint intact.
+   *
+   * @param file
+   * @param state
+   * @param rand The random number generator used by the chain
+   * @param nSweeps The number of sweeps done so far
+   */
+  public static void write(File file, CompleteState state, Random rand, long nSweeps)
+  {
+    capture(state, rand, nSweeps).writeTo(file);
+  }
+
+  /**
+   * Copies what is needed to write a checkpoint, in a time linear in the
+   * number of customers, so that the chain can keep running while the
+   * image is written (see Checkpointer).
+   */
+  static Image capture(CompleteState state, Random rand, long nSweeps)
+  {
+    final CRPState clustering = state.clustering;
+    final int nCustomers = clustering.nCustomers();
+    final int dim = state.hp.dim();
+    Image result = new Image();
+    result.seatingKind = clustering instanceof CopyOnWriteCRPState ? COPY_ON_WRITE_SEATING : DENSE_SEATING;
+    result.nSweeps = nSweeps;
+    result.nCustomers = nCustomers;
+    result.dim = dim;
+    result.alpha0 = state.clusteringParams.alpha0();
+    result.discount = state.clusteringParams.discount();
+    result.kappa = state.hp.kappa();
+    result.nu = state.hp.nu();
+    result.scriptV = new double[dim];
+    result.delta = new double[dim * dim];
+    for (int i = 0; i < dim; i++)
+    {
+      result.scriptV[i] = state.hp.scriptV().get(i, 0);
+      for (int j = 0; j < dim; j++)
+        result.delta[i * dim + j] = state.hp.delta().get(i, j);
+    }
+    result.nextCustomer = state.nextCustomer();
+    result.streamingWindowSize = state.streamingWindowSize();
+    result.nRejuvenationSweeps = state.nRejuvenationSweeps();
+    result.gibbsSweep = state.usesGibbsSweep();
+    result.cachedFactors = state.usesCachedFactors();
+    result.nSplitMergeMoves = state.nSplitMergeMoves();
+    result.inverseTemperature = state.inverseTemperature();
+    result.recentCustomers = toArray(state.recentCustomers());
+
+    if (state.allCustomers.size() != nCustomers)
+      throw new RuntimeException();
+    result.order = toArray(state.allCustomers);
+    result.labels = new int[nCustomers];
+    Arrays.fill(result.labels, -1);
+    result.points = new double[nCustomers * dim];
+    Map<ClusterId,Integer> tableLabels = new HashMap<ClusterId,Integer>();
+    for (int customer : result.order)
+    {
+      if (customer < 0 || customer >= nCustomers || result.labels[customer] != -1)
+        throw new RuntimeException("Checkpoints require the customers to be 0, 1, ..., n-1");
+      final ClusterId table = clustering.getClusterIdOfCustomer(customer);
+      Integer label = tableLabels.get(table);
+      if (label == null)
+      {
+        label = tableLabels.size();
+        tableLabels.put(table, label);
+      }
+      result.labels[customer] = label;
+      final TwoMomentsStatistic point = (TwoMomentsStatistic) clustering.getCustomerStatistic(customer);
+      for (int d = 0; d < dim; d++)
+        result.points[customer * dim + d] = point.sumOfValues(d);
+    }
+    result.nTables = tableLabels.size();
+
+    try
+    {
+      ByteArrayOutputStream mhBytes = new ByteArrayOutputStream();
+      DataOutputStream mhOut = new DataOutputStream(mhBytes);
+      state.mhMoves.writeState(mhOut);
+      mhOut.flush();
+      result.mhState = mhBytes.toByteArray();
+
+      ByteArrayOutputStream randBytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream randOut = new ObjectOutputStream(randBytes))
+      {
+        randOut.writeObject(rand);
+      }
+      result.randState = randBytes.toByteArray();
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+    return result;
+  }
+
+  private static int [] toArray(List<Integer> list)
+  {
+    int [] result = new int[list.size()];
+    for (int i = 0; i < result.length; i++)
+      result[i] = list.get(i);
+    return result;
+  }
+
+  /**
+   * Restores a chain from a file created by write() or by a Checkpointer.
+   *
+   * @param file
+   * @return
+   */
+  public static Checkpoint restore(File file)
+  {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)))
+    {
+      byte [] magic = new byte[MAGIC.length];
+      in.readFully(magic);
+      if (!Arrays.equals(magic, MAGIC))
+        throw new RuntimeException("Not a checkpoint: " + file);
+      final int version = in.readInt();
+      if (version != VERSION)
+        throw new RuntimeException("Unsupported version: " + version);
+      final byte seatingKind = in.readByte();
+      final long nSweeps = in.readLong();
+      final int nCustomers = in.readInt();
+      final int dim = in.readInt();
+      final int nTables = in.readInt();
+      if (nCustomers < 1 || dim < 1 || nTables < 1 || nTables > nCustomers)
+        throw new RuntimeException("Invalid checkpoint: nCustomers=" + nCustomers + ", dim=" + dim + ", nTables=" + nTables);
+
+      final double alpha0 = in.readDouble();
+      final double discount = in.readDouble();
+      final double kappa = in.readDouble();
+      final double nu = in.readDouble();
+      SimpleMatrix scriptV = new SimpleMatrix(dim, 1);
+      for (int i = 0; i < dim; i++)
+        scriptV.set(i, 0, in.readDouble());
+      SimpleMatrix delta = new SimpleMatrix(dim, dim);
+      for (int i = 0; i < dim; i++)
+        for (int j = 0; j < dim; j++)
+          delta.set(i, j, in.readDouble());
+
+      final int nextCustomer = in.readInt();
+      final int streamingWindowSize = in.readInt();
+      final int nRejuvenationSweeps = in.readInt();
+      final boolean gibbsSweep = in.readBoolean();
+      final boolean cachedFactors = in.readBoolean();
+      final int nSplitMergeMoves = in.readInt();
+      final double inverseTemperature = in.readDouble();
+      List<Integer> recentCustomers = readList(in, in.readInt());
+      List<Integer> order = readList(in, nCustomers);
+      int [] labels = new int[nCustomers];
+      for (int i = 0; i < nCustomers; i++)
+        labels[i] = in.readInt();
+
+      StatisticArena arena = new StatisticArena(dim, nCustomers, false);
+      double [] point = new double[dim];
+      for (int customer = 0; customer < nCustomers; customer++)
+      {
+        for (int d = 0; d < dim; d++)
+          point[d] = in.readDouble();
+        arena.setPoint(customer, point);
+      }
+      CRPState clustering = seatingKind == COPY_ON_WRITE_SEATING ?
+          new CopyOnWriteCRPState(arena.customerStatistics()) :
+          new DenseCRPState(arena);
+      ClusterId [] tables = new ClusterId[nTables];
+      for (int customer = 0; customer < nCustomers; customer++)
+      {
+        final int label = labels[customer];
+        if (tables[label] == null)
+          tables[label] = clustering.addCustomerToNewTable(customer);
+        else
+          clustering.addCustomerToExistingTable(customer, tables[label]);
+      }
+
+      byte [] mhState = new byte[in.readInt()];
+      in.readFully(mhState);
+      byte [] randState = new byte[in.readInt()];
+      in.readFully(randState);
+      Random rand;
+      try (ObjectInputStream randIn = new ObjectInputStream(new ByteArrayInputStream(randState)))
+      {
+        rand = (Random) randIn.readObject();
+      }
+
+      CompleteState state = new CompleteState(
+          clustering,
+          new PYPrior(alpha0, discount),
+          new NIWHyperParameter(kappa, scriptV, nu, delta),
+          CollapsedNIWModel.instance);
+      state.allCustomers.clear();
+      state.allCustomers.addAll(order);
+      state.setStreamingWindowSize(streamingWindowSize);
+      state.setNRejuvenationSweeps(nRejuvenationSweeps);
+      state.restoreStreamingState(nextCustomer, recentCustomers);
+      if (gibbsSweep)
+        state.useGibbsSweep();
+      if (cachedFactors)
+        state.useCachedFactors();
+      if (nSplitMergeMoves > 0)
+        state.useSplitMerge(nSplitMergeMoves);
+      state.setInverseTemperature(inverseTemperature);
+      return new Checkpoint(state, rand, nSweeps, mhState);
+    }
+    catch (IOException | ClassNotFoundException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static List<Integer> readList(DataInputStream in, int size) throws IOException
+  {
+    List<Integer> result = new ArrayList<Integer>(size);
+    for (int i = 0; i < size; i++)
+      result.add(in.readInt());
+    return result;
+  }
+
+  /**
+   * The content of a checkpoint, copied from a CompleteState.
+   */
+  static class Image
+  {
+    private byte seatingKind;
+    private long nSweeps;
+    private int nCustomers, dim, nTables;
+    private double alpha0, discount, kappa, nu;
+    private double [] scriptV, delta;
+    private int nextCustomer, streamingWindowSize, nRejuvenationSweeps, nSplitMergeMoves;
+    private double inverseTemperature;
+    private boolean gibbsSweep, cachedFactors;
+    private int [] recentCustomers, order, labels;
+    private double [] points;
+    private byte [] mhState, randState;
+
+    /**
+     * Writes to a temporary file in the same directory, then moves it.
+     */
+    void writeTo(File file)
+    {
+      File temporary = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+      try
+      {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), BUFFER_SIZE)))
+        {
+          out.write(MAGIC);
+          out.writeInt(VERSION);
+          out.writeByte(seatingKind);
+          out.writeLong(nSweeps);
+          out.writeInt(nCustomers);
+          out.writeInt(dim);
+          out.writeInt(nTables);
+          out.writeDouble(alpha0);
+          out.writeDouble(discount);
+          out.writeDouble(kappa);
+          out.writeDouble(nu);
+          for (double value : scriptV)
+            out.writeDouble(value);
+          for (double value : delta)
+            out.writeDouble(value);
+          out.writeInt(nextCustomer);
+          out.writeInt(streamingWindowSize);
+          out.writeInt(nRejuvenationSweeps);
+          out.writeBoolean(gibbsSweep);
+          out.writeBoolean(cachedFactors);
+          out.writeInt(nSplitMergeMoves);
+          out.writeDouble(inverseTemperature);
+          out.writeInt(recentCustomers.length);
+          for (int customer : recentCustomers)
+            out.writeInt(customer);
+          for (int customer : order)
+            out.writeInt(customer);
+          for (int label : labels)
+            out.writeInt(label);
+          for (double value : points)
+            out.writeDouble(value);
+          out.writeInt(mhState.length);
+          out.write(mhState);
+          out.writeInt(randState.length);
+          out.write(randState);
+        }
+        try
+        {
+          Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+          Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
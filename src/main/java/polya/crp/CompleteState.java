@@ -1,24 +1,31 @@
 package polya.crp;
 
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-
-import org.apache.commons.math3.analysis.MultivariateFunction;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import polya.crp.utils.ClusterId;
-import polya.crp.utils.LogAverageFunction;
 import polya.mcmc.Factor;
 import polya.mcmc.MHAlternation;
+import polya.mcmc.PointwiseFactor;
+import polya.mcmc.RealNodePrior;
 import polya.mcmc.RealVariable;
 import polya.parametric.Parametrics;
 import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.BinaryDatasets;
 import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWCholeskyPosterior;
 import polya.parametric.normal.NIWHyperParameter;
 import polya.parametric.normal.NIWs;
+import polya.parametric.normal.StudentTMixture;
+import polya.parametric.normal.TwoMomentsStatistic;
 
 import com.google.common.collect.Maps;
 
@@ -65,27 +72,151 @@ public class CompleteState
    */
   public final List<Integer> allCustomers;
   
+  /**
+   * When non-null, used instead of CRPSamplers.gibbs() to resample the seating.
+   * See useGibbsSweep()
+   */
+  private GibbsSweep gibbsSweep = null;
+  
+  /**
+   * When non-null, used instead of the sequential samplers to resample the seating.
+   * See useSuperclusters()
+   */
+  private SuperclusterSampler superclusterSampler = null;
+  
+  /**
+   * When non-null, used instead of the sequential samplers to resample the seating.
+   * See useSliceSampler()
+   */
+  private SliceSampler sliceSampler = null;
+  
+  /**
+   * When non-null, nSplitMergeMoves split-merge moves are performed at each 
+   * sampling round, after the seating is resampled. See useSplitMerge()
+   */
+  private SplitMergeMove splitMerge = null;
+  private int nSplitMergeMoves = 0;
+  
+  /**
+   * When non-null, used to perform MH moves concurrently and to compute
+   * the collapsed likelihood in parallel. See useThreads()
+   */
+  private ForkJoinPool pool = null;
+  
+  /**
+   * When non-null, collapsedLikelihoodFactor and clusteringFactor delegate to these.
+   * See useCachedFactors()
+   */
+  private CachedLikelihoodFactor cachedLikelihood = null;
+  private CachedClusteringFactor cachedClustering = null;
+  
+  /**
+   * When non-null, used to resample alpha0 and the discount at each
+   * sampling round, before the MH moves. See usePYParameterSampler()
+   */
+  private PYParameterSampler pyParameterSampler = null;
+  
+  /**
+   * See setInverseTemperature()
+   */
+  private double inverseTemperature = 1.0;
+  
+  /**
+   * See setStreamingWindowSize() and setNRejuvenationSweeps()
+   */
+  private int streamingWindowSize = 100;
+  private int nRejuvenationSweeps = 1;
+  
+  /**
+   * The most recently added customers, at most streamingWindowSize, oldest first.
+   */
+  private final ArrayDeque<Integer> recentCustomers = new ArrayDeque<Integer>();
+  private final List<Integer> rejuvenationOrder = new ArrayList<Integer>();
+  
+  /**
+   * Id of the next customer created by addCustomer()
+   */
+  private int nextCustomer;
+  
   /**
    * Initialize the arrangement by putting each customer alone at their table.
    * 
    * Initialize the likelihood using the provided csv,
    * each line is a customer (no header), each column is a dimension.
    * 
-   * TODO: currently assumes 2 dimensions
-   * 
    * @param csvFile
    * @return
    */
   public static CompleteState standardInit(File csvFile)
   {
-    CRPState state = CRPState.fullyDisconnectedClustering(NIWs.loadFromCSVFile(csvFile));
-    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(2);
+    return standardInit(csvFile, false);
+  }
+  
+  /**
+   * Same as standardInit(csvFile), but optionally uses the array-based
+   * DenseCRPState, with the points parsed on all cores into a StatisticArena
+   * (see NIWs.loadFromCSVFileInParallel()), recommended for large datasets.
+   * 
+   * @param csvFile
+   * @param denseSeating
+   * @return
+   */
+  public static CompleteState standardInit(File csvFile, boolean denseSeating)
+  {
+    if (denseSeating)
+      return standardInit(DenseCRPState.fullyDisconnectedClustering(
+          NIWs.loadFromCSVFileInParallel(csvFile, Runtime.getRuntime().availableProcessors())));
+    return standardInit(CRPState.fullyDisconnectedClustering(NIWs.loadFromCSVFile(csvFile)));
+  }
+  
+  /**
+   * Same as standardInit(csvFile, true), but reading a file created by
+   * BinaryDatasets.convertFromCSV(). The file is memory mapped rather than
+   * parsed, and the points are not copied on the heap.
+   * 
+   * @param binaryFile
+   * @return
+   */
+  public static CompleteState standardInitFromBinary(File binaryFile)
+  {
+    return standardInit(DenseCRPState.fullyDisconnectedClustering(BinaryDatasets.map(binaryFile)));
+  }
+  
+  /**
+   * Initialize with the provided arrangement, for example a DenseCRPState
+   * reading its statistics from a StatisticArena.
+   * 
+   * The dimensionality of the hyper-parameters is the one of the statistics
+   * of the customers, which should all be the same.
+   * 
+   * @param state
+   * @return
+   */
+  public static CompleteState standardInit(CRPState state)
+  {
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(dimensionality(state));
     CollapsedNIWModel model = CollapsedNIWModel.instance;
     PYPrior prior = new PYPrior(1, 0);
     return new CompleteState(state, prior, hp, model);
   }
   
-  private CompleteState(
+  private static int dimensionality(CRPState state)
+  {
+    int result = -1;
+    for (Integer customer : state.getAllCustomers())
+    {
+      final int current = ((TwoMomentsStatistic) state.getCustomerStatistic(customer)).dim();
+      if (result == -1)
+        result = current;
+      else if (current != result)
+        throw new RuntimeException("Customers of different dimensionalities: " + result + " and " + current);
+    }
+    if (result == -1)
+      throw new RuntimeException("Empty restaurant.");
+    return result;
+  }
+  
+  CompleteState(
       CRPState clustering, 
       PYPrior clusteringParams,
       NIWHyperParameter hp, 
@@ -97,80 +228,590 @@ public class CompleteState
     this.model = model;
     allCustomers = new ArrayList<Integer>(clustering.getAllCustomers());
     Collections.sort(allCustomers);
+    nextCustomer = allCustomers.isEmpty() ? 0 : allCustomers.get(allCustomers.size() - 1) + 1;
     this.mhMoves = new MHAlternation();
   }
   
   /**
    * Return the logpredictive distribution corresponding to the current configuration.
    * 
+   * The Student-t predictive of each table is compiled once (see StudentTMixture),
+   * so the predictives of several samples can be averaged with addAll().
+   * 
    * @return
    */
-  public MultivariateFunction logPredictive()
+  public StudentTMixture logPredictive()
   {
-    LogAverageFunction result = new LogAverageFunction();
+    StudentTMixture result = new StudentTMixture(hp.dim());
     
     List<ClusterId> existingTables = clustering.getAllClusterIds();
     
     for (int i = 0; i < clustering.nTables(); i++)
     {
       ClusterId current = existingTables.get(i);
-      SufficientStatistic customerAlreadyAtTable = clustering.getClusterStatistics(current);
-      NIWHyperParameter updated = (NIWHyperParameter) model.update(hp, customerAlreadyAtTable);
-      MultivariateFunction currentFct = NIWs.logMarginalAsFunctionOfData(updated);
+      TwoMomentsStatistic customerAlreadyAtTable = (TwoMomentsStatistic) clustering.getClusterStatistics(current);
       double logW = clusteringParams.logUnnormalizedPredictive(clustering.getTable(current).size(), clustering.nTables());
-      result.addFunction(logW, currentFct);
+      result.add(logW, NIWCholeskyPosterior.fromData(hp, customerAlreadyAtTable));
     }
-    NIWHyperParameter copy = NIWHyperParameter.copyOf(hp);
-    MultivariateFunction currentFct = NIWs.logMarginalAsFunctionOfData(copy);
     double logW = clusteringParams.logUnnormalizedPredictive(0, clustering.nTables());
-    result.addFunction(logW, currentFct);
+    result.add(logW, NIWCholeskyPosterior.fromPrior(hp));
     
     return result;
   }
   
+  /**
+   * Resample the seating with a GibbsSweep, which reuses its buffers and 
+   * caches the NIW predictives across moves, instead of calling
+   * CRPSamplers.gibbs() for each customer.
+   */
+  public void useGibbsSweep()
+  {
+    if (gibbsSweep == null)
+    {
+      gibbsSweep = new GibbsSweep(clustering, hp, model, clusteringParams);
+      gibbsSweep.setInverseTemperature(inverseTemperature);
+    }
+  }
+  
+  /**
+   * Resample the seating in parallel with a SuperclusterSampler using
+   * the provided number of threads. Only valid when the discount is zero.
+   * 
+   * @param nWorkers
+   */
+  public void useSuperclusters(int nWorkers)
+  {
+    if (superclusterSampler != null)
+      superclusterSampler.shutdown();
+    superclusterSampler = new SuperclusterSampler(clustering, hp, model, clusteringParams, nWorkers);
+  }
+  
+  /**
+   * Resample the seating in parallel with a SliceSampler using the
+   * provided number of threads. Unlike useSuperclusters(), the discount
+   * can be positive.
+   * 
+   * @param nThreads
+   */
+  public void useSliceSampler(int nThreads)
+  {
+    if (sliceSampler != null)
+      sliceSampler.shutdown();
+    sliceSampler = new SliceSampler(clustering, hp, clusteringParams, nThreads);
+  }
+  
+  /**
+   * Resample alpha0 and the discount by slice sampling at each sampling
+   * round (see PYParameterSampler), in a time independent of the number
+   * of customers, instead of adding MH moves for them to mhMoves.
+   * 
+   * Like the MH moves, this is not preserved by Snapshot.fork() and
+   * Checkpoints, call it again on the new state.
+   * 
+   * @param alpha0Prior Prior on alpha0, a PointwiseFactor such as
+   *   ExponentialPrior, or null to keep alpha0 fixed
+   * @param discountPrior Prior on the discount, a PointwiseFactor such as
+   *   UniformPrior, or null to keep the discount fixed
+   */
+  public void usePYParameterSampler(RealNodePrior alpha0Prior, RealNodePrior discountPrior)
+  {
+    pyParameterSampler = new PYParameterSampler(clustering, clusteringParams, alpha0Prior, discountPrior);
+  }
+  
+  /**
+   * Add nMovesPerRound split-merge moves (see SplitMergeMove) to each 
+   * sampling round, to move large groups of customers between tables, 
+   * which the Gibbs samplers can only do one customer at the time.
+   * 
+   * @param nMovesPerRound Zero to disable the split-merge moves
+   */
+  public void useSplitMerge(int nMovesPerRound)
+  {
+    if (nMovesPerRound < 0)
+      throw new RuntimeException();
+    if (splitMerge == null)
+    {
+      splitMerge = new SplitMergeMove(clustering, hp, model, clusteringParams);
+      splitMerge.setInverseTemperature(inverseTemperature);
+    }
+    nSplitMergeMoves = nMovesPerRound;
+  }
+  
+  /**
+   * 
+   * @return The split-merge move, or null if useSplitMerge() was not called
+   */
+  public SplitMergeMove splitMergeMove()
+  {
+    return splitMerge;
+  }
+  
+  /**
+   * Perform the MH moves on variables not sharing factors concurrently (see 
+   * MHAlternation.useThreads()), and split the sum over tables in
+   * collapsedLikelihoodFactor across threads.
+   * 
+   * @param nThreads
+   */
+  public void useThreads(int nThreads)
+  {
+    if (pool != null)
+      pool.shutdown();
+    pool = new ForkJoinPool(nThreads);
+    mhMoves.useThreads(pool);
+  }
+  
+  /**
+   * Maintain the values of collapsedLikelihoodFactor and clusteringFactor
+   * incrementally as the seating changes, instead of recomputing them at 
+   * each evaluation (see CachedLikelihoodFactor and CachedClusteringFactor).
+   */
+  public void useCachedFactors()
+  {
+    if (cachedLikelihood != null)
+      return;
+    cachedLikelihood = new CachedLikelihoodFactor(clustering, hp, model);
+    cachedClustering = new CachedClusteringFactor(clustering, clusteringParams);
+  }
+  
+  boolean usesGibbsSweep()
+  {
+    return gibbsSweep != null;
+  }
+  
+  boolean usesCachedFactors()
+  {
+    return cachedLikelihood != null;
+  }
+  
+  int nSplitMergeMoves()
+  {
+    return nSplitMergeMoves;
+  }
+  
+  /**
+   * 
+   * @return Id of the next customer created by addCustomer()
+   */
+  int nextCustomer()
+  {
+    return nextCustomer;
+  }
+  
+  /**
+   * 
+   * @return The customers rejuvenated by addCustomer(), oldest first
+   */
+  List<Integer> recentCustomers()
+  {
+    return new ArrayList<Integer>(recentCustomers);
+  }
+  
+  /**
+   * Used when restoring a checkpoint, see Checkpoints.
+   * 
+   * @param nextCustomer
+   * @param recent
+   */
+  void restoreStreamingState(int nextCustomer, List<Integer> recent)
+  {
+    this.nextCustomer = nextCustomer;
+    recentCustomers.clear();
+    recentCustomers.addAll(recent);
+  }
+  
+  /**
+   * Records the seating and the parameters, for example to retain a
+   * posterior sample of the full partition, or to fork the chain later
+   * (see Snapshot.fork()).
+   *
+   * Requires the seating to be a CopyOnWriteCRPState (e.g. use
+   * standardInit(CopyOnWriteCRPState.fullyDisconnectedClustering(data))). The
+   * snapshot then shares the pages of its arrays with this state, so
+   * that taking it is in O(number of customers / 2^10 + number of tables / 2^4)
+   * and the subsequent moves only copy the pages they modify.
+   *
+   * @return
+   */
+  public Snapshot snapshot()
+  {
+    if (!(clustering instanceof CopyOnWriteCRPState))
+      throw new RuntimeException("Snapshots require a CopyOnWriteCRPState, got: " + clustering.getClass().getSimpleName());
+    return new Snapshot(this);
+  }
+
+  /**
+   * The seating and parameters of a CompleteState at the time
+   * CompleteState.snapshot() was called. Not modified by later moves on
+   * that state, nor on the states forked from it.
+   */
+  public static class Snapshot
+  {
+    private final CopyOnWriteCRPState clustering;
+    private final PYPrior clusteringParams;
+    private final NIWHyperParameter hp;
+    private final CollapsedNIWModel model;
+    private final int nextCustomer, streamingWindowSize, nRejuvenationSweeps, nSplitMergeMoves;
+    private final boolean gibbsSweep, cachedFactors;
+    private final double inverseTemperature;
+
+    private Snapshot(CompleteState state)
+    {
+      this.clustering = ((CopyOnWriteCRPState) state.clustering).copy();
+      this.clusteringParams = new PYPrior(state.clusteringParams.alpha0(), state.clusteringParams.discount());
+      this.hp = NIWHyperParameter.copyOf(state.hp);
+      this.model = state.model;
+      this.nextCustomer = state.nextCustomer;
+      this.streamingWindowSize = state.streamingWindowSize;
+      this.nRejuvenationSweeps = state.nRejuvenationSweeps;
+      this.nSplitMergeMoves = state.nSplitMergeMoves;
+      this.gibbsSweep = state.gibbsSweep != null;
+      this.cachedFactors = state.cachedLikelihood != null;
+      this.inverseTemperature = state.inverseTemperature;
+    }
+
+    /**
+     * Note: the pages of this seating may be shared with other states,
+     * do not modify it, use fork() instead.
+     *
+     * @return
+     */
+    public CRPState clustering()
+    {
+      return clustering;
+    }
+
+    public double alpha0()
+    {
+      return clusteringParams.alpha0();
+    }
+
+    public double discount()
+    {
+      return clusteringParams.discount();
+    }
+
+    /**
+     * @return A copy of the NIW hyper-parameters
+     */
+    public NIWHyperParameter hp()
+    {
+      return NIWHyperParameter.copyOf(hp);
+    }
+
+    /**
+     * Creates a new chain starting at this snapshot, with its own seating
+     * (a copy-on-write copy of the snapshot's) and its own parameters,
+     * so that it can be resampled independently of the original chain,
+     * e.g. for tempering, SMC or speculative moves.
+     *
+     * The choice of GibbsSweep, of cached factors, of split-merge moves and
+     * the temperature (useGibbsSweep(), useCachedFactors(), useSplitMerge(),
+     * setInverseTemperature()) are preserved,
+     * but not the threads, the superclusters, the slice sampler, or the MH
+     * moves: since the latter refer to the variables and factors of the
+     * original state, they should be added again on the fork (e.g. as in
+     * CRPMain.initMHMoves()).
+     *
+     * In O(number of customers), to build CompleteState.allCustomers.
+     *
+     * @return
+     */
+    public CompleteState fork()
+    {
+      CompleteState result = new CompleteState(
+          clustering.copy(),
+          new PYPrior(clusteringParams.alpha0(), clusteringParams.discount()),
+          NIWHyperParameter.copyOf(hp),
+          model);
+      result.nextCustomer = nextCustomer;
+      result.setStreamingWindowSize(streamingWindowSize);
+      result.setNRejuvenationSweeps(nRejuvenationSweeps);
+      if (gibbsSweep)
+        result.useGibbsSweep();
+      if (cachedFactors)
+        result.useCachedFactors();
+      if (nSplitMergeMoves > 0)
+        result.useSplitMerge(nSplitMergeMoves);
+      result.setInverseTemperature(inverseTemperature);
+      return result;
+    }
+  }
+
+  /**
+   * Streaming mode: adds a customer to the running chain, instead of
+   * restarting it when new data arrives.
+   * 
+   * The new customer is seated by sampling from its conditional given the
+   * current seating (the sequential update of the CRP, weighting each table
+   * by PYPrior.logUnnormalizedPredictive() times the collapsed predictive).
+   * The seating of the streamingWindowSize most recent customers, including
+   * this one, is then rejuvenated with nRejuvenationSweeps Gibbs sweeps, so
+   * that each addition costs O(streamingWindowSize * number of tables),
+   * independently of the number of customers. Full sampling rounds can still
+   * be interleaved, and will include the new customers.
+   * 
+   * Note: the seating is resampled with a GibbsSweep, which is also used by
+   * doOneSamplingRound() afterwards (see useGibbsSweep()).
+   * 
+   * @param rand
+   * @param statistic The statistic of the new customer, e.g. 
+   *   PackedTwoMomentsSufficientStatistics.fromOnePoint()
+   * @return The new customer
+   */
+  public Integer addCustomer(Random rand, SufficientStatistic statistic)
+  {
+    final Integer customer = nextCustomer;
+    clustering.registerCustomer(customer, statistic);
+    nextCustomer++;
+    allCustomers.add(customer);
+    useGibbsSweep();
+    gibbsSweep.seat(rand, customer);
+    
+    recentCustomers.addLast(customer);
+    while (recentCustomers.size() > streamingWindowSize)
+      recentCustomers.removeFirst();
+    for (int s = 0; s < nRejuvenationSweeps; s++)
+    {
+      rejuvenationOrder.clear();
+      rejuvenationOrder.addAll(recentCustomers);
+      Collections.shuffle(rejuvenationOrder, rand);
+      gibbsSweep.sweep(rand, rejuvenationOrder);
+    }
+    return customer;
+  }
+  
+  /**
+   * Streaming mode: after each call to addCustomer(), the streamingWindowSize
+   * most recently added customers are resampled.
+   * 
+   * @param streamingWindowSize At least 1, 100 by default
+   */
+  public void setStreamingWindowSize(int streamingWindowSize)
+  {
+    if (streamingWindowSize < 1)
+      throw new RuntimeException("The streaming window should contain at least one customer, got: " + streamingWindowSize);
+    this.streamingWindowSize = streamingWindowSize;
+  }
+  
+  /**
+   * 
+   * @return See setStreamingWindowSize()
+   */
+  public int streamingWindowSize()
+  {
+    return streamingWindowSize;
+  }
+  
+  /**
+   * Streaming mode: number of Gibbs sweeps over the streaming window after 
+   * each call to addCustomer().
+   * 
+   * @param nRejuvenationSweeps Non-negative, 1 by default
+   */
+  public void setNRejuvenationSweeps(int nRejuvenationSweeps)
+  {
+    if (nRejuvenationSweeps < 0)
+      throw new RuntimeException("The number of rejuvenation sweeps should be non-negative, got: " + nRejuvenationSweeps);
+    this.nRejuvenationSweeps = nRejuvenationSweeps;
+  }
+  
+  /**
+   * 
+   * @return See setNRejuvenationSweeps()
+   */
+  public int nRejuvenationSweeps()
+  {
+    return nRejuvenationSweeps;
+  }
+  
+  /**
+   * Target the posterior with the collapsed likelihood raised to the power
+   * inverseTemperature, e.g. for parallel tempering (see ParallelTempering).
+   * 
+   * The MH moves see the tempered collapsedLikelihoodFactor. The seating
+   * should be resampled with useGibbsSweep(), optionally with
+   * useSplitMerge(): the other seating samplers do not support tempering.
+   * 
+   * @param inverseTemperature In (0, 1], 1 for the posterior
+   */
+  public void setInverseTemperature(double inverseTemperature)
+  {
+    if (!(inverseTemperature > 0.0 && inverseTemperature <= 1.0))
+      throw new RuntimeException();
+    this.inverseTemperature = inverseTemperature;
+    if (gibbsSweep != null)
+      gibbsSweep.setInverseTemperature(inverseTemperature);
+    if (splitMerge != null)
+      splitMerge.setInverseTemperature(inverseTemperature);
+  }
+  
+  /**
+   * 
+   * @return See setInverseTemperature()
+   */
+  public double inverseTemperature()
+  {
+    return inverseTemperature;
+  }
+  
   /**
    * Sample the customer seatings and the parameters.
    * @param rand
    */
   public void doOneSamplingRound(Random rand)
   {
+    if (inverseTemperature != 1.0 && (superclusterSampler != null || sliceSampler != null || gibbsSweep == null))
+      throw new RuntimeException("Only GibbsSweep supports tempering, see setInverseTemperature()");
     Collections.shuffle(allCustomers, rand);
-    for (Integer customer : allCustomers)
-      CRPSamplers.gibbs(rand, customer, clustering, hp, model, clusteringParams);
+    if (superclusterSampler != null)
+      superclusterSampler.sampleOneRound(rand);
+    else if (sliceSampler != null)
+      sliceSampler.sampleOneRound(rand);
+    else if (gibbsSweep != null)
+      gibbsSweep.sweep(rand, allCustomers);
+    else
+      for (Integer customer : allCustomers)
+        CRPSamplers.gibbs(rand, customer, clustering, hp, model, clusteringParams);
+    for (int i = 0; i < nSplitMergeMoves; i++)
+      splitMerge.sample(rand, allCustomers);
+    if (pyParameterSampler != null)
+      pyParameterSampler.sampleOneRound(rand);
     mhMoves.sampleOneRound(rand);
   }
   
   /**
-   * The factor corresponding to the collapsed likelihood.
+   * The factor corresponding to the collapsed likelihood, raised to the
+   * power inverseTemperature() (see logLikelihood()).
    * Connected to:
    * - hp
    * - clustering
+   * 
+   * It can be evaluated at other values of kappa and nu (see 
+   * PointwiseFactor), recomputing the log marginal of each table.
    */
-  public final Factor collapsedLikelihoodFactor = new Factor() 
+  public final Factor collapsedLikelihoodFactor = new PointwiseFactor() 
   {
     @Override
     public double logUnnormalizedPotential()
     {
-      double result = 0.0;
-      for (ClusterId id : clustering.getAllClusterIds())
-        result += Parametrics.logMarginal(model, hp, clustering.getClusterStatistics(id));
-      return result;
+      return inverseTemperature * logLikelihood();
+    }
+
+    @Override
+    public double logUnnormalizedPotentialAt(RealVariable variable, double value)
+    {
+      final NIWHyperParameter modified;
+      if (variable == hp.kappaVariableView())
+        modified = new NIWHyperParameter(value, hp.scriptV(), hp.nu(), hp.delta());
+      else if (variable == hp.nuVariableView())
+        modified = new NIWHyperParameter(hp.kappa(), hp.scriptV(), value, hp.delta());
+      else
+        throw new RuntimeException("Not connected to collapsedLikelihoodFactor");
+      return inverseTemperature * logLikelihood(modified);
     }
   };
   
+  /**
+   * 
+   * @return The collapsed log likelihood, sum over the tables of their
+   *   log marginal, not tempered
+   */
+  public double logLikelihood()
+  {
+    if (cachedLikelihood != null)
+      return cachedLikelihood.logUnnormalizedPotential();
+    return logLikelihood(hp);
+  }
+  
+  private double logLikelihood(NIWHyperParameter hp)
+  {
+    List<ClusterId> tables = clustering.getAllClusterIds();
+    LogMarginalSum sum = new LogMarginalSum(hp, tables, 0, tables.size());
+    if (pool == null || tables.size() <= LogMarginalSum.TABLES_PER_TASK)
+      return sum.compute();
+    if (ForkJoinTask.inForkJoinPool())
+      // already in a worker, e.g. called from a concurrent MH move
+      return sum.invoke();
+    return pool.invoke(sum);
+  }
+  
+  /**
+   * Sum of the log marginals of the tables in [start, end), split
+   * recursively so that the halves can be computed in parallel. The
+   * additions are done in the same order whether or not threads are used.
+   */
+  private class LogMarginalSum extends RecursiveTask<Double>
+  {
+    private static final long serialVersionUID = 1L;
+    private static final int TABLES_PER_TASK = 64;
+    private final NIWHyperParameter hp;
+    private final List<ClusterId> tables;
+    private final int start, end;
+    
+    private LogMarginalSum(NIWHyperParameter hp, List<ClusterId> tables, int start, int end)
+    {
+      this.hp = hp;
+      this.tables = tables;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected Double compute()
+    {
+      if (end - start <= TABLES_PER_TASK)
+      {
+        double result = 0.0;
+        for (int i = start; i < end; i++)
+          result += Parametrics.logMarginalWithClosedForm(model, hp, clustering.getClusterStatistics(tables.get(i)));
+        return result;
+      }
+      final int middle = (start + end) / 2;
+      LogMarginalSum 
+        left = new LogMarginalSum(hp, tables, start, middle),
+        right = new LogMarginalSum(hp, tables, middle, end);
+      if (!inForkJoinPool())
+        return left.compute() + right.compute();
+      left.fork();
+      final double rightSum = right.compute();
+      return left.join() + rightSum;
+    }
+  }
+  
   /**
    * The factor corresponding to the PY/CRP clustering prior.
    * Connected to:
    * - clusteringParams
    * - clustering
+   * 
+   * It can be evaluated at other values of alpha0 and discount (see 
+   * PointwiseFactor), in O(number of distinct table sizes) (see BlockLogFactors).
    */
-  public final Factor clusteringFactor = new Factor()
+  public final Factor clusteringFactor = new PointwiseFactor()
   {
     @Override
     public double logUnnormalizedPotential()
     {
+      if (cachedClustering != null)
+        return cachedClustering.logUnnormalizedPotential();
       return CRPs.crpAssignmentLogProbabilitiy(clusteringParams, clustering);
     }
+
+    @Override
+    public double logUnnormalizedPotentialAt(RealVariable variable, double value)
+    {
+      double alpha0 = clusteringParams.alpha0(), discount = clusteringParams.discount();
+      if (variable == clusteringParams.alpha0VariableView())
+        alpha0 = value;
+      else if (variable == clusteringParams.discountVariableView())
+        discount = value;
+      else
+        throw new RuntimeException("Not connected to clusteringFactor");
+      if (!PYPrior.inBounds(alpha0, discount))
+        return Double.NEGATIVE_INFINITY;
+      return CRPs.crpAssignmentLogProbabilitiy(new PYPrior(alpha0, discount), clustering);
+    }
   };
   
   @Override
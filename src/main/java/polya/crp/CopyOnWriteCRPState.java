@@ -0,0 +1,394 @@
+package polya.crp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import polya.crp.utils.ClusterId;
+import polya.parametric.SufficientStatistic;
+
+
+/**
+ * A seating arrangement with the same behavior as CRPState, which can be
+ * copied cheaply: copy() shares all the arrays with the original, and only
+ * the pages modified afterwards by one of the two restaurants are
+ * duplicated (see CopyOnWriteIntArray). Intended for algorithms keeping many
+ * similar seating arrangements, such as SMCSampler and the snapshots of
+ * CompleteState (see CompleteState.snapshot()).
+ *
+ * As in DenseCRPState, customers should be non-negative integers, and each
+ * table is identified by a slot, the ClusterId of a table having id() equal
+ * to its slot. The statistics of the customers are shared by all the copies.
+ *
+ * Only what the samplers need is stored: the table of each customer, and
+ * the size and statistic of each table. Listing the customers of a table
+ * (getTable(), getTableOfCustomer(), partition()) therefore takes a time
+ * linear in the number of customers.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class CopyOnWriteCRPState extends CRPState
+{
+  private static final int NONE = -1;
+
+  /**
+   * Pages of the arrays indexed by customers, and of the arrays indexed by slots.
+   * The pages of statistics are smaller since they are deep copied.
+   */
+  private static final int CUSTOMER_PAGE_BITS = 10, SLOT_PAGE_BITS = 6, STATISTIC_PAGE_BITS = 4;
+
+  private static final CopyOnWriteObjectArray.ElementCopier<SufficientStatistic> STATISTIC_COPIER =
+    new CopyOnWriteObjectArray.ElementCopier<SufficientStatistic>() {
+      @Override
+      public SufficientStatistic copy(SufficientStatistic element)
+      {
+        return element.copy();
+      }
+    };
+
+  /**
+   * Slot of the table of each customer plus one, zero if not in restaurant
+   */
+  private final CopyOnWriteIntArray customer2Slot;
+
+  /**
+   * Number of customers at each table, zero for unused slots
+   */
+  private final CopyOnWriteIntArray tableSizes;
+
+  private final CopyOnWriteObjectArray<SufficientStatistic> tableStatistics;
+
+  /**
+   * One ClusterId per slot, created the first time the slot is used
+   */
+  private final CopyOnWriteObjectArray<ClusterId> clusterIds;
+
+  /**
+   * Stack of slots of destroyed tables
+   */
+  private final CopyOnWriteIntArray freeSlots;
+  private int nFreeSlots = 0;
+
+  /**
+   * Slots greater or equal to this have never been used
+   */
+  private int nextUnusedSlot = 0;
+
+  /**
+   * Customers greater or equal to this have never been seated
+   */
+  private int customerBound = 0;
+
+  private int nCustomers = 0, nTables = 0;
+
+  /**
+   * The map provided at construction, shared by all the copies
+   */
+  private final Map<Integer,SufficientStatistic> customer2Statistic;
+
+  /**
+   * Creates an empty restaurant.
+   *
+   * @param customer2Statistic Keys should be non-negative
+   */
+  public CopyOnWriteCRPState(Map<Integer,SufficientStatistic> customer2Statistic)
+  {
+    super(customer2Statistic);
+    this.customer2Statistic = customer2Statistic;
+    customer2Slot = new CopyOnWriteIntArray(CUSTOMER_PAGE_BITS);
+    tableSizes = new CopyOnWriteIntArray(SLOT_PAGE_BITS);
+    tableStatistics = new CopyOnWriteObjectArray<SufficientStatistic>(STATISTIC_PAGE_BITS, STATISTIC_COPIER);
+    clusterIds = new CopyOnWriteObjectArray<ClusterId>(SLOT_PAGE_BITS, null);
+    freeSlots = new CopyOnWriteIntArray(SLOT_PAGE_BITS);
+  }
+
+  private CopyOnWriteCRPState(CopyOnWriteCRPState model)
+  {
+    super(model.customer2Statistic);
+    customer2Statistic = model.customer2Statistic;
+    customer2Slot = model.customer2Slot.copy();
+    tableSizes = model.tableSizes.copy();
+    tableStatistics = model.tableStatistics.copy();
+    clusterIds = model.clusterIds.copy();
+    freeSlots = model.freeSlots.copy();
+    nFreeSlots = model.nFreeSlots;
+    nextUnusedSlot = model.nextUnusedSlot;
+    customerBound = model.customerBound;
+    nCustomers = model.nCustomers;
+    nTables = model.nTables;
+    copyTableSizeHistogram(model);
+  }
+
+  /**
+   * Creates a new CopyOnWriteCRPState where each customer sits at that table.
+   *
+   * @param customer2Statistic
+   * @return
+   */
+  public static CopyOnWriteCRPState fullyDisconnectedClustering(Map<Integer,SufficientStatistic> customer2Statistic)
+  {
+    CopyOnWriteCRPState result = new CopyOnWriteCRPState(customer2Statistic);
+    for (Integer customer : customer2Statistic.keySet())
+      result.addCustomerToNewTable(customer);
+    return result;
+  }
+
+  /**
+   * In O(number of customers / 2^10 + number of slots / 2^4), independently of
+   * the number of previous copies. The listeners are not copied.
+   *
+   * Note: copy() modifies this restaurant (its pages become shared), so it
+   * should not be called concurrently with other operations on it.
+   *
+   * @return A restaurant with the same seating arrangement, sharing its arrays
+   *   with this one until either is modified
+   */
+  public CopyOnWriteCRPState copy()
+  {
+    return new CopyOnWriteCRPState(this);
+  }
+
+  @Override
+  public void removeCustomer(Integer customer)
+  {
+    final int slot = slotOfCustomer(customer);
+    if (slot == NONE)
+      throw new RuntimeException("Customer not in restaurant.");
+    customer2Slot.set(customer, 0);
+    nCustomers--;
+    final int newSize = tableSizes.get(slot) - 1;
+    tableSizes.set(slot, newSize);
+    final boolean tableDestroyed = newSize == 0;
+    if (tableDestroyed)
+    {
+      tableStatistics.set(slot, null);
+      freeSlots.set(nFreeSlots++, slot);
+      nTables--;
+    }
+    else
+      tableStatistics.getForWriting(slot).minusEqual(getCustomerStatistic(customer));
+    fireCustomerRemoved(customer, clusterIds.get(slot), tableDestroyed);
+  }
+
+  @Override
+  public void addCustomerToExistingTable(Integer customer, ClusterId clusterId)
+  {
+    checkCustomerNotAlreadyThere(customer);
+    final int slot = clusterId.id();
+    if (slot < 0 || slot >= nextUnusedSlot || tableSizes.get(slot) == 0)
+      throw new RuntimeException("Table does not exist: " + clusterId);
+    seat(customer, slot);
+    tableStatistics.getForWriting(slot).plusEqual(getCustomerStatistic(customer));
+    fireCustomerAdded(customer, clusterId, false);
+  }
+
+  @Override
+  public ClusterId addCustomerToNewTable(Integer customer)
+  {
+    checkCustomerNotAlreadyThere(customer);
+    final int slot = nFreeSlots > 0 ? freeSlots.get(--nFreeSlots) : nextUnusedSlot++;
+    ClusterId clusterId = clusterIds.get(slot);
+    if (clusterId == null)
+    {
+      clusterId = new ClusterId(slot);
+      clusterIds.set(slot, clusterId);
+    }
+    seat(customer, slot);
+    nTables++;
+    // note that we make a copy in this case because we want customer statistics
+    // to stay unchanged
+    tableStatistics.set(slot, getCustomerStatistic(customer).copy());
+    fireCustomerAdded(customer, clusterId, true);
+    return clusterId;
+  }
+
+  private void seat(int customer, int slot)
+  {
+    customer2Slot.set(customer, slot + 1);
+    tableSizes.set(slot, tableSizes.get(slot) + 1);
+    customerBound = Math.max(customerBound, customer + 1);
+    nCustomers++;
+  }
+
+  private void checkCustomerNotAlreadyThere(Integer customer)
+  {
+    if (customer == null || customer < 0 || getCustomerStatistic(customer) == null)
+      throw new RuntimeException("Unknown customer: " + customer);
+    if (slotOfCustomer(customer) != NONE)
+      throw new RuntimeException("Customer already in there. Remove the customer first.");
+  }
+
+  private int slotOfCustomer(Integer customer)
+  {
+    if (customer == null || customer < 0)
+      return NONE;
+    return customer2Slot.get(customer) - 1;
+  }
+
+  /**
+   * Not supported, since the statistics of the customers are shared by all
+   * the copies.
+   */
+  @Override
+  public void registerCustomer(Integer customer, SufficientStatistic statistic)
+  {
+    throw new RuntimeException("Customers cannot be registered in a CopyOnWriteCRPState");
+  }
+
+  @Override
+  public ClusterId getClusterIdOfCustomer(Integer customer)
+  {
+    final int slot = slotOfCustomer(customer);
+    return slot == NONE ? null : clusterIds.get(slot);
+  }
+
+  /**
+   * In O(number of customers).
+   */
+  @Override
+  public Set<Integer> getTableOfCustomer(Integer customer)
+  {
+    final int slot = slotOfCustomer(customer);
+    return slot == NONE ? null : customersAt(slot);
+  }
+
+  /**
+   * In O(number of customers).
+   */
+  @Override
+  public Set<Integer> getTable(ClusterId clusterId)
+  {
+    final int slot = clusterId.id();
+    if (slot < 0 || slot >= nextUnusedSlot || tableSizes.get(slot) == 0)
+      return null;
+    return customersAt(slot);
+  }
+
+  private Set<Integer> customersAt(int slot)
+  {
+    Set<Integer> result = new HashSet<Integer>();
+    for (int customer = 0; customer < customerBound; customer++)
+      if (customer2Slot.get(customer) == slot + 1)
+        result.add(customer);
+    return result;
+  }
+
+  @Override
+  public List<ClusterId> getAllClusterIds()
+  {
+    // slots are scanned in increasing order, so the result is sorted
+    List<ClusterId> result = new ArrayList<ClusterId>(nTables);
+    for (int slot = 0; slot < nextUnusedSlot; slot++)
+      if (tableSizes.get(slot) > 0)
+        result.add(clusterIds.get(slot));
+    return result;
+  }
+
+  @Override
+  public int getAllClusterIds(ClusterId [] result)
+  {
+    int i = 0;
+    for (int slot = 0; slot < nextUnusedSlot; slot++)
+      if (tableSizes.get(slot) > 0)
+        result[i++] = clusterIds.get(slot);
+    return i;
+  }
+
+  @Override
+  public int tableSize(ClusterId clusterId)
+  {
+    return tableSizes.get(clusterId.id());
+  }
+
+  @Override
+  public int nCustomers()
+  {
+    return nCustomers;
+  }
+
+  @Override
+  public int nTables()
+  {
+    return nTables;
+  }
+
+  @Override
+  public void checkIntegrity()
+  {
+    int [] sizes = new int[nextUnusedSlot];
+    int check = 0;
+    for (int customer = 0; customer < customerBound; customer++)
+    {
+      final int slot = slotOfCustomer(customer);
+      if (slot == NONE)
+        continue;
+      if (slot >= nextUnusedSlot)
+        throw new RuntimeException();
+      sizes[slot]++;
+      check++;
+    }
+    int checkTables = 0;
+    for (int slot = 0; slot < nextUnusedSlot; slot++)
+    {
+      if (sizes[slot] != tableSizes.get(slot))
+        throw new RuntimeException();
+      if (sizes[slot] == 0)
+      {
+        if (tableStatistics.get(slot) != null)
+          throw new RuntimeException();
+        continue;
+      }
+      checkTables++;
+      if (tableStatistics.get(slot).numberOfPoints() != sizes[slot])
+        throw new RuntimeException();
+    }
+    if (check != nCustomers() || checkTables != nTables())
+      throw new RuntimeException();
+    checkTableSizeHistogram();
+  }
+
+  /**
+   * In O(number of customers).
+   */
+  @Override
+  public Set<Set<Integer>> partition()
+  {
+    Map<Integer,Set<Integer>> blocks = new HashMap<Integer,Set<Integer>>();
+    for (int customer = 0; customer < customerBound; customer++)
+    {
+      final int slot = slotOfCustomer(customer);
+      if (slot == NONE)
+        continue;
+      if (!blocks.containsKey(slot))
+        blocks.put(slot, new HashSet<Integer>());
+      blocks.get(slot).add(customer);
+    }
+    return new HashSet<Set<Integer>>(blocks.values());
+  }
+
+  @Override
+  public SufficientStatistic getClusterStatistics(ClusterId current)
+  {
+    final int slot = current.id();
+    if (slot < 0 || slot >= nextUnusedSlot)
+      return null;
+    return tableStatistics.get(slot);
+  }
+
+  /**
+   * In O(number of customers).
+   */
+  @Override
+  public Set<Integer> getAllCustomers()
+  {
+    Set<Integer> result = new HashSet<Integer>();
+    for (int customer = 0; customer < customerBound; customer++)
+      if (slotOfCustomer(customer) != NONE)
+        result.add(customer);
+    return result;
+  }
+}
@@ -0,0 +1,88 @@
+package polya.crp;
+
+import java.util.Arrays;
+
+
+/**
+ * An unbounded array of ints, initially all zero, stored in fixed size
+ * pages which are shared between copies until one of them writes to
+ * a page (copy-on-write).
+ *
+ * copy() costs O(number of pages), and the first write to a shared page
+ * costs O(page size). Not thread safe, but distinct copies can be modified
+ * concurrently (a shared page is never written to).
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+class CopyOnWriteIntArray
+{
+  private final int pageBits, pageMask;
+
+  /**
+   * Null for pages never written to
+   */
+  private int [][] pages = new int[0][];
+
+  /**
+   * Whether each page is owned by this copy, i.e. is not shared
+   */
+  private boolean [] owned = new boolean[0];
+
+  /**
+   *
+   * @param pageBits Each page holds 2^pageBits entries
+   */
+  CopyOnWriteIntArray(int pageBits)
+  {
+    this.pageBits = pageBits;
+    this.pageMask = (1 << pageBits) - 1;
+  }
+
+  private CopyOnWriteIntArray(CopyOnWriteIntArray model)
+  {
+    this(model.pageBits);
+    this.pages = model.pages.clone();
+    this.owned = new boolean[pages.length];
+    // the pages are now shared by both
+    Arrays.fill(model.owned, false);
+  }
+
+  /**
+   *
+   * @return A copy sharing all the pages with this array
+   */
+  CopyOnWriteIntArray copy()
+  {
+    return new CopyOnWriteIntArray(this);
+  }
+
+  int get(int index)
+  {
+    final int page = index >>> pageBits;
+    if (page >= pages.length || pages[page] == null)
+      return 0;
+    return pages[page][index & pageMask];
+  }
+
+  void set(int index, int value)
+  {
+    writablePage(index >>> pageBits)[index & pageMask] = value;
+  }
+
+  private int [] writablePage(int page)
+  {
+    if (page >= pages.length)
+    {
+      final int newLength = Math.max(page + 1, 2 * pages.length);
+      pages = Arrays.copyOf(pages, newLength);
+      owned = Arrays.copyOf(owned, newLength);
+    }
+    if (!owned[page])
+    {
+      pages[page] = pages[page] == null ? new int[pageMask + 1] : pages[page].clone();
+      owned[page] = true;
+    }
+    return pages[page];
+  }
+}
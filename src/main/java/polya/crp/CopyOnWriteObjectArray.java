@@ -0,0 +1,111 @@
+package polya.crp;
+
+import java.util.Arrays;
+
+
+/**
+ * Same as CopyOnWriteIntArray, for objects, initially all null.
+ *
+ * When a shared page is copied, its elements are copied with the provided
+ * ElementCopier, if any (needed for mutable elements which are modified in
+ * place, see getForWriting()); otherwise the elements themselves are shared.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+class CopyOnWriteObjectArray<T>
+{
+  private final int pageBits, pageMask;
+  private final ElementCopier<T> copier;
+  private Object [][] pages = new Object[0][];
+  private boolean [] owned = new boolean[0];
+
+  /**
+   *
+   * @param pageBits Each page holds 2^pageBits entries
+   * @param copier Null if the elements are never modified in place
+   */
+  CopyOnWriteObjectArray(int pageBits, ElementCopier<T> copier)
+  {
+    this.pageBits = pageBits;
+    this.pageMask = (1 << pageBits) - 1;
+    this.copier = copier;
+  }
+
+  private CopyOnWriteObjectArray(CopyOnWriteObjectArray<T> model)
+  {
+    this(model.pageBits, model.copier);
+    this.pages = model.pages.clone();
+    this.owned = new boolean[pages.length];
+    // the pages are now shared by both
+    Arrays.fill(model.owned, false);
+  }
+
+  /**
+   *
+   * @return A copy sharing all the pages with this array
+   */
+  CopyOnWriteObjectArray<T> copy()
+  {
+    return new CopyOnWriteObjectArray<T>(this);
+  }
+
+  static interface ElementCopier<T>
+  {
+    /**
+     *
+     * @param element Not null
+     * @return An element equal to the provided one, which can be modified without affecting it
+     */
+    public T copy(T element);
+  }
+
+  @SuppressWarnings("unchecked")
+  T get(int index)
+  {
+    final int page = index >>> pageBits;
+    if (page >= pages.length || pages[page] == null)
+      return null;
+    return (T) pages[page][index & pageMask];
+  }
+
+  /**
+   * Use when the element at index will be modified in place.
+   *
+   * @param index
+   * @return The element at index, copied first if it was shared
+   */
+  @SuppressWarnings("unchecked")
+  T getForWriting(int index)
+  {
+    return (T) writablePage(index >>> pageBits)[index & pageMask];
+  }
+
+  void set(int index, T value)
+  {
+    writablePage(index >>> pageBits)[index & pageMask] = value;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Object [] writablePage(int page)
+  {
+    if (page >= pages.length)
+    {
+      final int newLength = Math.max(page + 1, 2 * pages.length);
+      pages = Arrays.copyOf(pages, newLength);
+      owned = Arrays.copyOf(owned, newLength);
+    }
+    if (!owned[page])
+    {
+      final Object [] shared = pages[page];
+      final Object [] copy = new Object[pageMask + 1];
+      if (shared != null)
+        for (int i = 0; i < copy.length; i++)
+          if (shared[i] != null)
+            copy[i] = copier == null ? shared[i] : copier.copy((T) shared[i]);
+      pages[page] = copy;
+      owned[page] = true;
+    }
+    return pages[page];
+  }
+}
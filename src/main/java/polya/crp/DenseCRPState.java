@@ -0,0 +1,545 @@
+package polya.crp;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import polya.crp.utils.ClusterId;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.StatisticArena;
+import polya.parametric.normal.StatisticArena.TableStatistic;
+
+
+/**
+ * A seating arrangement with the same behavior as CRPState, but backed by
+ * primitive arrays instead of hash maps. Intended for large restaurants.
+ *
+ * Customers should be the integers 0, 1, ..., nCustomers - 1 (as created by
+ * NIWs.loadFromCSVFile()), followed by the ones added with registerCustomer().
+ * Each table is identified by a slot in [0, nCustomers), and the ClusterId of
+ * a table has id() equal to its slot.
+ *
+ * Implementation notes:
+ * - customer to table: an int[]
+ * - table membership: an intrusive doubly linked list threaded through
+ *   two int[] (next, previous), so that customers can be added and removed
+ *   in constant time
+ * - slots of destroyed tables are recycled via a free-list
+ * - optionally, the statistics of the customers and of the tables are stored
+ *   in a StatisticArena, the record of each table being indexed by its slot
+ *
+ * Once constructed, addCustomerToExistingTable() and removeCustomer() do
+ * not allocate.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class DenseCRPState extends CRPState
+{
+  private static final int NONE = -1;
+
+  /*
+   * The arrays indexed by customers below grow when customers are 
+   * registered, see registerCustomer().
+   */
+
+  /**
+   * Statistics of individual customers, looked up lazily from the
+   * map provided at construction, or set by registerCustomer().
+   */
+  private SufficientStatistic [] customerStatistics;
+
+  /**
+   * Slot of the table of each customer, NONE if not in restaurant
+   */
+  private int [] customer2Cluster;
+
+  /**
+   * Intrusive linked lists of the customers at each table
+   */
+  private int [] next, previous;
+  private int [] tableHead;
+
+  /*
+   * The arrays indexed by slots below grow when a new table is needed and
+   * all slots are in use.
+   */
+
+  /**
+   * Number of customers at each table, zero for unused slots
+   */
+  private int [] tableSizes;
+
+  /**
+   * For each table, keeps sufficient statistics for the data at that table
+   */
+  private SufficientStatistic [] tableStatistics;
+
+  /**
+   * One ClusterId per slot, created the first time the slot is used
+   */
+  private ClusterId [] clusterIds;
+
+  /**
+   * Stack of slots of destroyed tables
+   */
+  private int [] freeSlots;
+  private int nFreeSlots = 0;
+
+  /**
+   * Slots greater or equal to this have never been used
+   */
+  private int nextUnusedSlot = 0;
+
+  private int nCustomers = 0, nTables = 0;
+  
+  /**
+   * Where the table statistics are stored, or null if each table 
+   * has its own statistic object
+   */
+  private final StatisticArena arena;
+
+  /**
+   * Creates a new DenseCRPState where each customer sits at that table.
+   *
+   * @param customer2Statistic
+   * @return
+   */
+  public static DenseCRPState fullyDisconnectedClustering(Map<Integer,SufficientStatistic> customer2Statistic)
+  {
+    DenseCRPState result = new DenseCRPState(customer2Statistic);
+    for (Integer customer : customer2Statistic.keySet())
+      result.addCustomerToNewTable(customer);
+    return result;
+  }
+  
+  /**
+   * Creates a new DenseCRPState where each customer sits at that table, reading
+   * and storing all statistics in the provided arena.
+   * 
+   * @param arena
+   * @return
+   */
+  public static DenseCRPState fullyDisconnectedClustering(StatisticArena arena)
+  {
+    DenseCRPState result = new DenseCRPState(arena);
+    for (int customer = 0; customer < arena.nCustomers(); customer++)
+      result.addCustomerToNewTable(customer);
+    return result;
+  }
+
+  /**
+   *
+   * @param customer2Statistic Keys should be 0, 1, ..., n-1
+   */
+  public DenseCRPState(Map<Integer,SufficientStatistic> customer2Statistic)
+  {
+    this(customer2Statistic, null);
+  }
+  
+  /**
+   * 
+   * @param arena Contains the statistics of the customers 0, 1, ..., n-1, and 
+   *   will hold the statistics of the tables
+   */
+  public DenseCRPState(StatisticArena arena)
+  {
+    this(arena.customerStatistics(), arena);
+  }
+  
+  private DenseCRPState(Map<Integer,SufficientStatistic> customer2Statistic, StatisticArena arena)
+  {
+    super(customer2Statistic);
+    this.arena = arena;
+    final int capacity = arena == null ? capacity(customer2Statistic) : arena.nCustomers();
+    this.customerStatistics = new SufficientStatistic[capacity];
+    this.customer2Cluster = new int[capacity];
+    Arrays.fill(customer2Cluster, NONE);
+    this.next = new int[capacity];
+    this.previous = new int[capacity];
+    final int slotCapacity = Math.min(capacity, INITIAL_SLOT_CAPACITY);
+    this.tableHead = new int[slotCapacity];
+    this.tableSizes = new int[slotCapacity];
+    this.tableStatistics = new SufficientStatistic[slotCapacity];
+    this.clusterIds = new ClusterId[slotCapacity];
+    this.freeSlots = new int[slotCapacity];
+  }
+  
+  private static final int INITIAL_SLOT_CAPACITY = 16;
+  
+  private void growSlots()
+  {
+    // there are never more tables than customers
+    final int newCapacity = (int) Math.min(customer2Cluster.length, Math.max(INITIAL_SLOT_CAPACITY, 2L * tableSizes.length));
+    tableHead = Arrays.copyOf(tableHead, newCapacity);
+    tableSizes = Arrays.copyOf(tableSizes, newCapacity);
+    tableStatistics = Arrays.copyOf(tableStatistics, newCapacity);
+    clusterIds = Arrays.copyOf(clusterIds, newCapacity);
+    freeSlots = Arrays.copyOf(freeSlots, newCapacity);
+  }
+
+  /**
+   * Does not modify the map provided at construction (which might not be
+   * modifiable, e.g. when it is the view of a StatisticArena): the statistic is
+   * stored in this restaurant only. When the table statistics are stored in
+   * an arena, the statistic of the new customer should be a TwoMomentsStatistic
+   * of the same dimensionality.
+   * 
+   * @param customer A non-negative integer; to keep the arrays compact, 
+   *   customers should be registered in increasing order
+   */
+  @Override
+  public void registerCustomer(Integer customer, SufficientStatistic statistic)
+  {
+    final int c = customer;
+    if (c < 0)
+      throw new RuntimeException("Customers should be non-negative integers: " + customer);
+    if (c < customerStatistics.length && getCustomerStatistic(customer) != null)
+      throw new RuntimeException("Customer already registered: " + customer);
+    if (c >= customerStatistics.length)
+      growCustomers(c + 1);
+    customerStatistics[c] = statistic;
+  }
+  
+  private void growCustomers(int minCapacity)
+  {
+    final int oldCapacity = customer2Cluster.length;
+    final int newCapacity = (int) Math.min(Integer.MAX_VALUE, Math.max(minCapacity, 2L * oldCapacity));
+    customerStatistics = Arrays.copyOf(customerStatistics, newCapacity);
+    customer2Cluster = Arrays.copyOf(customer2Cluster, newCapacity);
+    Arrays.fill(customer2Cluster, oldCapacity, newCapacity, NONE);
+    next = Arrays.copyOf(next, newCapacity);
+    previous = Arrays.copyOf(previous, newCapacity);
+  }
+
+  private static int capacity(Map<Integer,SufficientStatistic> customer2Statistic)
+  {
+    int max = -1;
+    for (Integer customer : customer2Statistic.keySet())
+    {
+      if (customer < 0)
+        throw new RuntimeException("Customers should be non-negative integers: " + customer);
+      max = Math.max(max, customer);
+    }
+    return max + 1;
+  }
+
+  @Override
+  public void removeCustomer(Integer customer)
+  {
+    final int c = customer;
+    final int slot = slotOfCustomer(c);
+    if (slot == NONE)
+      throw new RuntimeException("Customer not in restaurant.");
+
+    // unlink
+    final int n = next[c], p = previous[c];
+    if (p == NONE)
+      tableHead[slot] = n;
+    else
+      next[p] = n;
+    if (n != NONE)
+      previous[n] = p;
+    customer2Cluster[c] = NONE;
+    nCustomers--;
+
+    final boolean tableDestroyed = --tableSizes[slot] == 0;
+    if (tableDestroyed)
+    {
+      tableStatistics[slot] = null;
+      freeSlots[nFreeSlots++] = slot;
+      nTables--;
+    }
+    else
+      tableStatistics[slot].minusEqual(getCustomerStatistic(customer));
+    fireCustomerRemoved(customer, clusterIds[slot], tableDestroyed);
+  }
+
+  @Override
+  public void addCustomerToExistingTable(Integer customer, ClusterId clusterId)
+  {
+    checkCustomerNotAlreadyThere(customer);
+    final int slot = clusterId.id();
+    if (slot < 0 || slot >= nextUnusedSlot || tableSizes[slot] == 0)
+      throw new RuntimeException("Table does not exist: " + clusterId);
+    link(customer, slot);
+    tableStatistics[slot].plusEqual(getCustomerStatistic(customer));
+    fireCustomerAdded(customer, clusterId, false);
+  }
+
+  @Override
+  public ClusterId addCustomerToNewTable(Integer customer)
+  {
+    checkCustomerNotAlreadyThere(customer);
+    if (nFreeSlots == 0 && nextUnusedSlot == tableSizes.length)
+      growSlots();
+    final int slot = nFreeSlots > 0 ? freeSlots[--nFreeSlots] : nextUnusedSlot++;
+    if (clusterIds[slot] == null)
+      clusterIds[slot] = new ClusterId(slot);
+    tableHead[slot] = NONE;
+    link(customer, slot);
+    nTables++;
+    if (arena == null)
+      // note that we make a copy in this case because we want customer statistics
+      // to stay unchanged
+      tableStatistics[slot] = getCustomerStatistic(customer).copy();
+    else
+    {
+      TableStatistic record = arena.tableStatistic(slot);
+      record.clear();
+      record.plusEqual(getCustomerStatistic(customer));
+      tableStatistics[slot] = record;
+    }
+    fireCustomerAdded(customer, clusterIds[slot], true);
+    return clusterIds[slot];
+  }
+
+  private void link(int customer, int slot)
+  {
+    final int head = tableHead[slot];
+    next[customer] = head;
+    previous[customer] = NONE;
+    if (head != NONE)
+      previous[head] = customer;
+    tableHead[slot] = customer;
+    tableSizes[slot]++;
+    customer2Cluster[customer] = slot;
+    nCustomers++;
+  }
+
+  private void checkCustomerNotAlreadyThere(int customer)
+  {
+    if (customer < 0 || customer >= customer2Cluster.length)
+      throw new RuntimeException("Unknown customer: " + customer);
+    if (customer2Cluster[customer] != NONE)
+      throw new RuntimeException("Customer already in there. Remove the customer first.");
+  }
+
+  private int slotOfCustomer(int customer)
+  {
+    if (customer < 0 || customer >= customer2Cluster.length)
+      return NONE;
+    return customer2Cluster[customer];
+  }
+
+  @Override
+  public ClusterId getClusterIdOfCustomer(Integer customer)
+  {
+    final int slot = slotOfCustomer(customer);
+    return slot == NONE ? null : clusterIds[slot];
+  }
+
+  @Override
+  public Set<Integer> getTableOfCustomer(Integer customer)
+  {
+    final int slot = slotOfCustomer(customer);
+    return slot == NONE ? null : new TableView(slot);
+  }
+
+  /**
+   * Note: the returned set is a live view of the table.
+   */
+  @Override
+  public Set<Integer> getTable(ClusterId clusterId)
+  {
+    final int slot = clusterId.id();
+    if (slot < 0 || slot >= nextUnusedSlot || tableSizes[slot] == 0)
+      return null;
+    return new TableView(slot);
+  }
+
+  @Override
+  public List<ClusterId> getAllClusterIds()
+  {
+    // slots are scanned in increasing order, so the result is sorted
+    List<ClusterId> result = new ArrayList<ClusterId>(nTables);
+    for (int slot = 0; slot < nextUnusedSlot; slot++)
+      if (tableSizes[slot] > 0)
+        result.add(clusterIds[slot]);
+    return result;
+  }
+
+  @Override
+  public int getAllClusterIds(ClusterId [] result)
+  {
+    int i = 0;
+    for (int slot = 0; slot < nextUnusedSlot; slot++)
+      if (tableSizes[slot] > 0)
+        result[i++] = clusterIds[slot];
+    return i;
+  }
+  
+  @Override
+  public int tableSize(ClusterId clusterId)
+  {
+    return tableSizes[clusterId.id()];
+  }
+
+  @Override
+  public int nCustomers()
+  {
+    return nCustomers;
+  }
+
+  @Override
+  public int nTables()
+  {
+    return nTables;
+  }
+
+  @Override
+  public void checkIntegrity()
+  {
+    int check = 0, checkTables = 0;
+    for (int slot = 0; slot < nextUnusedSlot; slot++)
+    {
+      if (tableSizes[slot] == 0)
+      {
+        if (tableStatistics[slot] != null)
+          throw new RuntimeException();
+        continue;
+      }
+      checkTables++;
+      int length = 0;
+      for (int c = tableHead[slot]; c != NONE; c = next[c])
+      {
+        if (customer2Cluster[c] != slot)
+          throw new RuntimeException();
+        length++;
+      }
+      if (length != tableSizes[slot] ||
+          length != tableStatistics[slot].numberOfPoints())
+        throw new RuntimeException();
+      check += length;
+    }
+    if (check != nCustomers() || checkTables != nTables())
+      throw new RuntimeException();
+    checkTableSizeHistogram();
+  }
+
+  @Override
+  public Set<Set<Integer>> partition()
+  {
+    Set<Set<Integer>> result = new HashSet<Set<Integer>>();
+    for (int slot = 0; slot < nextUnusedSlot; slot++)
+      if (tableSizes[slot] > 0)
+        result.add(new HashSet<Integer>(new TableView(slot)));
+    return result;
+  }
+
+  @Override
+  public SufficientStatistic getCustomerStatistic(Integer customer)
+  {
+    SufficientStatistic result = customerStatistics[customer];
+    if (result == null)
+    {
+      result = super.getCustomerStatistic(customer);
+      customerStatistics[customer] = result;
+    }
+    return result;
+  }
+
+  @Override
+  public SufficientStatistic getClusterStatistics(ClusterId current)
+  {
+    final int slot = current.id();
+    if (slot < 0 || slot >= nextUnusedSlot)
+      return null;
+    return tableStatistics[slot];
+  }
+
+  /**
+   * Note: the returned set is a live view.
+   */
+  @Override
+  public Set<Integer> getAllCustomers()
+  {
+    return new AbstractSet<Integer>()
+    {
+      @Override
+      public Iterator<Integer> iterator()
+      {
+        return new Iterator<Integer>() {
+          private int current = advance(0);
+          private int advance(int from)
+          {
+            while (from < customer2Cluster.length && customer2Cluster[from] == NONE)
+              from++;
+            return from;
+          }
+          @Override public boolean hasNext() { return current < customer2Cluster.length; }
+          @Override public Integer next()
+          {
+            if (!hasNext())
+              throw new NoSuchElementException();
+            int result = current;
+            current = advance(current + 1);
+            return result;
+          }
+          @Override public void remove() { throw new UnsupportedOperationException(); }
+        };
+      }
+
+      @Override
+      public boolean contains(Object o)
+      {
+        return o instanceof Integer && slotOfCustomer((Integer) o) != NONE;
+      }
+
+      @Override
+      public int size()
+      {
+        return nCustomers;
+      }
+    };
+  }
+
+  /**
+   * A read-only, live view of the customers at one table.
+   */
+  private class TableView extends AbstractSet<Integer>
+  {
+    private final int slot;
+
+    private TableView(int slot)
+    {
+      this.slot = slot;
+    }
+
+    @Override
+    public Iterator<Integer> iterator()
+    {
+      return new Iterator<Integer>() {
+        private int current = tableHead[slot];
+        @Override public boolean hasNext() { return current != NONE; }
+        @Override public Integer next()
+        {
+          if (!hasNext())
+            throw new NoSuchElementException();
+          int result = current;
+          current = DenseCRPState.this.next[current];
+          return result;
+        }
+        @Override public void remove() { throw new UnsupportedOperationException(); }
+      };
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+      return o instanceof Integer && slotOfCustomer((Integer) o) == slot;
+    }
+
+    @Override
+    public int size()
+    {
+      return tableSizes[slot];
+    }
+  }
+}
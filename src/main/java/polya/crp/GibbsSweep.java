@@ -0,0 +1,270 @@
+package polya.crp;
+
+import java.util.List;
+import java.util.Random;
+
+import polya.crp.utils.ClusterId;
+import polya.parametric.ClosedFormPredictive;
+import polya.parametric.CollapsedConjugateModel;
+import polya.parametric.HyperParameter;
+import polya.parametric.Parametrics;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.NIWHyperParameter;
+
+
+/**
+ * Collapsed Gibbs sampling of the seating arrangement, one customer
+ * at the time, as in CRPSamplers.gibbs(), but organized to avoid
+ * allocating objects at each step:
+ *
+ * - the log weights of the tables are stored in a buffer owned by this object,
+ *   normalized and sampled in place
+ * - tables are enumerated via CRPState.getAllClusterIds(ClusterId[]),
+ *   without sorting or copying into a new list
+ * - for NIW models, the predictives are obtained from an NIWPredictiveCache
+ *   attached to the restaurant; otherwise, Parametrics.logSinglePointPredictive()
+ *   is used
+ *
+ * With a DenseCRPState whose statistics are in a StatisticArena, moving a customer
+ * does not allocate (once the buffers have grown to the maximum number of tables).
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class GibbsSweep
+{
+  private final CRPState state;
+  private final HyperParameter hp;
+  private final CollapsedConjugateModel model;
+  private final PYPrior prior;
+
+  /**
+   * Null if the model is not NIW.
+   */
+  private final NIWPredictiveCache cache;
+
+  /**
+   * Buffers, indexed by the position of the table in the current enumeration,
+   * the last position being used for a new table.
+   */
+  private double [] logWeights = new double[16];
+  private ClusterId [] tables = new ClusterId[16];
+
+  /**
+   * See lastLogNormalization()
+   */
+  private double lastLogNormalization = Double.NaN;
+
+  /**
+   * See setInverseTemperature()
+   */
+  private double inverseTemperature = 1.0;
+
+  /**
+   *
+   * @param state
+   * @param hp
+   * @param model
+   * @param prior
+   */
+  public GibbsSweep(
+      CRPState state,
+      HyperParameter hp,
+      CollapsedConjugateModel model,
+      PYPrior prior)
+  {
+    this.state = state;
+    this.hp = hp;
+    this.model = model;
+    this.prior = prior;
+    this.cache = hp instanceof NIWHyperParameter ?
+        new NIWPredictiveCache(state, (NIWHyperParameter) hp) :
+        null;
+  }
+
+  /**
+   * Detaches the cache, if any, from the restaurant. Call when this
+   * object is no longer used.
+   */
+  public void detach()
+  {
+    if (cache != null)
+      cache.detach();
+  }
+
+  /**
+   * Resample the table of each of the provided customers, in order.
+   *
+   * @param rand
+   * @param customers
+   */
+  public void sweep(Random rand, List<Integer> customers)
+  {
+    for (int i = 0; i < customers.size(); i++)
+      sample(rand, customers.get(i));
+  }
+
+  /**
+   * The collapsed predictives are raised to this power, to sample from
+   * a tempered posterior (see CompleteState.setInverseTemperature()).
+   *
+   * @param inverseTemperature In (0, 1], 1 for the posterior
+   */
+  public void setInverseTemperature(double inverseTemperature)
+  {
+    if (!(inverseTemperature > 0.0 && inverseTemperature <= 1.0))
+      throw new RuntimeException("The inverse temperature should be in (0, 1], got: " + inverseTemperature);
+    this.inverseTemperature = inverseTemperature;
+  }
+
+  /**
+   * Resample the table of one customer currently in the restaurant.
+   *
+   * @param rand
+   * @param customer
+   * @return The table where the customer is seated
+   */
+  public ClusterId sample(Random rand, Integer customer)
+  {
+    state.removeCustomer(customer);
+    return seat(rand, customer);
+  }
+
+  /**
+   * Seat a customer not currently in the restaurant, sampling from
+   * the conditional distribution given all the other customers.
+   *
+   * @param rand
+   * @param customer
+   * @return The table where the customer is seated
+   */
+  public ClusterId seat(Random rand, Integer customer)
+  {
+    final int nTables = state.nTables();
+    ensureCapacity(nTables + 1);
+    if (state.getAllClusterIds(tables) != nTables)
+      throw new RuntimeException();
+    final SufficientStatistic point = state.getCustomerStatistic(customer);
+    for (int i = 0; i < nTables; i++)
+    {
+      final ClusterId table = tables[i];
+      logWeights[i] =
+        prior.logUnnormalizedPredictive(state.tableSize(table), nTables) +
+        inverseTemperature * logPredictive(point, table);
+    }
+    logWeights[nTables] =
+      prior.logUnnormalizedPredictive(0, nTables) +
+      inverseTemperature * logPredictiveAtNewTable(point);
+    final int sampled = sampleInPlace(rand, nTables + 1);
+    if (sampled == nTables)
+      return state.addCustomerToNewTable(customer);
+    state.addCustomerToExistingTable(customer, tables[sampled]);
+    return tables[sampled];
+  }
+
+  /**
+   * The log of the sum of the unnormalized weights of the tables at the last 
+   * call of seat() (or sample()), i.e. the log predictive density of that
+   * customer given the other customers, marginalizing over its table 
+   * (up to the normalization of PYPrior.logUnnormalizedPredictive()).
+   * 
+   * @return
+   */
+  public double lastLogNormalization()
+  {
+    return lastLogNormalization;
+  }
+
+  /**
+   * Same as sampleNormalizedInPlace() on the first n logWeights, but also
+   * records lastLogNormalization from the maximum and the sum of that pass.
+   */
+  private int sampleInPlace(Random rand, int n)
+  {
+    final double max = max(logWeights, n);
+    final double sum = exponentiateInPlace(logWeights, n, max);
+    lastLogNormalization = max + Math.log(sum);
+    return sampleExponentiated(rand, logWeights, n, sum);
+  }
+
+  private double logPredictive(SufficientStatistic point, ClusterId table)
+  {
+    if (cache != null)
+      return cache.logPredictive(point, table);
+    return Parametrics.logSinglePointPredictive(model, hp, point, state.getClusterStatistics(table));
+  }
+
+  private double logPredictiveAtNewTable(SufficientStatistic point)
+  {
+    if (cache != null)
+      return cache.logPredictiveAtNewTable(point);
+    if (model instanceof ClosedFormPredictive)
+      return ((ClosedFormPredictive) model).logPredictive(hp, point, null);
+    return Parametrics.logMarginal(model, hp, point);
+  }
+
+  /**
+   * Exponentiates and normalizes the first n log weights in place (subtracting
+   * the maximum first to avoid underflows), then samples an index.
+   *
+   * @param rand
+   * @param logWeights Modified in place
+   * @param n
+   * @return The sampled index in [0, n)
+   */
+  public static int sampleNormalizedInPlace(Random rand, double [] logWeights, int n)
+  {
+    final double sum = exponentiateInPlace(logWeights, n, max(logWeights, n));
+    return sampleExponentiated(rand, logWeights, n, sum);
+  }
+
+  private static double max(double [] logWeights, int n)
+  {
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < n; i++)
+      max = Math.max(max, logWeights[i]);
+    if (max == Double.NEGATIVE_INFINITY || Double.isNaN(max))
+      throw new RuntimeException("Invalid log weights");
+    return max;
+  }
+
+  /**
+   * @return The sum of the exponentiated weights
+   */
+  private static double exponentiateInPlace(double [] logWeights, int n, double max)
+  {
+    double sum = 0.0;
+    for (int i = 0; i < n; i++)
+    {
+      logWeights[i] = Math.exp(logWeights[i] - max);
+      sum += logWeights[i];
+    }
+    return sum;
+  }
+
+  private static int sampleExponentiated(Random rand, double [] weights, int n, double sum)
+  {
+    final double u = rand.nextDouble() * sum;
+    double cumulative = 0.0;
+    for (int i = 0; i < n; i++)
+    {
+      cumulative += weights[i];
+      if (u < cumulative)
+        return i;
+    }
+    // round-off: return the last index with positive weight
+    for (int i = n - 1; i >= 0; i--)
+      if (weights[i] > 0.0)
+        return i;
+    throw new RuntimeException();
+  }
+
+  private void ensureCapacity(int size)
+  {
+    if (size <= logWeights.length)
+      return;
+    final int newSize = Math.max(size, 2 * logWeights.length);
+    logWeights = new double[newSize];
+    tables = new ClusterId[newSize];
+  }
+}
@@ -0,0 +1,66 @@
+package polya.crp;
+
+import java.io.File;
+import java.util.Map;
+
+import bayonet.coda.SimpleCodaPlots;
+import bayonet.rplot.PlotContour;
+import briefj.OutputManager;
+
+import static briefj.Results.*;
+
+
+/**
+ * Same as CRPMain, but running several independent chains in parallel,
+ * by default one per core.
+ *
+ * In addition to the output of CRPMain (with one set of CODA files
+ * per chain, and the predictive averaged over all chains), prints the
+ * split R-hat of each real valued statistic, also written in rhat.csv.
+ *
+ * Usage: MultiChainMain [number of chains] [number of threads]
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class MultiChainMain
+{
+  public static void main(String [] args)
+  {
+    final int nThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    final int nChains = args.length > 0 ? Integer.parseInt(args[0]) : nThreads;
+
+    MultiChainRunner runner = new MultiChainRunner(new MultiChainRunner.StateFactory() {
+      @Override
+      public CompleteState newState()
+      {
+        CompleteState result = CompleteState.standardInit(new File("data/circle.csv"));
+        CRPMain.initMHMoves(result);
+        return result;
+      }
+    }, nChains, 1);
+    runner.run(nThreads);
+
+    runner.writeCoda(getResultFolder());
+    for (int c = 1; c <= nChains; c++)
+    {
+      SimpleCodaPlots codaPlots = new SimpleCodaPlots(
+          new File(getResultFolder(), "CODAchain" + c + ".txt"),
+          new File(getResultFolder(), "CODAindex" + c + ".txt"));
+      codaPlots.toPDF(new File(getResultFolder(), "codaPlots" + c + ".pdf"));
+    }
+
+    OutputManager output = new OutputManager();
+    output.setOutputFolder(getResultFolder());
+    for (Map.Entry<String,Double> entry : runner.potentialScaleReductions().entrySet())
+    {
+      System.out.println("R-hat(" + entry.getKey() + ") = " + entry.getValue());
+      output.printWrite("rhat", "statistic", entry.getKey(), "rhat", entry.getValue());
+    }
+    output.close();
+
+    PlotContour pc = PlotContour.fromFunction(runner.mergedPredictive().tabulate(15, 301, nThreads));
+    pc.centerToZero(15);
+    pc.toPDF(new File(getResultFolder(), "predictive.pdf"));
+  }
+}
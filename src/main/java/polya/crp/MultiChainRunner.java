@@ -0,0 +1,235 @@
+package polya.crp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import polya.mcmc.ConvergenceDiagnostics;
+import polya.parametric.normal.StudentTMixture;
+import bayonet.coda.CodaParser;
+import briefj.OutputManager;
+
+import com.google.common.collect.Maps;
+
+
+/**
+ * Runs several independent chains, each on its own CompleteState and
+ * with its own random stream, concurrently.
+ *
+ * The samples of the real valued statistics (see CompleteState.realValuedStatistics())
+ * are kept in memory, so that they can be compared across chains
+ * (see potentialScaleReductions()) and written in CODA format at the end.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class MultiChainRunner
+{
+  /**
+   * Creates the initial state of each chain, including its MH moves.
+   */
+  public static interface StateFactory
+  {
+    public CompleteState newState();
+  }
+
+  /**
+   * See setSchedule()
+   */
+  private int nSweeps = 10000, burnIn = 1000, paramThinPeriod = 10, predThinPeriod = 1000;
+
+  private final List<Chain> chains = new ArrayList<Chain>();
+
+  /**
+   *
+   * @param factory Called once per chain, from the calling thread
+   * @param nChains
+   * @param seed The random stream of each chain is seeded from a master
+   *   stream with this seed, so the results do not depend on the number of threads
+   */
+  public MultiChainRunner(StateFactory factory, int nChains, long seed)
+  {
+    Random master = new Random(seed);
+    for (int i = 0; i < nChains; i++)
+      chains.add(new Chain(factory.newState(), new Random(master.nextLong())));
+  }
+
+  /**
+   *
+   * @param nSweeps Number of sweeps of each chain, non-negative, 10000 by default
+   * @param burnIn Number of initial sweeps not recorded, non-negative, 1000 by default
+   * @param paramThinPeriod Period of the parameter samples, positive, 10 by default
+   * @param predThinPeriod Period of the predictive samples, positive, 1000 by default
+   */
+  public void setSchedule(int nSweeps, int burnIn, int paramThinPeriod, int predThinPeriod)
+  {
+    if (nSweeps < 0 || burnIn < 0 || paramThinPeriod < 1 || predThinPeriod < 1)
+      throw new RuntimeException("Invalid schedule: " + nSweeps + " sweeps, burn-in " + burnIn
+        + ", thinning periods " + paramThinPeriod + " and " + predThinPeriod);
+    this.nSweeps = nSweeps;
+    this.burnIn = burnIn;
+    this.paramThinPeriod = paramThinPeriod;
+    this.predThinPeriod = predThinPeriod;
+  }
+
+  /**
+   * Runs all the chains to completion.
+   *
+   * @param nThreads
+   */
+  public void run(int nThreads)
+  {
+    ForkJoinPool pool = new ForkJoinPool(nThreads);
+    try
+    {
+      List<Future<Chain>> futures = pool.invokeAll(chains);
+      for (Future<Chain> future : futures)
+        future.get();
+    }
+    catch (InterruptedException e)
+    {
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e)
+    {
+      throw new RuntimeException(e.getCause());
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   *
+   * @return Number of chains
+   */
+  public int nChains()
+  {
+    return chains.size();
+  }
+
+  /**
+   *
+   * @param chainIndex
+   * @return The state of the given chain, at the end of the run
+   */
+  public CompleteState state(int chainIndex)
+  {
+    return chains.get(chainIndex).state;
+  }
+
+  /**
+   *
+   * @param chainIndex
+   * @param statistic A key of CompleteState.realValuedStatistics()
+   * @return The samples collected after burn-in, one every paramThinPeriod sweeps
+   */
+  public List<Double> samples(int chainIndex, String statistic)
+  {
+    return chains.get(chainIndex).samples.get(statistic);
+  }
+
+  /**
+   *
+   * @return For each real valued statistic, the split R-hat computed from all the chains
+   *   (see ConvergenceDiagnostics.potentialScaleReduction())
+   */
+  public Map<String,Double> potentialScaleReductions()
+  {
+    Map<String,Double> result = Maps.newTreeMap();
+    for (String key : chains.get(0).samples.keySet())
+    {
+      List<List<Double>> allSamples = new ArrayList<List<Double>>();
+      for (Chain chain : chains)
+        allSamples.add(chain.samples.get(key));
+      result.put(key, ConvergenceDiagnostics.potentialScaleReduction(allSamples));
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @return The predictive distributions collected in all the chains,
+   *   combined as in CRPMain (each with log weight zero)
+   */
+  public StudentTMixture mergedPredictive()
+  {
+    StudentTMixture result = new StudentTMixture(chains.get(0).predictive.dim());
+    for (Chain chain : chains)
+      result.addAll(0.0, chain.predictive);
+    return result;
+  }
+
+  /**
+   * Writes the samples of each chain in csv files, in the sub-directory
+   * samples-csv-[chain index], then converts them to CODA files named
+   * CODAindex[chain index].txt and CODAchain[chain index].txt, where the
+   * index starts at 1.
+   *
+   * @param folder
+   */
+  public void writeCoda(File folder)
+  {
+    for (int c = 0; c < chains.size(); c++)
+    {
+      Chain chain = chains.get(c);
+      OutputManager output = new OutputManager();
+      File csvSamples = new File(folder, "samples-csv-" + (c+1));
+      output.setOutputFolder(csvSamples);
+      for (String key : chain.samples.keySet())
+      {
+        List<Double> current = chain.samples.get(key);
+        for (int i = 0; i < current.size(); i++)
+          output.printWrite(key, "mcmcIter", chain.iterations.get(i), key, current.get(i));
+      }
+      output.close();
+      CodaParser.CSVToCoda(
+          new File(folder, "CODAindex" + (c+1) + ".txt"),
+          new File(folder, "CODAchain" + (c+1) + ".txt"),
+          csvSamples);
+    }
+  }
+
+  private class Chain implements Callable<Chain>
+  {
+    private final CompleteState state;
+    private final Random rand;
+    private final Map<String,List<Double>> samples = Maps.newTreeMap();
+    private final List<Integer> iterations = new ArrayList<Integer>();
+    private final StudentTMixture predictive;
+
+    private Chain(CompleteState state, Random rand)
+    {
+      this.state = state;
+      this.rand = rand;
+      this.predictive = new StudentTMixture(state.hp.dim());
+      for (String key : state.realValuedStatistics().keySet())
+        samples.put(key, new ArrayList<Double>());
+    }
+
+    @Override
+    public Chain call()
+    {
+      for (int mcmcSweep = 0; mcmcSweep < nSweeps; mcmcSweep++)
+      {
+        state.doOneSamplingRound(rand);
+        if (mcmcSweep % paramThinPeriod == 0 && mcmcSweep > burnIn)
+        {
+          iterations.add(mcmcSweep);
+          for (String key : samples.keySet())
+            samples.get(key).add(state.realValuedStatistics().get(key).getValue());
+        }
+        if (mcmcSweep % predThinPeriod == 0 && mcmcSweep > burnIn)
+          predictive.addAll(0.0, state.logPredictive());
+      }
+      return this;
+    }
+  }
+}
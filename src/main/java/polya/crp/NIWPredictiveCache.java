@@ -0,0 +1,203 @@
+package polya.crp;
+
+import java.util.Arrays;
+
+import polya.crp.utils.ClusterId;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.NIWCholeskyPosterior;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.TwoMomentsStatistic;
+
+
+/**
+ * Keeps, for each table of a CRPState, the NIW hyper-parameters updated with
+ * the customers at that table, in the Cholesky form of NIWCholeskyPosterior.
+ *
+ * The cache listens to the restaurant: when a customer joins or leaves a table,
+ * the factor of that table is modified by a rank-one update or downdate,
+ * in O(dim^2). The predictive of a customer at a table then also costs O(dim^2),
+ * instead of O(dim^3) when recomputed from the sufficient statistics.
+ *
+ * If kappa or nu are modified (e.g. by MH moves), all the factors are recomputed
+ * the next time the cache is queried.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class NIWPredictiveCache implements SeatingListener
+{
+  /**
+   * Number of rank-one modifications after which a factor is recomputed from
+   * the statistics, to avoid accumulating round-off errors.
+   */
+  private static final int REFRESH_PERIOD = 10000;
+
+  private final CRPState state;
+  private final NIWHyperParameter hp;
+
+  /**
+   * Indexed by ClusterId.id(); null or stale entries for unused ids.
+   */
+  private NIWCholeskyPosterior [] tables = new NIWCholeskyPosterior[0];
+  private int [] nModifications = new int[0];
+
+  /**
+   * The parameters before seeing any data, used for new tables.
+   */
+  private final NIWCholeskyPosterior prior;
+
+  /**
+   * Value of the hyper-parameters when the factors were computed.
+   */
+  private double cachedKappa, cachedNu;
+  private boolean stale = true;
+
+  /**
+   * Creates a cache and attaches it to the provided restaurant.
+   *
+   * @param state
+   * @param hp
+   */
+  public NIWPredictiveCache(CRPState state, NIWHyperParameter hp)
+  {
+    this.state = state;
+    this.hp = hp;
+    this.prior = NIWCholeskyPosterior.fromPrior(hp);
+    state.addListener(this);
+  }
+
+  /**
+   * Detaches this cache from the restaurant.
+   */
+  public void detach()
+  {
+    state.removeListener(this);
+  }
+
+  /**
+   *
+   * @param point The statistic of a single point, not currently at the table
+   * @param clusterId
+   * @return The log predictive density of the point given the customers at the table
+   */
+  public double logPredictive(SufficientStatistic point, ClusterId clusterId)
+  {
+    checkHyperParameters();
+    return tables[clusterId.id()].logPredictive((TwoMomentsStatistic) point);
+  }
+
+  /**
+   *
+   * @param point The statistic of a single point
+   * @return The log predictive density of the point at a new table
+   */
+  public double logPredictiveAtNewTable(SufficientStatistic point)
+  {
+    checkHyperParameters();
+    return prior.logPredictive((TwoMomentsStatistic) point);
+  }
+
+  /**
+   *
+   * @param clusterId
+   * @return The updated parameters of the given table. Do not modify.
+   */
+  public NIWCholeskyPosterior posterior(ClusterId clusterId)
+  {
+    checkHyperParameters();
+    return tables[clusterId.id()];
+  }
+
+  /**
+   *
+   * @return The parameters before any update. Do not modify.
+   */
+  public NIWCholeskyPosterior prior()
+  {
+    checkHyperParameters();
+    return prior;
+  }
+
+  private boolean hyperParametersChanged()
+  {
+    return cachedKappa != hp.kappa() || cachedNu != hp.nu();
+  }
+
+  private void checkHyperParameters()
+  {
+    if (stale || hyperParametersChanged())
+      rebuild();
+  }
+
+  /**
+   * Recomputes all the factors from the statistics, in O(nTables dim^3).
+   */
+  public void rebuild()
+  {
+    cachedKappa = hp.kappa();
+    cachedNu = hp.nu();
+    prior.setToPrior(hp);
+    for (ClusterId id : state.getAllClusterIds())
+      refresh(id);
+    stale = false;
+  }
+
+  private void refresh(ClusterId id)
+  {
+    final int index = id.id();
+    ensureCapacity(index);
+    TwoMomentsStatistic stat = (TwoMomentsStatistic) state.getClusterStatistics(id);
+    if (tables[index] == null)
+      tables[index] = NIWCholeskyPosterior.fromData(hp, stat);
+    else
+      tables[index].setToPosterior(hp, stat);
+    nModifications[index] = 0;
+  }
+
+  private void ensureCapacity(int index)
+  {
+    if (index < tables.length)
+      return;
+    final int newCapacity = Math.max(index + 1, 2 * tables.length);
+    tables = Arrays.copyOf(tables, newCapacity);
+    nModifications = Arrays.copyOf(nModifications, newCapacity);
+  }
+
+  @Override
+  public void customerAdded(Integer customer, ClusterId clusterId, boolean newTable)
+  {
+    if (stale || hyperParametersChanged())
+    {
+      stale = true;
+      return;
+    }
+    final int index = clusterId.id();
+    ensureCapacity(index);
+    if (newTable)
+    {
+      if (tables[index] == null)
+        tables[index] = NIWCholeskyPosterior.fromPrior(hp);
+      tables[index].setTo(prior);
+      nModifications[index] = 0;
+    }
+    tables[index].add((TwoMomentsStatistic) state.getCustomerStatistic(customer));
+    if (++nModifications[index] > REFRESH_PERIOD)
+      refresh(clusterId);
+  }
+
+  @Override
+  public void customerRemoved(Integer customer, ClusterId clusterId, boolean tableDestroyed)
+  {
+    if (stale || hyperParametersChanged())
+    {
+      stale = true;
+      return;
+    }
+    if (tableDestroyed)
+      return;
+    final int index = clusterId.id();
+    boolean stable = tables[index].remove((TwoMomentsStatistic) state.getCustomerStatistic(customer));
+    if (!stable || ++nModifications[index] > REFRESH_PERIOD)
+      refresh(clusterId);
+  }
+}
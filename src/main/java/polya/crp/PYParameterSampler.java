@@ -0,0 +1,213 @@
+package polya.crp;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.special.Gamma;
+
+import polya.mcmc.PointwiseFactor;
+import polya.mcmc.RealNodePrior;
+import polya.mcmc.RealVariable;
+
+
+/**
+ * Resamples alpha0 and the discount of a PYPrior given the seating, with
+ * univariate slice sampling (stepping out and shrinkage, Neal 2003).
+ *
+ * The PY prior of the seating only depends on the number of customers,
+ * the number of tables and the table size histogram (see
+ * CRPs.crpAssignmentLogProbabilitiy()). These are read once per round,
+ * then each evaluation of the density, at any alpha0 and discount, costs
+ * O(number of distinct table sizes) log gamma evaluations, independently
+ * of the number of customers, and does not read the restaurant. Unlike
+ * BlockLogFactors, the block factors are not tabulated by size, since
+ * each slice sampling step uses a new discount.
+ *
+ * The slice sampler does not need a proposal scale: the widths below only
+ * affect the number of evaluations, not the correctness.
+ *
+ * See: Neal, R. M. (2003) Slice sampling. Annals of Statistics 31, 705-767.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class PYParameterSampler
+{
+  /**
+   * See setWidths() and setMaxSteppingOut()
+   */
+  private double alpha0Width = 1.0, discountWidth = 0.1;
+  private int maxSteppingOut = 100;
+
+  private final CRPState state;
+  private final PYPrior prior;
+
+  /**
+   * Null when the corresponding parameter is not resampled.
+   */
+  private final PointwiseFactor alpha0Prior, discountPrior;
+
+  /**
+   * Summaries of the seating, read at the beginning of each round.
+   */
+  private int nCustomers, nTables, nDistinctSizes;
+  private int [] sizes = new int[16], counts = new int[16];
+
+  /**
+   *
+   * @param state
+   * @param prior The parameters to resample
+   * @param alpha0Prior Prior on alpha0, or null to keep alpha0 fixed
+   * @param discountPrior Prior on the discount, or null to keep the discount fixed
+   */
+  public PYParameterSampler(
+      CRPState state,
+      PYPrior prior,
+      RealNodePrior alpha0Prior,
+      RealNodePrior discountPrior)
+  {
+    this.state = state;
+    this.prior = prior;
+    this.alpha0Prior = asPointwise(alpha0Prior, prior.alpha0VariableView());
+    this.discountPrior = asPointwise(discountPrior, prior.discountVariableView());
+  }
+
+  private static PointwiseFactor asPointwise(RealNodePrior factor, RealVariable variable)
+  {
+    if (factor == null)
+      return null;
+    if (!(factor instanceof PointwiseFactor))
+      throw new RuntimeException("The priors should be PointwiseFactors, got: " + factor.getClass());
+    factor.setVariable(variable);
+    return (PointwiseFactor) factor;
+  }
+
+  /**
+   *
+   * @param alpha0Width Initial width of the slice intervals of alpha0,
+   *   positive, 1 by default
+   * @param discountWidth Initial width of the slice intervals of the
+   *   discount, positive, 0.1 by default
+   */
+  public void setWidths(double alpha0Width, double discountWidth)
+  {
+    if (!(alpha0Width > 0.0 && discountWidth > 0.0))
+      throw new RuntimeException("The widths should be positive, got: " + alpha0Width + ", " + discountWidth);
+    this.alpha0Width = alpha0Width;
+    this.discountWidth = discountWidth;
+  }
+
+  /**
+   *
+   * @param maxSteppingOut Maximum number of steps when stepping out, at
+   *   least 1, 100 by default
+   */
+  public void setMaxSteppingOut(int maxSteppingOut)
+  {
+    if (maxSteppingOut < 1)
+      throw new RuntimeException("The maximum number of stepping out steps should be at least 1, got: " + maxSteppingOut);
+    this.maxSteppingOut = maxSteppingOut;
+  }
+
+  /**
+   * Reads the summaries of the seating, then performs one slice sampling
+   * update of alpha0 and one of the discount, in random order.
+   *
+   * @param rand
+   */
+  public void sampleOneRound(Random rand)
+  {
+    readSummaries();
+    final boolean alpha0First = rand.nextBoolean();
+    for (int i = 0; i < 2; i++)
+      if ((i == 0) == alpha0First)
+      {
+        if (alpha0Prior != null)
+          prior.alpha0VariableView().setValue(slice(rand, true, prior.alpha0(), alpha0Width));
+      }
+      else if (discountPrior != null)
+        prior.discountVariableView().setValue(slice(rand, false, prior.discount(), discountWidth));
+  }
+
+  private void readSummaries()
+  {
+    nCustomers = state.nCustomers();
+    nTables = state.nTables();
+    final TableSizeHistogram histogram = state.tableSizeHistogram();
+    nDistinctSizes = histogram.nDistinctSizes();
+    if (nDistinctSizes > sizes.length)
+    {
+      sizes = Arrays.copyOf(sizes, 2 * nDistinctSizes);
+      counts = Arrays.copyOf(counts, 2 * nDistinctSizes);
+    }
+    for (int i = 0; i < nDistinctSizes; i++)
+    {
+      sizes[i] = histogram.distinctSize(i);
+      counts[i] = histogram.nTablesOfSize(sizes[i]);
+    }
+  }
+
+  /**
+   * One slice sampling update of alpha0 (if isAlpha0) or of the discount,
+   * the other parameter being fixed at its current value.
+   */
+  private double slice(Random rand, boolean isAlpha0, double current, double width)
+  {
+    final double logHeight = logDensity(isAlpha0, current) + Math.log(rand.nextDouble());
+    if (Double.isNaN(logHeight) || logHeight == Double.NEGATIVE_INFINITY)
+      throw new RuntimeException("The current PY parameters have zero density");
+
+    // stepping out
+    double left = current - width * rand.nextDouble(), right = left + width;
+    int nLeft = rand.nextInt(maxSteppingOut + 1), nRight = maxSteppingOut - nLeft;
+    while (nLeft-- > 0 && logDensity(isAlpha0, left) > logHeight)
+      left -= width;
+    while (nRight-- > 0 && logDensity(isAlpha0, right) > logHeight)
+      right += width;
+
+    // shrinkage
+    while (true)
+    {
+      final double proposed = left + rand.nextDouble() * (right - left);
+      if (logDensity(isAlpha0, proposed) > logHeight)
+        return proposed;
+      if (proposed < current)
+        left = proposed;
+      else
+        right = proposed;
+    }
+  }
+
+  private double logDensity(boolean isAlpha0, double value)
+  {
+    final double
+      alpha0 = isAlpha0 ? value : prior.alpha0(),
+      discount = isAlpha0 ? prior.discount() : value;
+    final PointwiseFactor parameterPrior = isAlpha0 ? alpha0Prior : discountPrior;
+    final double logPrior = parameterPrior.logUnnormalizedPotentialAt(
+        isAlpha0 ? prior.alpha0VariableView() : prior.discountVariableView(), value);
+    if (logPrior == Double.NEGATIVE_INFINITY)
+      return logPrior;
+    return logPrior + logSeatingProbability(alpha0, discount);
+  }
+
+  /**
+   * Same value as CRPs.crpAssignmentLogProbabilitiy() with the provided
+   * parameters, computed from the summaries.
+   */
+  private double logSeatingProbability(double alpha0, double discount)
+  {
+    if (!PYPrior.inBounds(alpha0, discount))
+      return Double.NEGATIVE_INFINITY;
+    double result = - CRPs.logRisingFactorial(alpha0, nCustomers);
+    if (discount == 0.0)
+      result += nTables * Math.log(alpha0);
+    else
+      result += nTables * Math.log(discount) + CRPs.logRisingFactorial(alpha0 / discount, nTables);
+    // block factors log (1-d)_{k-1} = logGamma(k-d) - logGamma(1-d)
+    result -= nTables * Gamma.logGamma(1.0 - discount);
+    for (int i = 0; i < nDistinctSizes; i++)
+      result += counts[i] * Gamma.logGamma(sizes[i] - discount);
+    return result;
+  }
+}
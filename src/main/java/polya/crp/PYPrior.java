@@ -58,6 +58,17 @@ public class PYPrior
    * @return
    */
   public boolean inBounds()
+  {
+    return inBounds(alpha0, discount);
+  }
+  
+  /**
+   * 
+   * @param alpha0
+   * @param discount
+   * @return Whether a PYPrior can be created with these parameters
+   */
+  public static boolean inBounds(double alpha0, double discount)
   {
     return discount >= 0 && discount < 1 && alpha0 > -discount;
   }
@@ -85,29 +96,35 @@ public class PYPrior
   /**
    * Used by polya.mcmc to resample the alpha0 variable
    * 
-   * @return
+   * @return The same object at each call, so that factors can
+   *   recognize it (see PointwiseFactor)
    */
   public RealVariable alpha0VariableView()
   {
-    return new RealVariable() {
-      @Override public void setValue(double newValue) { alpha0 = newValue; }
-      @Override  public double getValue()             { return alpha0; }
-    };
+    return alpha0View;
   }
+  
+  private final RealVariable alpha0View = new RealVariable() {
+    @Override public void setValue(double newValue) { alpha0 = newValue; }
+    @Override  public double getValue()             { return alpha0; }
+  };
 
   
   /**
    * Used by polya.mcmc to resample the discount variable
    * 
-   * @return
+   * @return The same object at each call, so that factors can
+   *   recognize it (see PointwiseFactor)
    */
   public RealVariable discountVariableView()
   {
-    return new RealVariable() {
-      @Override public void setValue(double newValue) { discount = newValue; }
-      @Override  public double getValue()             { return discount; }
-    };
+    return discountView;
   }
+  
+  private final RealVariable discountView = new RealVariable() {
+    @Override public void setValue(double newValue) { discount = newValue; }
+    @Override  public double getValue()             { return discount; }
+  };
 
   /**
    * The discount parameter. 
@@ -0,0 +1,266 @@
+package polya.crp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Replica exchange (parallel tempering) over a ladder of CompleteStates,
+ * to help the cold chain move between the modes of the partition posterior.
+ *
+ * Replica k targets the posterior with the collapsed likelihood raised to
+ * the inverse temperature beta_k, where 1 = beta_0 > beta_1 > ... (see
+ * CompleteState.setInverseTemperature()). At each round, the replicas
+ * are resampled concurrently, one task per replica, then swaps are
+ * proposed between adjacent temperatures, alternating between the even
+ * and the odd pairs. A swap of the replicas at k and k+1 is accepted with
+ * probability
+ *
+ *   min(1, exp((beta_k - beta_{k+1}) (logL_{k+1} - logL_k)))
+ *
+ * where logL is the untempered collapsed likelihood, read from the cached
+ * factors (see CompleteState.useCachedFactors()). An accepted swap
+ * exchanges the references to the two states and their temperatures,
+ * the seatings are not copied.
+ *
+ * During the first nAdaptationRounds() rounds, the spacing of the temperatures
+ * is adapted as in Miasojedow, Moulines and Vihola (2013): with
+ * T_k = 1/beta_k, log(T_{k+1} - T_k) is moved by a decreasing step size
+ * times the difference between the swap acceptance probability of the
+ * pair and the target (see setTargetSwapAcceptance()). The ladder is then fixed, so the samples
+ * of the cold chain collected afterwards are from the posterior.
+ *
+ * See: Miasojedow, B., Moulines, E. and Vihola, M. (2013) An adaptive
+ * parallel tempering algorithm. JCGS 22, 649-664.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class ParallelTempering
+{
+  /**
+   * See setNAdaptationRounds() and setTargetSwapAcceptance()
+   */
+  private int nAdaptationRounds = 1000;
+  private double targetSwapAcceptance = 0.234;
+
+  /**
+   * Indexed by temperature: the state currently at that temperature and the
+   * random stream used to resample it (which does not follow the swaps).
+   */
+  private final CompleteState [] states;
+  private final Random [] rands;
+  private final Random swapRand;
+
+  /**
+   * Indexed by pair of adjacent temperatures (k, k+1):
+   * log(T_{k+1} - T_k), and the swap statistics.
+   */
+  private final double [] logSpacings;
+  private final int [] nSwapsProposed, nSwapsAccepted;
+
+  private final ForkJoinPool pool;
+  private int nRounds = 0;
+
+  /**
+   *
+   * @param factory Called once per temperature, from the calling thread
+   * @param nTemperatures
+   * @param initialRatio The initial temperatures are initialRatio^k
+   * @param seed
+   * @param nThreads
+   */
+  public ParallelTempering(
+      MultiChainRunner.StateFactory factory,
+      int nTemperatures,
+      double initialRatio,
+      long seed,
+      int nThreads)
+  {
+    if (nTemperatures < 1 || !(initialRatio > 1.0))
+      throw new RuntimeException();
+    this.states = new CompleteState[nTemperatures];
+    this.rands = new Random[nTemperatures];
+    this.logSpacings = new double[nTemperatures - 1];
+    this.nSwapsProposed = new int[nTemperatures - 1];
+    this.nSwapsAccepted = new int[nTemperatures - 1];
+    Random master = new Random(seed);
+    for (int k = 0; k < nTemperatures; k++)
+    {
+      states[k] = factory.newState();
+      states[k].useGibbsSweep();
+      states[k].useCachedFactors();
+      rands[k] = new Random(master.nextLong());
+      if (k < nTemperatures - 1)
+        logSpacings[k] = Math.log(Math.pow(initialRatio, k + 1) - Math.pow(initialRatio, k));
+    }
+    this.swapRand = new Random(master.nextLong());
+    this.pool = new ForkJoinPool(nThreads);
+    setTemperatures();
+  }
+
+  /**
+   *
+   * @param nAdaptationRounds Number of rounds during which the ladder is
+   *   adapted, 1000 by default
+   */
+  public void setNAdaptationRounds(int nAdaptationRounds)
+  {
+    if (nAdaptationRounds < 0)
+      throw new RuntimeException("The number of adaptation rounds should be non-negative, got: " + nAdaptationRounds);
+    this.nAdaptationRounds = nAdaptationRounds;
+  }
+
+  /**
+   *
+   * @return See setNAdaptationRounds()
+   */
+  public int nAdaptationRounds()
+  {
+    return nAdaptationRounds;
+  }
+
+  /**
+   *
+   * @param targetSwapAcceptance Swap acceptance probability targeted by the
+   *   adaptation, in (0, 1), 0.234 by default
+   */
+  public void setTargetSwapAcceptance(double targetSwapAcceptance)
+  {
+    if (!(targetSwapAcceptance > 0.0 && targetSwapAcceptance < 1.0))
+      throw new RuntimeException("The target swap acceptance should be in (0, 1), got: " + targetSwapAcceptance);
+    this.targetSwapAcceptance = targetSwapAcceptance;
+  }
+
+  /**
+   * Resamples all the replicas concurrently, then proposes the swaps.
+   */
+  public void sampleOneRound()
+  {
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    for (int k = 0; k < states.length; k++)
+    {
+      final CompleteState state = states[k];
+      final Random rand = rands[k];
+      tasks.add(new Callable<Object>() {
+        @Override
+        public Object call()
+        {
+          state.doOneSamplingRound(rand);
+          return null;
+        }
+      });
+    }
+    try
+    {
+      List<Future<Object>> futures = pool.invokeAll(tasks);
+      for (Future<Object> future : futures)
+        future.get();
+    }
+    catch (InterruptedException e)
+    {
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e)
+    {
+      throw new RuntimeException(e.getCause());
+    }
+
+    final boolean adapt = nRounds < nAdaptationRounds;
+    final double stepSize = Math.pow(nRounds + 1, -0.6);
+    for (int k = nRounds % 2; k < states.length - 1; k += 2)
+    {
+      final double logRatio =
+        (states[k].inverseTemperature() - states[k+1].inverseTemperature()) *
+        (states[k+1].logLikelihood() - states[k].logLikelihood());
+      final double acceptance = logRatio >= 0.0 ? 1.0 : Math.exp(logRatio);
+      nSwapsProposed[k]++;
+      if (swapRand.nextDouble() < acceptance)
+      {
+        nSwapsAccepted[k]++;
+        final CompleteState cold = states[k];
+        states[k] = states[k+1];
+        states[k+1] = cold;
+      }
+      if (adapt)
+        logSpacings[k] += stepSize * (acceptance - targetSwapAcceptance);
+    }
+    setTemperatures();
+    nRounds++;
+  }
+
+  /**
+   * Sets the temperature of each state from its position in the ladder.
+   */
+  private void setTemperatures()
+  {
+    double temperature = 1.0;
+    for (int k = 0; k < states.length; k++)
+    {
+      if (k > 0)
+        temperature += Math.exp(logSpacings[k - 1]);
+      states[k].setInverseTemperature(1.0 / temperature);
+    }
+  }
+
+  /**
+   * Stops the threads used by this sampler.
+   */
+  public void shutdown()
+  {
+    pool.shutdown();
+  }
+
+  /**
+   *
+   * @return The state currently targeting the posterior
+   */
+  public CompleteState coldState()
+  {
+    return states[0];
+  }
+
+  /**
+   *
+   * @param k
+   * @return The state currently at the temperature of index k, 0 being the coldest
+   */
+  public CompleteState state(int k)
+  {
+    return states[k];
+  }
+
+  /**
+   *
+   * @return Number of temperatures
+   */
+  public int nTemperatures()
+  {
+    return states.length;
+  }
+
+  /**
+   *
+   * @param k
+   * @return The inverse temperature of index k
+   */
+  public double inverseTemperature(int k)
+  {
+    return states[k].inverseTemperature();
+  }
+
+  /**
+   *
+   * @param k
+   * @return Fraction of the swaps between the temperatures k and k+1 which were accepted
+   */
+  public double swapAcceptanceRate(int k)
+  {
+    return ((double) nSwapsAccepted[k]) / nSwapsProposed[k];
+  }
+}
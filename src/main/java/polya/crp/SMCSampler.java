@@ -0,0 +1,392 @@
+package polya.crp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import polya.parametric.CollapsedConjugateModel;
+import polya.parametric.HyperParameter;
+import polya.parametric.SufficientStatistic;
+
+
+/**
+ * Sequential Monte Carlo over seating arrangements (a particle filter where
+ * the customers arrive one at the time), with fixed hyper-parameters.
+ *
+ * Each particle is a seating arrangement of the customers seen so far. At each
+ * step, every particle is extended by seating the next customer, sampled from
+ * its conditional given the particle (PY predictive times collapsed predictive,
+ * see GibbsSweep.seat()). With this proposal, the incremental weight of the particle
+ * is the predictive density of the new customer given the particle, i.e. the
+ * normalization of the conditional. The particles are then:
+ *
+ * - resampled (systematic resampling) when the effective sample size falls
+ *   below resamplingThreshold * nParticles
+ * - optionally rejuvenated by Gibbs sweeps over the rejuvenationWindow most
+ *   recent customers, which leave the target of each particle invariant
+ *
+ * Particles are CopyOnWriteCRPStates, so that the copies made by resampling
+ * share their arrays with their ancestor. Particles are extended in parallel,
+ * each with its own random stream seeded from the master one, so that the
+ * result does not depend on the number of threads.
+ *
+ * The product over the steps of the average incremental weights estimates the
+ * marginal likelihood of the data, see logNormalization().
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class SMCSampler
+{
+  private final Map<Integer,SufficientStatistic> data;
+  private final HyperParameter hp;
+  private final CollapsedConjugateModel model;
+  private final PYPrior prior;
+  private final ForkJoinPool pool;
+
+  /**
+   * See setResamplingThreshold() and setRejuvenation()
+   */
+  private double resamplingThreshold = 0.5;
+  private int nRejuvenationSweeps = 0;
+  private int rejuvenationWindow = 100;
+
+  private List<Particle> particles = new ArrayList<Particle>();
+
+  /**
+   * The customers seen so far, in order of arrival.
+   */
+  private final List<Integer> seen = new ArrayList<Integer>();
+
+  private double logNormalization = 0.0;
+  private int nResamplings = 0;
+
+  /**
+   *
+   * @param data Statistics of all the customers which can be added, keyed by non-negative integers
+   * @param hp
+   * @param model
+   * @param prior
+   * @param nParticles
+   * @param rand Used to seed the random streams of the particles
+   * @param nThreads
+   */
+  public SMCSampler(
+      Map<Integer,SufficientStatistic> data,
+      HyperParameter hp,
+      CollapsedConjugateModel model,
+      PYPrior prior,
+      int nParticles,
+      Random rand,
+      int nThreads)
+  {
+    if (nParticles < 1)
+      throw new RuntimeException();
+    this.data = data;
+    this.hp = hp;
+    this.model = model;
+    this.prior = prior;
+    this.pool = new ForkJoinPool(nThreads);
+    CopyOnWriteCRPState empty = new CopyOnWriteCRPState(data);
+    for (int i = 0; i < nParticles; i++)
+      particles.add(new Particle(i == 0 ? empty : empty.copy(), 0.0, rand.nextLong()));
+  }
+
+  /**
+   *
+   * @param resamplingThreshold Resample when the relative effective sample
+   *   size is below this, in [0, 1], 0.5 by default
+   */
+  public void setResamplingThreshold(double resamplingThreshold)
+  {
+    if (!(resamplingThreshold >= 0.0 && resamplingThreshold <= 1.0))
+      throw new RuntimeException("The resampling threshold should be in [0, 1], got: " + resamplingThreshold);
+    this.resamplingThreshold = resamplingThreshold;
+  }
+
+  /**
+   *
+   * @param nRejuvenationSweeps Number of Gibbs sweeps over the most recent
+   *   customers after each step, zero (the default) to disable rejuvenation
+   * @param rejuvenationWindow Number of most recent customers resampled,
+   *   at least 1, 100 by default
+   */
+  public void setRejuvenation(int nRejuvenationSweeps, int rejuvenationWindow)
+  {
+    if (nRejuvenationSweeps < 0 || rejuvenationWindow < 1)
+      throw new RuntimeException("Invalid rejuvenation settings: " + nRejuvenationSweeps + " sweeps over " + rejuvenationWindow + " customers");
+    this.nRejuvenationSweeps = nRejuvenationSweeps;
+    this.rejuvenationWindow = rejuvenationWindow;
+  }
+
+  /**
+   * Adds the customers in the provided order.
+   *
+   * @param rand
+   * @param customers Customers not added yet
+   */
+  public void addCustomers(Random rand, List<Integer> customers)
+  {
+    for (Integer customer : customers)
+      addCustomer(rand, customer);
+  }
+
+  /**
+   * Extends every particle with the provided customer, then resamples and
+   * rejuvenates the particles if needed.
+   *
+   * @param rand Used for resampling and for seeding new random streams
+   * @param customer A customer not added yet
+   */
+  public void addCustomer(Random rand, final Integer customer)
+  {
+    if (!data.containsKey(customer))
+      throw new RuntimeException("Unknown customer: " + customer);
+    seen.add(customer);
+    final List<Integer> window = new ArrayList<Integer>(
+        seen.subList(Math.max(0, seen.size() - rejuvenationWindow), seen.size()));
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    for (final Particle particle : particles)
+      tasks.add(new Callable<Object>() {
+        @Override
+        public Object call()
+        {
+          particle.extend(customer);
+          return null;
+        }
+      });
+    invokeAll(tasks);
+
+    // average incremental weight, with the normalization of the PY predictive
+    final double [] logWeights = logWeights();
+    double previousLogSum = Double.NEGATIVE_INFINITY;
+    double logSum = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < particles.size(); i++)
+    {
+      previousLogSum = logAdd(previousLogSum, particles.get(i).previousLogWeight);
+      logSum = logAdd(logSum, logWeights[i]);
+    }
+    logNormalization += logSum - previousLogSum - Math.log(prior.alpha0() + seen.size() - 1);
+
+    if (ess() < resamplingThreshold * particles.size())
+      resample(rand);
+
+    if (nRejuvenationSweeps > 0)
+    {
+      tasks.clear();
+      for (final Particle particle : particles)
+        tasks.add(new Callable<Object>() {
+          @Override
+          public Object call()
+          {
+            particle.rejuvenate(window);
+            return null;
+          }
+        });
+      invokeAll(tasks);
+    }
+  }
+
+  private void invokeAll(List<Callable<Object>> tasks)
+  {
+    try
+    {
+      for (Future<Object> future : pool.invokeAll(tasks))
+        future.get();
+    }
+    catch (InterruptedException e)
+    {
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e)
+    {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Systematic resampling. The first copy of each surviving particle is the
+   * particle itself, the others are copy-on-write copies.
+   */
+  private void resample(Random rand)
+  {
+    final double [] weights = normalizedWeights();
+    final int n = particles.size();
+    List<Particle> resampled = new ArrayList<Particle>(n);
+    boolean [] used = new boolean[n];
+    final double u = rand.nextDouble() / n;
+    double cumulative = 0.0;
+    int source = 0;
+    for (int i = 0; i < n; i++)
+    {
+      final double target = u + (double) i / n;
+      while (source < n - 1 && cumulative + weights[source] <= target)
+        cumulative += weights[source++];
+      Particle ancestor = particles.get(source);
+      if (!used[source])
+      {
+        used[source] = true;
+        ancestor.logWeight = 0.0;
+        resampled.add(ancestor);
+      }
+      else
+        resampled.add(new Particle(ancestor.state.copy(), 0.0, rand.nextLong()));
+    }
+    for (int i = 0; i < n; i++)
+      if (!used[i])
+        particles.get(i).detach();
+    particles = resampled;
+    nResamplings++;
+  }
+
+  /**
+   *
+   * @return The effective sample size, 1 / sum of the squared normalized weights
+   */
+  public double ess()
+  {
+    double sumOfSquares = 0.0;
+    for (double w : normalizedWeights())
+      sumOfSquares += w * w;
+    return 1.0 / sumOfSquares;
+  }
+
+  /**
+   *
+   * @return The weights of the particles, summing to one
+   */
+  public double [] normalizedWeights()
+  {
+    final double [] result = logWeights();
+    double max = Double.NEGATIVE_INFINITY;
+    for (double logWeight : result)
+      max = Math.max(max, logWeight);
+    double sum = 0.0;
+    for (int i = 0; i < result.length; i++)
+    {
+      result[i] = Math.exp(result[i] - max);
+      sum += result[i];
+    }
+    for (int i = 0; i < result.length; i++)
+      result[i] /= sum;
+    return result;
+  }
+
+  private double [] logWeights()
+  {
+    final double [] result = new double[particles.size()];
+    for (int i = 0; i < result.length; i++)
+      result[i] = particles.get(i).logWeight;
+    return result;
+  }
+
+  private static double logAdd(double logX, double logY)
+  {
+    if (logX == Double.NEGATIVE_INFINITY)
+      return logY;
+    if (logY == Double.NEGATIVE_INFINITY)
+      return logX;
+    final double max = Math.max(logX, logY);
+    return max + Math.log(Math.exp(logX - max) + Math.exp(logY - max));
+  }
+
+  /**
+   *
+   * @return Estimate of the log marginal density of the customers added so far
+   */
+  public double logNormalization()
+  {
+    return logNormalization;
+  }
+
+  /**
+   *
+   * @return Number of times the particles were resampled
+   */
+  public int nResamplings()
+  {
+    return nResamplings;
+  }
+
+  public int nParticles()
+  {
+    return particles.size();
+  }
+
+  /**
+   * Note: particles may share pages of their arrays, see CopyOnWriteCRPState.
+   * Do not modify.
+   *
+   * @param i
+   * @return The seating arrangement of particle i
+   */
+  public CRPState particle(int i)
+  {
+    return particles.get(i).state;
+  }
+
+  /**
+   * Stops the threads used by this sampler.
+   */
+  public void shutdown()
+  {
+    pool.shutdown();
+  }
+
+  private class Particle
+  {
+    private final CopyOnWriteCRPState state;
+    private final Random rand;
+    private double logWeight, previousLogWeight;
+
+    /**
+     * Created the first time the particle is used, since each GibbsSweep
+     * attaches caches to the restaurant.
+     */
+    private GibbsSweep sweep = null;
+
+    private Particle(CopyOnWriteCRPState state, double logWeight, long seed)
+    {
+      this.state = state;
+      this.logWeight = logWeight;
+      this.rand = new Random(seed);
+    }
+
+    private void extend(Integer customer)
+    {
+      previousLogWeight = logWeight;
+      GibbsSweep sweep = sweep();
+      sweep.seat(rand, customer);
+      logWeight += sweep.lastLogNormalization();
+    }
+
+    private void rejuvenate(List<Integer> window)
+    {
+      List<Integer> order = new ArrayList<Integer>(window);
+      for (int s = 0; s < nRejuvenationSweeps; s++)
+      {
+        Collections.shuffle(order, rand);
+        sweep().sweep(rand, order);
+      }
+    }
+
+    private GibbsSweep sweep()
+    {
+      if (sweep == null)
+        sweep = new GibbsSweep(state, hp, model, prior);
+      return sweep;
+    }
+
+    private void detach()
+    {
+      if (sweep != null)
+        sweep.detach();
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package polya.crp;
+
+import polya.crp.utils.ClusterId;
+
+
+/**
+ * Notified by a CRPState each time a customer is seated or removed, for
+ * example to maintain cached quantities that depend on the tables.
+ *
+ * See CRPState.addListener()
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public interface SeatingListener
+{
+  /**
+   * Called after the customer was seated.
+   *
+   * @param customer
+   * @param clusterId The table the customer joined
+   * @param newTable True if the table was created for this customer
+   */
+  public void customerAdded(Integer customer, ClusterId clusterId, boolean newTable);
+
+  /**
+   * Called after the customer was removed.
+   *
+   * @param customer
+   * @param clusterId The table the customer left
+   * @param tableDestroyed True if the customer was the last one at the table
+   */
+  public void customerRemoved(Integer customer, ClusterId clusterId, boolean tableDestroyed);
+}
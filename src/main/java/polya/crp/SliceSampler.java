@@ -0,0 +1,493 @@
+package polya.crp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math3.distribution.GammaDistribution;
+import org.apache.commons.math3.random.JDKRandomGenerator;
+import org.apache.commons.math3.random.RandomGenerator;
+import org.ejml.simple.SimpleMatrix;
+
+import polya.crp.utils.ClusterId;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.MVNDensity;
+import polya.parametric.normal.NIWCholeskyPosterior;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.TwoMomentsStatistic;
+
+
+/**
+ * Resamples the seating arrangement in parallel, using the slice sampler of
+ * Walker (2007) and Kalli, Griffin and Walker (2011) on the stick-breaking
+ * representation of the PY process.
+ *
+ * Each table is given a label k = 0, 1, 2, ..., the index of its stick, and
+ * the weights w_k = V_k \prod_{j < k} (1 - V_j), with
+ * V_k ~ Beta(1 - discount, alpha0 + (k+1) discount), and the parameters of
+ * the tables are instantiated. A slice variable u_i ~ Uniform(0, w_{z_i}) is
+ * attached to each customer i, seated at the table with label z_i. One round
+ * performs the following Gibbs steps:
+ *
+ * - the sticks of the labels up to the largest occupied one, given the
+ *   seating (Beta, with the number of customers at and beyond each label);
+ * - the parameters of these tables given the seating, with NIWs.nextNIW();
+ * - the slice variables;
+ * - more sticks and parameters from the prior, until the remaining stick
+ *   is shorter than all the slice variables;
+ * - the label of each customer: given all of the above, the customers are
+ *   independent, and z_i = k with probability proportional to
+ *   1[w_k > u_i] N(x_i | theta_k).
+ *
+ * The last step, which dominates the cost, is done in parallel over blocks of
+ * customers; the table parameters are also drawn in parallel. Each block uses
+ * its own random number generator, seeded from the one provided, so the
+ * result does not depend on the number of threads.
+ *
+ * The labels are kept from one round to the next, so that the chain is exact
+ * when the seating is only resampled by this engine. When other moves change
+ * the seating or the PY parameters between rounds, the tables they destroyed
+ * free their labels, and the tables they created get the smallest unused
+ * labels: each move is then valid on its own, but the labels are not
+ * redrawn from their conditional given the seating.
+ *
+ * Only the NIW model is supported, and nu should be an integer (see
+ * NIWs.nextNIW()).
+ *
+ * See: Walker, S. G. (2007) Sampling the Dirichlet mixture model with slices.
+ * Comm. Stat. Sim. Comp. 36, 45-54. Kalli, M., Griffin, J. E. and Walker,
+ * S. G. (2011) Slice sampling mixture models. Stat. Comp. 21, 93-105.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class SliceSampler
+{
+  /**
+   * Number of customers in the blocks processed by each parallel task.
+   */
+  public static final int CUSTOMERS_PER_TASK = 1024;
+
+  private final CRPState state;
+  private final NIWHyperParameter hp;
+  private final PYPrior prior;
+  private final ForkJoinPool pool;
+
+  /**
+   * The table of each label, null for the labels without customers.
+   */
+  private final List<ClusterId> tableOfLabel = new ArrayList<ClusterId>();
+  private final Map<ClusterId,Integer> labelOfTable = new HashMap<ClusterId,Integer>();
+
+  /**
+   * Indexed by the position of the customers in the array customers.
+   */
+  private Integer [] customers = new Integer[0];
+  private SufficientStatistic [] points = new SufficientStatistic[0];
+  private int [] labels = new int[0], newLabels = new int[0];
+  private double [] slices = new double[0];
+
+  /**
+   * Indexed by label.
+   */
+  private int [] counts = new int[16];
+  private double [] weights = new double[16];
+  private MVNDensity [] densities = new MVNDensity[16];
+  private int nSticks = 0;
+
+  /**
+   *
+   * @param state The seating arrangement, modified by sampleOneRound()
+   * @param hp
+   * @param prior
+   * @param nThreads
+   */
+  public SliceSampler(
+      CRPState state,
+      NIWHyperParameter hp,
+      PYPrior prior,
+      int nThreads)
+  {
+    if (nThreads < 1)
+      throw new RuntimeException();
+    this.state = state;
+    this.hp = hp;
+    this.prior = prior;
+    this.pool = new ForkJoinPool(nThreads);
+  }
+
+  /**
+   * Performs one round of the slice sampler, then writes the new seating
+   * into the seating arrangement.
+   *
+   * @param rand
+   */
+  public void sampleOneRound(Random rand)
+  {
+    readLabels();
+    final int nCustomers = customers.length;
+    final int nTasks = (nCustomers + CUSTOMERS_PER_TASK - 1) / CUSTOMERS_PER_TASK;
+    final RandomGenerator generator = new JDKRandomGenerator();
+    generator.setSeed(rand.nextLong());
+
+    // sticks of the labels up to the largest occupied one
+    final int nOccupiedSticks = tableOfLabel.size();
+    nSticks = 0;
+    double remaining = 1.0;
+    int nBeyond = nCustomers;
+    for (int k = 0; k < nOccupiedSticks; k++)
+    {
+      nBeyond -= counts[k];
+      remaining = addStick(generator, remaining, counts[k], nBeyond);
+    }
+
+    // slice variables, and the statistics of the tables
+    List<SliceTask> sliceTasks = new ArrayList<SliceTask>();
+    for (int t = 0; t < nTasks; t++)
+      sliceTasks.add(new SliceTask(t, nOccupiedSticks, rand.nextLong()));
+    invokeAll(sliceTasks);
+    double minSlice = 1.0;
+    for (SliceTask task : sliceTasks)
+      minSlice = Math.min(minSlice, task.minSlice);
+
+    // more sticks from the prior, until all the labels a customer could take are instantiated
+    while (remaining > minSlice && remaining > 0.0)
+      remaining = addStick(generator, remaining, 0, 0);
+
+    // parameters
+    List<ParameterTask> parameterTasks = new ArrayList<ParameterTask>();
+    for (int k = 0; k < nSticks; k++)
+    {
+      SufficientStatistic statistic = null;
+      if (k < nOccupiedSticks)
+        for (SliceTask task : sliceTasks)
+        {
+          final SufficientStatistic current = task.statistics[k];
+          if (current == null)
+            continue;
+          if (statistic == null)
+            statistic = current;
+          else
+            statistic.plusEqual(current);
+        }
+      parameterTasks.add(new ParameterTask(k, (TwoMomentsStatistic) statistic, rand.nextLong()));
+    }
+    invokeAll(parameterTasks);
+
+    // labels
+    List<LabelTask> labelTasks = new ArrayList<LabelTask>();
+    for (int t = 0; t < nTasks; t++)
+      labelTasks.add(new LabelTask(t, rand.nextLong()));
+    invokeAll(labelTasks);
+
+    writeLabels();
+  }
+
+  /**
+   * Stops the threads used by this sampler.
+   */
+  public void shutdown()
+  {
+    pool.shutdown();
+  }
+
+  /**
+   *
+   * @return The number of sticks instantiated in the last round
+   */
+  public int nSticks()
+  {
+    return nSticks;
+  }
+
+  /**
+   * Draws V_k given the number of customers at label k and beyond, and
+   * appends the stick.
+   *
+   * @return The length of the stick remaining after label k
+   */
+  private double addStick(RandomGenerator generator, double remaining, int count, int nBeyond)
+  {
+    final int k = nSticks;
+    ensureStickCapacity(k + 1);
+    final double discount = prior.discount();
+    final double
+      first  = nextGamma(generator, 1.0 - discount + count),
+      second = nextGamma(generator, prior.alpha0() + (k + 1) * discount + nBeyond),
+      v = first / (first + second);
+    weights[k] = remaining * v;
+    nSticks++;
+    return remaining * (1.0 - v);
+  }
+
+  private static double nextGamma(RandomGenerator generator, double shape)
+  {
+    return new GammaDistribution(generator, shape, 1.0, GammaDistribution.DEFAULT_INVERSE_ABSOLUTE_ACCURACY).sample();
+  }
+
+  /**
+   * Frees the labels of the tables which were destroyed since the last
+   * round, labels the new tables, and reads the label of each customer.
+   */
+  private void readLabels()
+  {
+    final List<ClusterId> tables = state.getAllClusterIds();
+    final Set<ClusterId> current = new HashSet<ClusterId>(tables);
+    for (int k = 0; k < tableOfLabel.size(); k++)
+    {
+      final ClusterId table = tableOfLabel.get(k);
+      if (table != null && !current.contains(table))
+      {
+        tableOfLabel.set(k, null);
+        labelOfTable.remove(table);
+      }
+    }
+    int free = 0;
+    for (ClusterId table : tables)
+      if (!labelOfTable.containsKey(table))
+      {
+        while (free < tableOfLabel.size() && tableOfLabel.get(free) != null)
+          free++;
+        if (free == tableOfLabel.size())
+          tableOfLabel.add(table);
+        else
+          tableOfLabel.set(free, table);
+        labelOfTable.put(table, free);
+      }
+    trimLabels();
+
+    final Set<Integer> allCustomers = state.getAllCustomers();
+    final int nCustomers = allCustomers.size();
+    if (customers.length != nCustomers)
+    {
+      customers = new Integer[nCustomers];
+      points = new SufficientStatistic[nCustomers];
+      labels = new int[nCustomers];
+      newLabels = new int[nCustomers];
+      slices = new double[nCustomers];
+    }
+    ensureStickCapacity(tableOfLabel.size());
+    Arrays.fill(counts, 0);
+    int i = 0;
+    for (Integer customer : allCustomers)
+    {
+      customers[i] = customer;
+      points[i] = state.getCustomerStatistic(customer);
+      labels[i] = labelOfTable.get(state.getClusterIdOfCustomer(customer));
+      counts[labels[i]]++;
+      i++;
+    }
+  }
+
+  /**
+   * Moves the customers whose label changed, keeping the tables of the
+   * labels which still have customers.
+   */
+  private void writeLabels()
+  {
+    List<Integer> moved = new ArrayList<Integer>();
+    for (int i = 0; i < customers.length; i++)
+      if (newLabels[i] != labels[i])
+      {
+        state.removeCustomer(customers[i]);
+        moved.add(i);
+      }
+    // the tables emptied by the removals were destroyed, so their ids may be reused
+    for (int k = 0; k < tableOfLabel.size(); k++)
+    {
+      final ClusterId table = tableOfLabel.get(k);
+      if (table != null && state.getTable(table) == null)
+      {
+        tableOfLabel.set(k, null);
+        labelOfTable.remove(table);
+      }
+    }
+    for (int i : moved)
+    {
+      final int label = newLabels[i];
+      while (tableOfLabel.size() <= label)
+        tableOfLabel.add(null);
+      final ClusterId table = tableOfLabel.get(label);
+      if (table == null)
+      {
+        final ClusterId created = state.addCustomerToNewTable(customers[i]);
+        tableOfLabel.set(label, created);
+        labelOfTable.put(created, label);
+      }
+      else
+        state.addCustomerToExistingTable(customers[i], table);
+    }
+    trimLabels();
+  }
+
+  private void trimLabels()
+  {
+    while (!tableOfLabel.isEmpty() && tableOfLabel.get(tableOfLabel.size() - 1) == null)
+      tableOfLabel.remove(tableOfLabel.size() - 1);
+  }
+
+  private void ensureStickCapacity(int size)
+  {
+    if (size <= counts.length)
+      return;
+    final int newSize = Math.max(size, 2 * counts.length);
+    counts = Arrays.copyOf(counts, newSize);
+    weights = Arrays.copyOf(weights, newSize);
+    densities = Arrays.copyOf(densities, newSize);
+  }
+
+  private <T> void invokeAll(List<? extends Callable<T>> tasks)
+  {
+    try
+    {
+      List<Future<T>> futures = pool.invokeAll(tasks);
+      for (Future<T> future : futures)
+        future.get();
+    }
+    catch (InterruptedException e)
+    {
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e)
+    {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Draws the slice variables of a block of customers, and sums their
+   * statistics by label.
+   */
+  private class SliceTask implements Callable<Object>
+  {
+    private final int block;
+    private final long seed;
+    private final SufficientStatistic [] statistics;
+    private double minSlice = 1.0;
+
+    private SliceTask(int block, int nLabels, long seed)
+    {
+      this.block = block;
+      this.seed = seed;
+      this.statistics = new SufficientStatistic[nLabels];
+    }
+
+    @Override
+    public Object call()
+    {
+      final Random rand = new Random(seed);
+      final int end = Math.min(customers.length, (block + 1) * CUSTOMERS_PER_TASK);
+      for (int i = block * CUSTOMERS_PER_TASK; i < end; i++)
+      {
+        final int label = labels[i];
+        // in (0, w], so that the extension of the sticks terminates
+        final double slice = (1.0 - rand.nextDouble()) * weights[label];
+        slices[i] = slice;
+        minSlice = Math.min(minSlice, slice);
+        if (statistics[label] == null)
+          statistics[label] = points[i].copy();
+        else
+          statistics[label].plusEqual(points[i]);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Draws the parameters of one table from the NIW posterior given
+   * the statistic of its customers (null for the prior).
+   */
+  private class ParameterTask implements Callable<Object>
+  {
+    private final int label;
+    private final TwoMomentsStatistic statistic;
+    private final long seed;
+
+    private ParameterTask(int label, TwoMomentsStatistic statistic, long seed)
+    {
+      this.label = label;
+      this.statistic = statistic;
+      this.seed = seed;
+    }
+
+    @Override
+    public Object call()
+    {
+      final NIWHyperParameter posterior;
+      if (statistic == null)
+        posterior = hp;
+      else
+      {
+        // NIWs.nextNIW() uses nu delta as the scale of the inverse Wishart,
+        // while the scatter matrix of NIWCholeskyPosterior is that scale
+        final NIWCholeskyPosterior updated = NIWCholeskyPosterior.fromData(hp, statistic);
+        final int dim = updated.dim();
+        final SimpleMatrix mean = new SimpleMatrix(dim, 1), delta = new SimpleMatrix(dim, dim);
+        for (int i = 0; i < dim; i++)
+        {
+          mean.set(i, updated.mean(i));
+          for (int j = 0; j <= i; j++)
+          {
+            double sum = 0.0;
+            for (int m = 0; m <= j; m++)
+              sum += updated.cholesky(i, m) * updated.cholesky(j, m);
+            delta.set(i, j, sum / updated.nu());
+            delta.set(j, i, sum / updated.nu());
+          }
+        }
+        posterior = new NIWHyperParameter(updated.kappa(), mean, updated.nu(), delta);
+      }
+      densities[label] = new MVNDensity(NIWs.nextNIW(new Random(seed), posterior));
+      return null;
+    }
+  }
+
+  /**
+   * Samples the labels of a block of customers.
+   */
+  private class LabelTask implements Callable<Object>
+  {
+    private final int block;
+    private final long seed;
+
+    private LabelTask(int block, long seed)
+    {
+      this.block = block;
+      this.seed = seed;
+    }
+
+    @Override
+    public Object call()
+    {
+      final Random rand = new Random(seed);
+      final double [] buffer = new double[hp.dim()];
+      final double [] logWeights = new double[nSticks];
+      final int [] candidates = new int[nSticks];
+      final int end = Math.min(customers.length, (block + 1) * CUSTOMERS_PER_TASK);
+      for (int i = block * CUSTOMERS_PER_TASK; i < end; i++)
+      {
+        final TwoMomentsStatistic point = (TwoMomentsStatistic) points[i];
+        int nCandidates = 0;
+        for (int k = 0; k < nSticks; k++)
+          if (weights[k] >= slices[i])
+          {
+            candidates[nCandidates] = k;
+            logWeights[nCandidates] = densities[k].logDensity(point, buffer);
+            nCandidates++;
+          }
+        newLabels[i] = candidates[GibbsSweep.sampleNormalizedInPlace(rand, logWeights, nCandidates)];
+      }
+      return null;
+    }
+  }
+}
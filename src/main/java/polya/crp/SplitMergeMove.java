@@ -0,0 +1,387 @@
+package polya.crp;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import polya.crp.utils.ClusterId;
+import polya.parametric.CollapsedConjugateModel;
+import polya.parametric.HyperParameter;
+import polya.parametric.Parametrics;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.NIWCholeskyPosterior;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.TwoMomentsStatistic;
+
+
+/**
+ * The split-merge MH move of Jain and Neal (2004), for conjugate models,
+ * which can move many customers at once, complementing the Gibbs samplers
+ * which move one customer at the time.
+ *
+ * Two distinct customers, the anchors, are picked at random. If they sit at
+ * the same table, a split of that table is proposed, otherwise the merge of
+ * their two tables. The other customers of the tables involved are first
+ * assigned at random to the table of one of the anchors (the launch state),
+ * then reassigned by nIntermediateScans restricted Gibbs scans, where each
+ * customer can only move between the two anchors' tables. A split is
+ * proposed by one more restricted Gibbs scan from the launch state; the
+ * probability of the reverse of a merge is the probability that such a scan
+ * recovers the current split.
+ *
+ * The statistics of the two candidate tables are kept aside from the restaurant
+ * and updated with SufficientStatistic.plusEqual() and minusEqual(), so that
+ * the restaurant is only modified when the proposal is accepted. For NIW
+ * hyper-parameters, the predictives are computed with NIWCholeskyPosterior,
+ * with O(dim^2) updates. Each move takes a time linear in the number of
+ * customers of the tables involved.
+ *
+ * See: Jain, S. and Neal, R. M. (2004) A split-merge Markov chain Monte Carlo
+ * procedure for the Dirichlet process mixture model. JCGS 13, 158-182.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class SplitMergeMove
+{
+  private final CRPState state;
+  private final HyperParameter hp;
+  private final CollapsedConjugateModel model;
+  private final PYPrior prior;
+  private final BlockLogFactors blockLogFactors = new BlockLogFactors();
+
+  /**
+   * See setNIntermediateScans()
+   */
+  private int nIntermediateScans = 5;
+
+  /**
+   * See setInverseTemperature()
+   */
+  private double inverseTemperature = 1.0;
+
+  /**
+   * The customers of the tables involved, other than the anchors.
+   */
+  private Integer [] members = new Integer[16];
+  private SufficientStatistic [] points = new SufficientStatistic[16];
+  private int nMembers = 0;
+
+  /**
+   * Whether each member is with the second anchor, in the current state of
+   * the restaurant (original) and in the proposal (assignment).
+   */
+  private boolean [] original = new boolean[16], assignment = new boolean[16];
+
+  private final Component first, second, scratch;
+
+  private int nSplitsProposed = 0, nSplitsAccepted = 0, nMergesProposed = 0, nMergesAccepted = 0;
+
+  /**
+   *
+   * @param state
+   * @param hp
+   * @param model
+   * @param prior
+   */
+  public SplitMergeMove(
+      CRPState state,
+      HyperParameter hp,
+      CollapsedConjugateModel model,
+      PYPrior prior)
+  {
+    this.state = state;
+    this.hp = hp;
+    this.model = model;
+    this.prior = prior;
+    this.first = new Component();
+    this.second = new Component();
+    this.scratch = new Component();
+  }
+
+  /**
+   *
+   * @param nIntermediateScans Number of restricted Gibbs scans used to build
+   *   the launch state, non-negative, 5 by default
+   */
+  public void setNIntermediateScans(int nIntermediateScans)
+  {
+    if (nIntermediateScans < 0)
+      throw new RuntimeException("The number of intermediate scans should be non-negative, got: " + nIntermediateScans);
+    this.nIntermediateScans = nIntermediateScans;
+  }
+
+  /**
+   * The collapsed likelihood is raised to this power in the acceptance
+   * ratio, to sample from a tempered posterior (see
+   * CompleteState.setInverseTemperature()).
+   *
+   * @param inverseTemperature In (0, 1], 1 for the posterior
+   */
+  public void setInverseTemperature(double inverseTemperature)
+  {
+    if (!(inverseTemperature > 0.0 && inverseTemperature <= 1.0))
+      throw new RuntimeException("The inverse temperature should be in (0, 1], got: " + inverseTemperature);
+    this.inverseTemperature = inverseTemperature;
+  }
+
+  /**
+   * Performs one split or merge proposal, accepted or rejected by MH.
+   *
+   * @param rand
+   * @param customers The customers of the restaurant, from which the anchors are picked
+   * @return Whether the proposal was accepted
+   */
+  public boolean sample(Random rand, List<Integer> customers)
+  {
+    if (customers.size() < 2)
+      return false;
+    final int firstIndex = rand.nextInt(customers.size());
+    int secondIndex = rand.nextInt(customers.size() - 1);
+    if (secondIndex >= firstIndex)
+      secondIndex++;
+    final Integer firstAnchor = customers.get(firstIndex), secondAnchor = customers.get(secondIndex);
+    final ClusterId firstTable = state.getClusterIdOfCustomer(firstAnchor);
+    final ClusterId secondTable = state.getClusterIdOfCustomer(secondAnchor);
+    final boolean split = firstTable.equals(secondTable);
+
+    nMembers = 0;
+    for (Integer customer : state.getTable(firstTable))
+      if (!customer.equals(firstAnchor) && !customer.equals(secondAnchor))
+        addMember(customer, false);
+    if (!split)
+      for (Integer customer : state.getTable(secondTable))
+        if (!customer.equals(secondAnchor))
+          addMember(customer, true);
+
+    // launch state
+    final SufficientStatistic firstPoint = state.getCustomerStatistic(firstAnchor);
+    final SufficientStatistic secondPoint = state.getCustomerStatistic(secondAnchor);
+    first.clear();
+    first.add(firstPoint);
+    second.clear();
+    second.add(secondPoint);
+    for (int i = 0; i < nMembers; i++)
+    {
+      assignment[i] = rand.nextBoolean();
+      (assignment[i] ? second : first).add(points[i]);
+    }
+    for (int scan = 0; scan < nIntermediateScans; scan++)
+      restrictedScan(rand, false);
+
+    if (split)
+    {
+      nSplitsProposed++;
+      final double logProposal = restrictedScan(rand, false);
+      final double logRatio = splitLogRatio(state.nTables(), firstPoint, secondPoint) - logProposal;
+      if (!accept(rand, logRatio))
+        return false;
+      state.removeCustomer(secondAnchor);
+      final ClusterId newTable = state.addCustomerToNewTable(secondAnchor);
+      for (int i = 0; i < nMembers; i++)
+        if (assignment[i])
+        {
+          state.removeCustomer(members[i]);
+          state.addCustomerToExistingTable(members[i], newTable);
+        }
+      nSplitsAccepted++;
+      return true;
+    }
+    else
+    {
+      nMergesProposed++;
+      // probability that a split proposal from this launch state recovers the current seating
+      final double logProposal = restrictedScan(rand, true);
+      final double logRatio = logProposal - splitLogRatio(state.nTables() - 1, firstPoint, secondPoint);
+      if (!accept(rand, logRatio))
+        return false;
+      state.removeCustomer(secondAnchor);
+      state.addCustomerToExistingTable(secondAnchor, firstTable);
+      for (int i = 0; i < nMembers; i++)
+        if (original[i])
+        {
+          state.removeCustomer(members[i]);
+          state.addCustomerToExistingTable(members[i], firstTable);
+        }
+      nMergesAccepted++;
+      return true;
+    }
+  }
+
+  private static boolean accept(Random rand, double logRatio)
+  {
+    return logRatio >= 0.0 || rand.nextDouble() < Math.exp(logRatio);
+  }
+
+  /**
+   * One restricted Gibbs scan, reassigning each member to the table of
+   * one of the anchors.
+   *
+   * @param rand
+   * @param toOriginal If true, the members are not sampled but moved to
+   *   their table in the restaurant
+   * @return The log probability of the transition
+   */
+  private double restrictedScan(Random rand, boolean toOriginal)
+  {
+    final double discount = prior.discount();
+    double result = 0.0;
+    for (int i = 0; i < nMembers; i++)
+    {
+      final SufficientStatistic point = points[i];
+      (assignment[i] ? second : first).remove(point);
+      final double
+        logFirst = Math.log(first.size - discount) + first.logPredictive(point),
+        logSecond = Math.log(second.size - discount) + second.logPredictive(point),
+        max = Math.max(logFirst, logSecond),
+        logNorm = max + Math.log(Math.exp(logFirst - max) + Math.exp(logSecond - max));
+      final boolean withSecond = toOriginal ?
+          original[i] :
+          rand.nextDouble() < Math.exp(logSecond - logNorm);
+      assignment[i] = withSecond;
+      result += (withSecond ? logSecond : logFirst) - logNorm;
+      (withSecond ? second : first).add(point);
+    }
+    return result;
+  }
+
+  /**
+   * Log of the ratio of the posterior of the split described by the
+   * current assignment to the posterior of the merged table.
+   *
+   * @param nMergedTables The number of tables when the two tables are merged
+   */
+  private double splitLogRatio(int nMergedTables, SufficientStatistic firstPoint, SufficientStatistic secondPoint)
+  {
+    final double discount = prior.discount();
+    final double logPriorRatio =
+      Math.log(prior.alpha0() + nMergedTables * discount) +
+      blockLogFactors.blockLogFactor(discount, first.size) +
+      blockLogFactors.blockLogFactor(discount, second.size) -
+      blockLogFactors.blockLogFactor(discount, first.size + second.size);
+    return logPriorRatio + inverseTemperature *
+      (logMarginal(firstPoint, false) + logMarginal(secondPoint, true) - logMarginal(firstPoint, secondPoint));
+  }
+
+  /**
+   * Log marginal of the anchor and of the members with the provided assignment,
+   * as a product of predictives.
+   */
+  private double logMarginal(SufficientStatistic anchor, boolean withSecond)
+  {
+    scratch.clear();
+    double result = scratch.logPredictive(anchor);
+    scratch.add(anchor);
+    for (int i = 0; i < nMembers; i++)
+      if (assignment[i] == withSecond)
+      {
+        result += scratch.logPredictive(points[i]);
+        scratch.add(points[i]);
+      }
+    return result;
+  }
+
+  /**
+   * Log marginal of the anchors and of all the members.
+   */
+  private double logMarginal(SufficientStatistic firstPoint, SufficientStatistic secondPoint)
+  {
+    scratch.clear();
+    double result = scratch.logPredictive(firstPoint);
+    scratch.add(firstPoint);
+    result += scratch.logPredictive(secondPoint);
+    scratch.add(secondPoint);
+    for (int i = 0; i < nMembers; i++)
+    {
+      result += scratch.logPredictive(points[i]);
+      scratch.add(points[i]);
+    }
+    return result;
+  }
+
+  private void addMember(Integer customer, boolean withSecond)
+  {
+    if (nMembers == members.length)
+    {
+      final int newSize = 2 * members.length;
+      members = Arrays.copyOf(members, newSize);
+      points = Arrays.copyOf(points, newSize);
+      original = Arrays.copyOf(original, newSize);
+      assignment = Arrays.copyOf(assignment, newSize);
+    }
+    members[nMembers] = customer;
+    points[nMembers] = state.getCustomerStatistic(customer);
+    original[nMembers] = withSecond;
+    nMembers++;
+  }
+
+  /**
+   *
+   * @return Fraction of the proposed splits which were accepted
+   */
+  public double splitAcceptanceRate()
+  {
+    return ((double) nSplitsAccepted) / nSplitsProposed;
+  }
+
+  /**
+   *
+   * @return Fraction of the proposed merges which were accepted
+   */
+  public double mergeAcceptanceRate()
+  {
+    return ((double) nMergesAccepted) / nMergesProposed;
+  }
+
+  /**
+   * The statistic of a candidate table, with its NIW posterior when
+   * the hyper-parameters are NIW.
+   */
+  private class Component
+  {
+    private int size = 0;
+    private SufficientStatistic statistic = null;
+    private final NIWCholeskyPosterior posterior;
+
+    private Component()
+    {
+      posterior = hp instanceof NIWHyperParameter ?
+          NIWCholeskyPosterior.fromPrior((NIWHyperParameter) hp) :
+          null;
+    }
+
+    private void clear()
+    {
+      size = 0;
+      statistic = null;
+      if (posterior != null)
+        posterior.setToPrior((NIWHyperParameter) hp);
+    }
+
+    private void add(SufficientStatistic point)
+    {
+      size++;
+      if (statistic == null)
+        statistic = point.copy();
+      else
+        statistic.plusEqual(point);
+      if (posterior != null)
+        posterior.add((TwoMomentsStatistic) point);
+    }
+
+    private void remove(SufficientStatistic point)
+    {
+      size--;
+      statistic.minusEqual(point);
+      if (posterior != null && !posterior.remove((TwoMomentsStatistic) point))
+        posterior.setToPosterior((NIWHyperParameter) hp, (TwoMomentsStatistic) statistic);
+    }
+
+    private double logPredictive(SufficientStatistic point)
+    {
+      if (posterior != null)
+        return posterior.logPredictive((TwoMomentsStatistic) point);
+      return Parametrics.logSinglePointPredictive(model, hp, point, size == 0 ? null : statistic);
+    }
+  }
+}
@@ -0,0 +1,251 @@
+package polya.crp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import polya.crp.utils.ClusterId;
+import polya.parametric.CollapsedConjugateModel;
+import polya.parametric.HyperParameter;
+import polya.parametric.SufficientStatistic;
+
+
+/**
+ * Resamples the seating arrangement in parallel, using the auxiliary variable
+ * representation of the Dirichlet process of Williamson, Dubey and Xing (2013)
+ * and Lovell, Adams and Mansinghka (2012).
+ *
+ * A DP with concentration alpha0 can be written as a mixture of K DPs with
+ * concentration alpha0/K, mixed with Dirichlet(alpha0/K, ..., alpha0/K) weights.
+ * Introducing the index of the mixture component (the "supercluster") of each
+ * table as an auxiliary variable, we get:
+ *
+ * - given the superclusters, the customers of each supercluster follow an
+ *   independent CRP with concentration alpha0/K. They can therefore be resampled
+ *   in parallel, each worker running Gibbs on its own local restaurant.
+ * - given the seating arrangement, the superclusters of the tables are
+ *   independent and uniform over the K workers (the Dirichlet-multinomial
+ *   and the K CRP normalizations cancel out exactly). So the tables are
+ *   reshuffled between workers by sampling this distribution directly, a
+ *   Gibbs step which is always accepted.
+ *
+ * Both steps leave the posterior over the seating arrangement invariant, so the
+ * sampler is exact. This only holds for discount zero; for PY priors with a
+ * positive discount, use the sequential samplers.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class SuperclusterSampler
+{
+  private final CRPState state;
+  private final HyperParameter hp;
+  private final CollapsedConjugateModel model;
+  private final PYPrior prior;
+  private final int nWorkers;
+  private final ForkJoinPool pool;
+
+  /**
+   * See setNLocalSweeps()
+   */
+  private int nLocalSweeps = 1;
+
+  /**
+   *
+   * @param state The global seating arrangement, modified by sampleOneRound()
+   * @param hp
+   * @param model
+   * @param prior Should have a discount of zero when sampleOneRound() is called
+   * @param nWorkers Number of superclusters, each resampled by one thread
+   */
+  public SuperclusterSampler(
+      CRPState state,
+      HyperParameter hp,
+      CollapsedConjugateModel model,
+      PYPrior prior,
+      int nWorkers)
+  {
+    if (nWorkers < 1)
+      throw new RuntimeException();
+    this.state = state;
+    this.hp = hp;
+    this.model = model;
+    this.prior = prior;
+    this.nWorkers = nWorkers;
+    this.pool = new ForkJoinPool(nWorkers);
+  }
+
+  /**
+   *
+   * @param nLocalSweeps Number of Gibbs sweeps performed by each worker
+   *   between two reshuffling of the tables, at least 1, 1 by default
+   */
+  public void setNLocalSweeps(int nLocalSweeps)
+  {
+    if (nLocalSweeps < 1)
+      throw new RuntimeException("The number of local sweeps should be at least 1, got: " + nLocalSweeps);
+    this.nLocalSweeps = nLocalSweeps;
+  }
+
+  /**
+   * Reshuffles the tables between workers, resamples the seating within
+   * each worker in parallel, then writes the result back into the global
+   * seating arrangement.
+   *
+   * @param rand
+   */
+  public void sampleOneRound(Random rand)
+  {
+    if (prior.discount() != 0.0)
+      throw new RuntimeException("The supercluster construction is only exact for a discount of zero.");
+
+    // supercluster of each table
+    List<List<ClusterId>> tablesOfWorkers = new ArrayList<List<ClusterId>>();
+    for (int w = 0; w < nWorkers; w++)
+      tablesOfWorkers.add(new ArrayList<ClusterId>());
+    for (ClusterId table : state.getAllClusterIds())
+      tablesOfWorkers.get(rand.nextInt(nWorkers)).add(table);
+
+    // local Gibbs, in parallel
+    final PYPrior localPrior = new PYPrior(prior.alpha0() / nWorkers, 0.0);
+    List<Worker> workers = new ArrayList<Worker>();
+    for (int w = 0; w < nWorkers; w++)
+      workers.add(new Worker(tablesOfWorkers.get(w), localPrior, new Random(rand.nextLong())));
+    try
+    {
+      List<Future<Worker>> futures = pool.invokeAll(workers);
+      for (Future<Worker> future : futures)
+        future.get();
+    }
+    catch (InterruptedException e)
+    {
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e)
+    {
+      throw new RuntimeException(e.getCause());
+    }
+
+    for (Worker worker : workers)
+      worker.merge();
+  }
+
+  /**
+   * Stops the threads used by this sampler.
+   */
+  public void shutdown()
+  {
+    pool.shutdown();
+  }
+
+  private class Worker implements Callable<Worker>
+  {
+    private final PYPrior localPrior;
+    private final Random rand;
+
+    /**
+     * Local customers are 0, 1, ..., m - 1
+     */
+    private final List<Integer> localToGlobal = new ArrayList<Integer>();
+    private final Map<Integer,SufficientStatistic> data = new HashMap<Integer,SufficientStatistic>();
+    private final List<ClusterId> localOrigins;
+    private final int [] tableSizes;
+    private CRPState local;
+
+    /**
+     * Reads all the information needed from the global restaurant, so that
+     * call() does not access it.
+     */
+    private Worker(List<ClusterId> globalTables, PYPrior localPrior, Random rand)
+    {
+      this.localPrior = localPrior;
+      this.rand = rand;
+      this.localOrigins = globalTables;
+      this.tableSizes = new int[globalTables.size()];
+      for (int t = 0; t < globalTables.size(); t++)
+      {
+        Set<Integer> table = state.getTable(globalTables.get(t));
+        tableSizes[t] = table.size();
+        for (Integer customer : table)
+        {
+          data.put(localToGlobal.size(), state.getCustomerStatistic(customer));
+          localToGlobal.add(customer);
+        }
+      }
+    }
+
+    @Override
+    public Worker call()
+    {
+      local = new DenseCRPState(data);
+
+      // seat as in the global restaurant; the local table created for
+      // localOrigins.get(t) has id t
+      int i = 0;
+      for (int t = 0; t < tableSizes.length; t++)
+      {
+        ClusterId localTable = local.addCustomerToNewTable(i++);
+        if (localTable.id() != t)
+          throw new RuntimeException();
+        for (int j = 1; j < tableSizes[t]; j++)
+          local.addCustomerToExistingTable(i++, localTable);
+      }
+
+      GibbsSweep sweep = new GibbsSweep(local, hp, model, localPrior);
+      List<Integer> order = new ArrayList<Integer>(data.keySet());
+      for (int s = 0; s < nLocalSweeps; s++)
+      {
+        Collections.shuffle(order, rand);
+        sweep.sweep(rand, order);
+      }
+      sweep.detach();
+      return this;
+    }
+
+    /**
+     * Moves the customers whose table changed in the global restaurant,
+     * keeping the global tables which still have customers.
+     */
+    private void merge()
+    {
+      // target global table of each local table, indexed by local id
+      Map<ClusterId,ClusterId> targets = new HashMap<ClusterId,ClusterId>();
+      for (ClusterId localTable : local.getAllClusterIds())
+        if (localTable.id() < localOrigins.size())
+          targets.put(localTable, localOrigins.get(localTable.id()));
+
+      List<Integer> moved = new ArrayList<Integer>();
+      for (int i = 0; i < localToGlobal.size(); i++)
+      {
+        final Integer customer = localToGlobal.get(i);
+        final ClusterId target = targets.get(local.getClusterIdOfCustomer(i));
+        if (target == null || !target.equals(state.getClusterIdOfCustomer(customer)))
+        {
+          state.removeCustomer(customer);
+          moved.add(i);
+        }
+      }
+      // the targets emptied by the removals were destroyed, so their ids may be reused
+      for (ClusterId localTable : new ArrayList<ClusterId>(targets.keySet()))
+        if (state.getTable(targets.get(localTable)) == null)
+          targets.remove(localTable);
+      for (int i : moved)
+      {
+        final ClusterId localTable = local.getClusterIdOfCustomer(i);
+        final ClusterId target = targets.get(localTable);
+        if (target == null)
+          targets.put(localTable, state.addCustomerToNewTable(localToGlobal.get(i)));
+        else
+          state.addCustomerToExistingTable(localToGlobal.get(i), target);
+      }
+    }
+  }
+}
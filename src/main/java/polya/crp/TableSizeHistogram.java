@@ -0,0 +1,144 @@
+package polya.crp;
+
+import java.util.Arrays;
+
+
+/**
+ * Number of tables of each size in a restaurant, maintained by CRPState as
+ * customers are seated and removed (see CRPState.tableSizeHistogram()).
+ *
+ * The sizes with at least one table are also kept in a compact list, so
+ * that quantities depending only on the table sizes, such as the PY prior
+ * of the seating arrangement, can be computed in O(number of distinct
+ * table sizes) rather than O(number of tables).
+ *
+ * Updates are constant time and do not allocate, except when a table larger
+ * than all the previous ones is created.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class TableSizeHistogram
+{
+  private static final int NONE = -1;
+
+  /**
+   * Number of tables of each size, indexed by size
+   */
+  private int [] counts = new int[INITIAL_CAPACITY];
+
+  /**
+   * The sizes with a positive count, in no particular order
+   */
+  private int [] distinctSizes = new int[INITIAL_CAPACITY];
+  private int nDistinctSizes = 0;
+
+  /**
+   * Index of each size in distinctSizes, NONE if its count is zero
+   */
+  private int [] positions = new int[INITIAL_CAPACITY];
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  TableSizeHistogram()
+  {
+    Arrays.fill(positions, NONE);
+  }
+
+  /**
+   *
+   * @param size
+   * @return The number of tables with exactly size customers
+   */
+  public int nTablesOfSize(int size)
+  {
+    return size < counts.length ? counts[size] : 0;
+  }
+
+  /**
+   *
+   * @return The number of different sizes among the tables
+   */
+  public int nDistinctSizes()
+  {
+    return nDistinctSizes;
+  }
+
+  /**
+   * The sizes are listed in no particular order; the order changes as
+   * tables are modified.
+   *
+   * @param i An index in [0, nDistinctSizes())
+   * @return One of the sizes of the tables
+   */
+  public int distinctSize(int i)
+  {
+    if (i >= nDistinctSizes)
+      throw new IndexOutOfBoundsException();
+    return distinctSizes[i];
+  }
+
+  /**
+   * Makes this histogram equal to other.
+   * 
+   * @param other
+   */
+  void setTo(TableSizeHistogram other)
+  {
+    counts = other.counts.clone();
+    distinctSizes = other.distinctSizes.clone();
+    positions = other.positions.clone();
+    nDistinctSizes = other.nDistinctSizes;
+  }
+
+  /**
+   * Records that a table went from oldSize to newSize customers, where a
+   * size of zero stands for a table that does not exist.
+   *
+   * @param oldSize
+   * @param newSize
+   */
+  void tableResized(int oldSize, int newSize)
+  {
+    if (oldSize > 0)
+      decrement(oldSize);
+    if (newSize > 0)
+      increment(newSize);
+  }
+
+  private void increment(int size)
+  {
+    if (size >= counts.length)
+      grow(size);
+    if (counts[size]++ == 0)
+    {
+      positions[size] = nDistinctSizes;
+      distinctSizes[nDistinctSizes++] = size;
+    }
+  }
+
+  private void decrement(int size)
+  {
+    if (size >= counts.length || counts[size] == 0)
+      throw new RuntimeException("No table of size " + size);
+    if (--counts[size] == 0)
+    {
+      // move the last distinct size in the freed position
+      final int position = positions[size];
+      final int last = distinctSizes[--nDistinctSizes];
+      distinctSizes[position] = last;
+      positions[last] = position;
+      positions[size] = NONE;
+    }
+  }
+
+  private void grow(int size)
+  {
+    final int oldLength = counts.length;
+    final int newLength = Math.max(size + 1, 2 * oldLength);
+    counts = Arrays.copyOf(counts, newLength);
+    distinctSizes = Arrays.copyOf(distinctSizes, newLength);
+    positions = Arrays.copyOf(positions, newLength);
+    Arrays.fill(positions, oldLength, newLength, NONE);
+  }
+}
@@ -0,0 +1,85 @@
+package polya.crp;
+
+import java.io.File;
+
+import polya.parametric.normal.StudentTMixture;
+
+import bayonet.coda.CodaParser;
+import bayonet.coda.SimpleCodaPlots;
+import bayonet.rplot.PlotContour;
+import briefj.OutputManager;
+
+import static briefj.Results.*;
+
+
+/**
+ * Same as CRPMain, but with parallel tempering (see ParallelTempering),
+ * by default with one temperature per core.
+ *
+ * Only the samples of the cold chain are written in the CODA files and
+ * averaged in the predictive. The final temperatures and swap acceptance
+ * rates are written in ladder.csv.
+ *
+ * Usage: TemperingMain [number of temperatures] [number of threads]
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class TemperingMain
+{
+  private static int nSweeps = 10000, paramThinPeriod = 10, burnIn = 1000, predThinPeriod = 1000;
+
+  public static void main(String [] args)
+  {
+    final int nThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    final int nTemperatures = args.length > 0 ? Integer.parseInt(args[0]) : nThreads;
+
+    ParallelTempering tempering = new ParallelTempering(new MultiChainRunner.StateFactory() {
+      @Override
+      public CompleteState newState()
+      {
+        CompleteState result = CompleteState.standardInit(new File("data/circle.csv"));
+        CRPMain.initMHMoves(result);
+        return result;
+      }
+    }, nTemperatures, 2.0, 1, nThreads);
+    tempering.setNAdaptationRounds(burnIn);
+
+    OutputManager output = new OutputManager();
+    File csvSamples = new File(getResultFolder(), "samples-csv");
+    output.setOutputFolder(csvSamples);
+    StudentTMixture averagedPredictive = new StudentTMixture(tempering.coldState().hp.dim());
+    for (int mcmcSweep = 0; mcmcSweep < nSweeps; mcmcSweep++)
+    {
+      tempering.sampleOneRound();
+      final CompleteState cold = tempering.coldState();
+      if (mcmcSweep % paramThinPeriod == 0 && mcmcSweep > burnIn)
+        for (String key : cold.realValuedStatistics().keySet())
+          output.printWrite(key, "mcmcIter", mcmcSweep, key, cold.realValuedStatistics().get(key).getValue());
+      if (mcmcSweep % predThinPeriod == 0 && mcmcSweep > burnIn)
+        averagedPredictive.addAll(0.0, cold.logPredictive());
+    }
+    tempering.shutdown();
+    output.close();
+
+    output = new OutputManager();
+    output.setOutputFolder(getResultFolder());
+    for (int k = 0; k < tempering.nTemperatures(); k++)
+      output.printWrite("ladder",
+          "index", k,
+          "inverseTemperature", tempering.inverseTemperature(k),
+          "swapAcceptanceRate", k < tempering.nTemperatures() - 1 ? tempering.swapAcceptanceRate(k) : Double.NaN);
+    output.close();
+
+    File
+      indexFile = new File(getResultFolder(), "CODAindex.txt"),
+      chainFile = new File(getResultFolder(), "CODAchain1.txt");
+    CodaParser.CSVToCoda(indexFile, chainFile, csvSamples);
+    SimpleCodaPlots codaPlots = new SimpleCodaPlots(chainFile, indexFile);
+    codaPlots.toPDF(new File(getResultFolder(), "codaPlots.pdf"));
+
+    PlotContour pc = PlotContour.fromFunction(averagedPredictive.tabulate(15, 301, nThreads));
+    pc.centerToZero(15);
+    pc.toPDF(new File(getResultFolder(), "predictive.pdf"));
+  }
+}
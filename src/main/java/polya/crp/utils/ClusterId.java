@@ -19,6 +19,15 @@ public class ClusterId implements Comparable<ClusterId>
   {
     this.id = id;
   }
+  
+  /**
+   * 
+   * @return The integer backing this id
+   */
+  public int id()
+  {
+    return id;
+  }
 
   @Override
   public int hashCode()
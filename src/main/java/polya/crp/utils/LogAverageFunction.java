@@ -1,13 +1,11 @@
 package polya.crp.utils;
 
-import java.util.List;
+import java.util.Arrays;
 
 import org.apache.commons.math3.analysis.MultivariateFunction;
 
 import bayonet.math.NumericalUtils;
 
-import com.google.common.collect.Lists;
-
 
 /**
  * Given functions logF1, logF2, .. and
@@ -17,13 +15,17 @@ import com.google.common.collect.Lists;
  * 
  * log(exp(logW1) exp(logF1) + exp(logW2) exp(logF2) + ... )
  * 
+ * The weights are kept in a primitive array. For mixtures of NIW 
+ * predictives, StudentTMixture is faster.
+ * 
  * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
  *
  */
 public class LogAverageFunction implements MultivariateFunction
 {
-  private final List<Double> logWeights = Lists.newArrayList();
-  private final List<MultivariateFunction> functions = Lists.newArrayList();
+  private double [] logWeights = new double[16];
+  private MultivariateFunction [] functions = new MultivariateFunction[16];
+  private int size = 0;
   
   /**
    * 
@@ -32,8 +34,14 @@ public class LogAverageFunction implements MultivariateFunction
    */
   public void addFunction(double logWeight, MultivariateFunction function)
   {
-    logWeights.add(logWeight);
-    functions.add(function);
+    if (size == logWeights.length)
+    {
+      logWeights = Arrays.copyOf(logWeights, 2 * size);
+      functions = Arrays.copyOf(functions, 2 * size);
+    }
+    logWeights[size] = logWeight;
+    functions[size] = function;
+    size++;
   }
 
   /**
@@ -43,10 +51,10 @@ public class LogAverageFunction implements MultivariateFunction
   public double value(double[] point)
   {
     double sum = Double.NEGATIVE_INFINITY;
-    for (int i =0; i < logWeights.size(); i++)
+    for (int i =0; i < size; i++)
     {
-      double lw = logWeights.get(i);
-      double pred = functions.get(i).value(point);
+      double lw = logWeights[i];
+      double pred = functions[i].value(point);
       sum = NumericalUtils.logAdd(sum, lw + pred);
     }
     return sum;
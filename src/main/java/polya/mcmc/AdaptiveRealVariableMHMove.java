@@ -0,0 +1,116 @@
+package polya.mcmc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Random;
+
+
+
+/**
+ * A random walk MH move for real random variables, whose scale is tuned
+ * during the first moves by the Robbins-Monro recursion
+ *
+ *   log(scale) += (n + 1)^(-0.6) (acceptance probability - target)
+ *
+ * then frozen, so that the samples collected afterwards are from the
+ * target distribution (see ProposalAdaptation). Optionally, the random
+ * walk is on the log of the variable, with the Jacobian added to the
+ * acceptance ratio, so that proposals stay positive and are scaled
+ * relatively to the current value.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class AdaptiveRealVariableMHMove extends RealVariableMHMove
+{
+  private final ProposalAdaptation adaptation;
+  private double logScale;
+  private long nSteps = 0;
+
+  public AdaptiveRealVariableMHMove(RealVariable variable,
+      Collection<? extends Factor> connectedFactors,
+      ProposalAdaptation adaptation)
+  {
+    super(variable, connectedFactors);
+    this.adaptation = adaptation;
+    this.logScale = Math.log(adaptation.initialScale);
+  }
+
+  @Override
+  public void sample(Random rand)
+  {
+    final RealVariable variable = variable();
+    final double current = variable.getValue();
+    final double logDensityBefore = computeLogUnnormalizedPotentials();
+    final double increment = Math.exp(logScale) * rand.nextGaussian();
+    double logRatio;
+    if (adaptation.logScale)
+    {
+      if (!(current > 0.0))
+        throw new RuntimeException("Proposals on the log scale require a positive variable, got: " + current);
+      variable.setValue(current * Math.exp(increment));
+      // Jacobian of x -> log(x)
+      logRatio = increment;
+    }
+    else
+    {
+      variable.setValue(current + increment);
+      logRatio = 0.0;
+    }
+    logRatio += computeLogUnnormalizedPotentials() - logDensityBefore;
+    // NaN when both densities are zero, e.g. when started out of the support
+    final double acceptance = Double.isNaN(logRatio) ? 0.0 : Math.min(1.0, Math.exp(logRatio));
+    acceptanceProbabilities.addValue(acceptance);
+    if (!(rand.nextDouble() < acceptance))
+      variable.setValue(current);
+    if (nSteps < adaptation.nAdaptationSteps)
+      logScale += Math.pow(nSteps + 1, -0.6) * (acceptance - adaptation.targetAcceptance);
+    nSteps++;
+  }
+
+  /**
+   *
+   * @return The current standard deviation of the proposal increments
+   */
+  public double scale()
+  {
+    return Math.exp(logScale);
+  }
+
+  /**
+   *
+   * @return Whether the scale is still being tuned
+   */
+  public boolean isAdapting()
+  {
+    return nSteps < adaptation.nAdaptationSteps;
+  }
+
+  /**
+   *
+   * @return Mean acceptance probability since this move was created
+   */
+  public double meanAcceptance()
+  {
+    return acceptanceProbabilities.getMean();
+  }
+
+  @Override
+  void writeState(DataOutput out) throws IOException
+  {
+    out.writeBoolean(true);
+    out.writeDouble(logScale);
+    out.writeLong(nSteps);
+  }
+
+  @Override
+  void readState(DataInput in) throws IOException
+  {
+    if (!in.readBoolean())
+      throw new RuntimeException("The state is not the one of an adaptive move.");
+    logScale = in.readDouble();
+    nSteps = in.readLong();
+  }
+}
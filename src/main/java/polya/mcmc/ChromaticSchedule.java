@@ -0,0 +1,144 @@
+package polya.mcmc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Sets;
+
+
+/**
+ * Groups MH moves into colors such that no two moves of the same color
+ * are connected to a common factor, so that the moves of one color can
+ * be performed concurrently: each one only modifies its own variable, and
+ * only reads factors that are not affected by the other variables of
+ * that color.
+ *
+ * The graph has one node per move, and an edge between two moves sharing
+ * at least one factor (compared by identity). It is colored greedily,
+ * considering the moves by decreasing degree.
+ *
+ * WARNING: as for the sequential moves, this relies on each move being
+ * provided all its connected factors.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class ChromaticSchedule
+{
+  private final List<List<RealVariableMHMove>> colors = new ArrayList<List<RealVariableMHMove>>();
+
+  /**
+   *
+   * @param moves
+   */
+  public ChromaticSchedule(List<RealVariableMHMove> moves)
+  {
+    // factor -> indices of the moves connected to it
+    Map<Factor,List<Integer>> factor2Moves = new IdentityHashMap<Factor,List<Integer>>();
+    for (int m = 0; m < moves.size(); m++)
+      for (Factor factor : moves.get(m).connectedFactors())
+      {
+        if (!factor2Moves.containsKey(factor))
+          factor2Moves.put(factor, new ArrayList<Integer>());
+        factor2Moves.get(factor).add(m);
+      }
+    final List<Set<Integer>> neighbors = new ArrayList<Set<Integer>>();
+    for (int m = 0; m < moves.size(); m++)
+    {
+      Set<Integer> current = Sets.newHashSet();
+      for (Factor factor : moves.get(m).connectedFactors())
+        current.addAll(factor2Moves.get(factor));
+      current.remove(m);
+      neighbors.add(current);
+    }
+
+    List<Integer> order = new ArrayList<Integer>();
+    for (int m = 0; m < moves.size(); m++)
+      order.add(m);
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer m1, Integer m2)
+      {
+        return neighbors.get(m2).size() - neighbors.get(m1).size();
+      }
+    });
+
+    int [] colorOfMove = new int[moves.size()];
+    for (int m : order)
+    {
+      Set<Integer> used = Sets.newHashSet();
+      for (int neighbor : neighbors.get(m))
+        if (colorOfMove[neighbor] > 0)
+          used.add(colorOfMove[neighbor]);
+      int color = 1;
+      while (used.contains(color))
+        color++;
+      colorOfMove[m] = color;
+      if (color > colors.size())
+        colors.add(new ArrayList<RealVariableMHMove>());
+      colors.get(color - 1).add(moves.get(m));
+    }
+  }
+
+  /**
+   *
+   * @return Number of groups of moves performed concurrently
+   */
+  public int nColors()
+  {
+    return colors.size();
+  }
+
+  /**
+   * Visits the colors in a random order; within each color, performs all the
+   * moves concurrently, each with its own random stream (seeded from rand, so
+   * that the result does not depend on the number of threads).
+   *
+   * @param rand
+   * @param pool
+   */
+  public void sampleOneRound(Random rand, ForkJoinPool pool)
+  {
+    List<List<RealVariableMHMove>> shuffled = new ArrayList<List<RealVariableMHMove>>(colors);
+    Collections.shuffle(shuffled, rand);
+    for (List<RealVariableMHMove> color : shuffled)
+    {
+      List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+      for (final RealVariableMHMove move : color)
+      {
+        final Random moveRandom = new Random(rand.nextLong());
+        tasks.add(new Callable<Object>() {
+          @Override
+          public Object call()
+          {
+            move.sample(moveRandom);
+            return null;
+          }
+        });
+      }
+      try
+      {
+        for (Future<Object> future : pool.invokeAll(tasks))
+          future.get();
+      }
+      catch (InterruptedException e)
+      {
+        throw new RuntimeException(e);
+      }
+      catch (ExecutionException e)
+      {
+        throw new RuntimeException(e.getCause());
+      }
+    }
+  }
+}
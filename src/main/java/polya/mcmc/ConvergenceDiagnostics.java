@@ -0,0 +1,79 @@
+package polya.mcmc;
+
+import java.util.List;
+
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+
+import com.beust.jcommander.internal.Lists;
+
+
+/**
+ * Diagnostics comparing several independent MCMC chains targeting the
+ * same distribution.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class ConvergenceDiagnostics
+{
+  /**
+   * The split potential scale reduction factor (R-hat) of Gelman et al.,
+   * Bayesian Data Analysis, 3rd edition, Section 11.4.
+   *
+   * Each chain is split in two halves, so that non-stationarity within
+   * a chain is also detected. Values close to 1 (say, below 1.1) are
+   * consistent with convergence; larger values indicate that the chains
+   * have not mixed yet.
+   *
+   * @param chains The samples of a real-valued statistic, one list per chain,
+   *   burn-in already removed
+   * @return The split R-hat, 1.0 if all the samples are equal, or
+   *   positive infinity if each half-chain is constant but they differ
+   */
+  public static double potentialScaleReduction(List<List<Double>> chains)
+  {
+    List<List<Double>> halves = splitChains(chains);
+    final int n = halves.get(0).size();
+    if (n < 2)
+      throw new RuntimeException("Need at least 4 samples per chain");
+
+    SummaryStatistics means = new SummaryStatistics(), variances = new SummaryStatistics();
+    for (List<Double> half : halves)
+    {
+      SummaryStatistics current = new SummaryStatistics();
+      for (double sample : half)
+        current.addValue(sample);
+      means.addValue(current.getMean());
+      variances.addValue(current.getVariance());
+    }
+    final double within = variances.getMean();
+    final double between = n * means.getVariance();
+    if (within == 0.0)
+      return between == 0.0 ? 1.0 : Double.POSITIVE_INFINITY;
+    final double pooled = (n - 1.0) / n * within + between / n;
+    return Math.sqrt(pooled / within);
+  }
+
+  /**
+   * Split each chain into two halves of equal length, keeping the last
+   * 2 floor(m/2) samples of each chain, where m is the length of the
+   * shortest chain.
+   */
+  private static List<List<Double>> splitChains(List<List<Double>> chains)
+  {
+    if (chains.size() < 1)
+      throw new RuntimeException();
+    int minLength = Integer.MAX_VALUE;
+    for (List<Double> chain : chains)
+      minLength = Math.min(minLength, chain.size());
+    final int halfLength = minLength / 2;
+    List<List<Double>> result = Lists.newArrayList();
+    for (List<Double> chain : chains)
+    {
+      final int start = chain.size() - 2 * halfLength;
+      result.add(chain.subList(start, start + halfLength));
+      result.add(chain.subList(start + halfLength, start + 2 * halfLength));
+    }
+    return result;
+  }
+}
@@ -8,7 +8,7 @@ package polya.mcmc;
  * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
  *
  */
-public class ExponentialPrior implements RealNodePrior
+public class ExponentialPrior implements RealNodePrior, PointwiseFactor
 {
   /**
    * The variable this is a prior on 
@@ -58,7 +58,17 @@ public class ExponentialPrior implements RealNodePrior
   @Override
   public double logUnnormalizedPotential()
   {
-    double x = variable.getValue() - min;
+    return logUnnormalizedPotentialAt(variable, variable.getValue());
+  }
+
+  @Override
+  public double logUnnormalizedPotentialAt(RealVariable variable, double value)
+  {
+    if (variable != this.variable)
+      throw new RuntimeException();
+    double x = value - min;
+    if (x < 0.0)
+      return Double.NEGATIVE_INFINITY;
     return -rate * x;
   }
 
@@ -1,9 +1,13 @@
 package polya.mcmc;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 
 import com.beust.jcommander.internal.Lists;
@@ -19,6 +23,23 @@ public class MHAlternation
 {
   private List<RealVariableMHMove> moves = Lists.newArrayList();
   
+  /**
+   * The moves in the order they were added (moves is reshuffled).
+   */
+  private final List<RealVariableMHMove> registered = Lists.newArrayList();
+  
+  /**
+   * When non-null, moves are performed concurrently using this pool.
+   * See useThreads()
+   */
+  private ForkJoinPool pool = null;
+  
+  /**
+   * Grouping of the moves into concurrent batches, recomputed 
+   * when moves are added.
+   */
+  private ChromaticSchedule schedule = null;
+  
   /**
    * Add a variable connected to the provided factors to resample.
    * 
@@ -31,6 +52,8 @@ public class MHAlternation
   {
     RealVariableMHMove move = new RealVariableMHMove(variable, Arrays.asList(connectedFactors));
     moves.add(move);
+    registered.add(move);
+    schedule = null;
   }
   
   /**
@@ -42,16 +65,82 @@ public class MHAlternation
    * @param prior
    * @param otherFactors
    */
-  @SuppressWarnings("unchecked")
   public void addRealNodeToResampleWithPrior(RealVariable variable, RealNodePrior prior, Factor ... otherFactors)
+  {
+    addRealNodeToResampleWithPrior(variable, prior, (ProposalAdaptation) null, otherFactors);
+  }
+  
+  /**
+   * Same as addRealNodeToResampleWithPrior(variable, prior, otherFactors),
+   * but with a random walk proposal whose scale is tuned during the first
+   * moves (see AdaptiveRealVariableMHMove), reducing the number of 
+   * rejected proposals, each of which costs an evaluation of the factors.
+   * 
+   * WARNING: make sure you provide all the connected factors.
+   * 
+   * @param variable
+   * @param prior
+   * @param adaptation For example, ProposalAdaptation.standard().onLogScale()
+   *   for a positive variable; null for the standard normal proposal of 
+   *   RealVariableMHMove
+   * @param otherFactors
+   */
+  @SuppressWarnings("unchecked")
+  public void addRealNodeToResampleWithPrior(RealVariable variable, RealNodePrior prior, ProposalAdaptation adaptation, Factor ... otherFactors)
   {
     prior.setVariable(variable);
     @SuppressWarnings("rawtypes")
     List allFactors = Lists.newArrayList();
     allFactors.addAll(Arrays.asList(otherFactors));
     allFactors.add(prior);
-    RealVariableMHMove move = new RealVariableMHMove(variable, allFactors);
+    RealVariableMHMove move = adaptation == null ?
+        new RealVariableMHMove(variable, allFactors) :
+        new AdaptiveRealVariableMHMove(variable, allFactors, adaptation);
     moves.add(move);
+    registered.add(move);
+    schedule = null;
+  }
+  
+  /**
+   * Same as addRealNodeToResampleWithPrior(variable, prior, otherFactors),
+   * but with a multiple-try move (see MultipleTryMHMove), which evaluates
+   * several proposals at once, concurrently once useThreads() is called.
+   * 
+   * WARNING: make sure you provide all the connected factors, which
+   * should all be PointwiseFactors.
+   * 
+   * @param variable
+   * @param prior
+   * @param proposal For example, MultipleTryProposal.withTries(8).onLogScale()
+   *   for a positive variable
+   * @param otherFactors
+   */
+  public void addRealNodeToResampleWithPrior(RealVariable variable, RealNodePrior prior, MultipleTryProposal proposal, Factor ... otherFactors)
+  {
+    prior.setVariable(variable);
+    List<Factor> allFactors = Lists.newArrayList();
+    allFactors.addAll(Arrays.asList(otherFactors));
+    allFactors.add(prior);
+    MultipleTryMHMove move = new MultipleTryMHMove(variable, allFactors, proposal);
+    move.usePool(pool);
+    moves.add(move);
+    registered.add(move);
+    schedule = null;
+  }
+  
+  /**
+   * Perform the moves of variables not connected to a common factor 
+   * concurrently, using the provided pool (see ChromaticSchedule), and
+   * evaluate the proposals of the multiple-try moves concurrently.
+   * 
+   * @param pool Null to go back to sequential sampling
+   */
+  public void useThreads(ForkJoinPool pool)
+  {
+    this.pool = pool;
+    for (RealVariableMHMove move : registered)
+      if (move instanceof MultipleTryMHMove)
+        ((MultipleTryMHMove) move).usePool(pool);
   }
   
   /**
@@ -61,11 +150,56 @@ public class MHAlternation
    */
   public void sampleOneRound(Random rand)
   {
+    if (pool != null)
+    {
+      if (schedule == null)
+        schedule = new ChromaticSchedule(moves);
+      schedule.sampleOneRound(rand, pool);
+      return;
+    }
     Collections.shuffle(moves, rand);
     for (RealVariableMHMove move : moves)
       move.sample(rand);
   }
 
+  /**
+   * Writes the state of the moves that is not recreated by adding
+   * them again, i.e. their current order and the scales of the adaptive
+   * moves (see readState()).
+   * 
+   * @param out
+   * @throws IOException
+   */
+  public void writeState(DataOutput out) throws IOException
+  {
+    out.writeInt(moves.size());
+    for (RealVariableMHMove move : moves)
+      out.writeInt(registered.indexOf(move));
+    for (RealVariableMHMove move : registered)
+      move.writeState(out);
+  }
+  
+  /**
+   * Restores the state written by writeState(), after the same moves
+   * have been added, in the same order, to this object.
+   * 
+   * @param in
+   * @throws IOException
+   */
+  public void readState(DataInput in) throws IOException
+  {
+    final int nMoves = in.readInt();
+    if (nMoves != registered.size())
+      throw new RuntimeException("The state has " + nMoves + " moves, but " + registered.size() + " were added.");
+    List<RealVariableMHMove> order = Lists.newArrayList();
+    for (int i = 0; i < nMoves; i++)
+      order.add(registered.get(in.readInt()));
+    for (RealVariableMHMove move : registered)
+      move.readState(in);
+    moves = order;
+    schedule = null;
+  }
+
   public int nVariables()
   {
     return moves.size();
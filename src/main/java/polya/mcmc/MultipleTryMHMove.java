@@ -0,0 +1,226 @@
+package polya.mcmc;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+
+
+/**
+ * The multiple-try Metropolis move of Liu, Liang and Wong (2000) for real
+ * random variables, with a symmetric random walk proposal:
+ *
+ * - nTries candidates y_1, ..., y_M are proposed from the current value x,
+ *   and one of them, y, is selected with probability proportional to its
+ *   density pi(y_j);
+ * - M - 1 reference values are proposed from y, and x is added to them;
+ * - y is accepted with probability min(1, sum_j pi(y_j) / sum_j pi(x_j)).
+ *
+ * Each batch of densities is evaluated concurrently when a pool is provided
+ * (see MHAlternation.useThreads()), each candidate value being evaluated
+ * with PointwiseFactor.logUnnormalizedPotentialAt(), without setting the
+ * variable. The variable is only set once the move is accepted. The
+ * random numbers are drawn before the evaluations, so the result does not
+ * depend on the number of threads.
+ *
+ * On the log scale, the random walk is symmetric on log(x), so the
+ * densities include the Jacobian x.
+ *
+ * See: Liu, J. S., Liang, F. and Wong, W. H. (2000) The multiple-try method
+ * and local optimization in Metropolis sampling. JASA 95, 121-134.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class MultipleTryMHMove extends RealVariableMHMove
+{
+  private final MultipleTryProposal proposal;
+  private final PointwiseFactor [] factors;
+  private final double [] candidates, references, candidateLogDensities, referenceLogDensities;
+
+  /**
+   * When non-null, the densities are evaluated concurrently.
+   */
+  private ForkJoinPool pool = null;
+
+  /**
+   *
+   * @param variable
+   * @param connectedFactors Should all be PointwiseFactors
+   * @param proposal
+   */
+  public MultipleTryMHMove(RealVariable variable,
+      Collection<? extends Factor> connectedFactors,
+      MultipleTryProposal proposal)
+  {
+    super(variable, connectedFactors);
+    this.proposal = proposal;
+    this.factors = new PointwiseFactor[connectedFactors.size()];
+    int i = 0;
+    for (Factor factor : connectedFactors)
+    {
+      if (!(factor instanceof PointwiseFactor))
+        throw new RuntimeException("Multiple-try moves require PointwiseFactors, got: " + factor.getClass());
+      factors[i++] = (PointwiseFactor) factor;
+    }
+    final int nTries = proposal.nTries;
+    this.candidates = new double[nTries];
+    this.references = new double[nTries];
+    this.candidateLogDensities = new double[nTries];
+    this.referenceLogDensities = new double[nTries];
+  }
+
+  /**
+   *
+   * @param pool Null to evaluate the densities sequentially
+   */
+  void usePool(ForkJoinPool pool)
+  {
+    this.pool = pool;
+  }
+
+  @Override
+  public void sample(Random rand)
+  {
+    final RealVariable variable = variable();
+    final int nTries = proposal.nTries;
+    final double current = variable.getValue();
+    for (int j = 0; j < nTries; j++)
+      candidates[j] = propose(rand, current);
+    evaluate(candidates, candidateLogDensities);
+    final double candidateLogSum = logSum(candidateLogDensities);
+    if (candidateLogSum == Double.NEGATIVE_INFINITY)
+    {
+      acceptanceProbabilities.addValue(0.0);
+      return;
+    }
+    final double selected = candidates[sampleIndex(rand, candidateLogDensities, candidateLogSum)];
+
+    for (int j = 0; j < nTries - 1; j++)
+      references[j] = propose(rand, selected);
+    references[nTries - 1] = current;
+    evaluate(references, referenceLogDensities);
+
+    final double logRatio = candidateLogSum - logSum(referenceLogDensities);
+    // NaN when the reference densities are all zero, e.g. when started out of the support
+    final double acceptance = Double.isNaN(logRatio) ? 0.0 : Math.min(1.0, Math.exp(logRatio));
+    acceptanceProbabilities.addValue(acceptance);
+    if (rand.nextDouble() < acceptance)
+      variable.setValue(selected);
+  }
+
+  /**
+   *
+   * @return Mean acceptance probability since this move was created
+   */
+  public double meanAcceptance()
+  {
+    return acceptanceProbabilities.getMean();
+  }
+
+  private double propose(Random rand, double from)
+  {
+    final double increment = proposal.scale * rand.nextGaussian();
+    if (!proposal.logScale)
+      return from + increment;
+    if (!(from > 0.0))
+      throw new RuntimeException("Proposals on the log scale require a positive variable, got: " + from);
+    return from * Math.exp(increment);
+  }
+
+  private void evaluate(double [] values, double [] logDensities)
+  {
+    Evaluations evaluations = new Evaluations(values, logDensities, 0, values.length);
+    if (pool == null)
+      evaluations.compute();
+    else if (ForkJoinTask.inForkJoinPool())
+      // already in a worker, e.g. called from a concurrent MH move
+      evaluations.invoke();
+    else
+      pool.invoke(evaluations);
+  }
+
+  private double logDensityAt(double value)
+  {
+    final RealVariable variable = variable();
+    double result = proposal.logScale ? Math.log(value) : 0.0;
+    for (PointwiseFactor factor : factors)
+      result += factor.logUnnormalizedPotentialAt(variable, value);
+    // e.g. out of the domain of the hyper-parameters
+    return Double.isNaN(result) ? Double.NEGATIVE_INFINITY : result;
+  }
+
+  private static double logSum(double [] logWeights)
+  {
+    double max = Double.NEGATIVE_INFINITY;
+    for (double logWeight : logWeights)
+      max = Math.max(max, logWeight);
+    if (max == Double.NEGATIVE_INFINITY || Double.isNaN(max))
+      return max;
+    double sum = 0.0;
+    for (double logWeight : logWeights)
+      sum += Math.exp(logWeight - max);
+    return max + Math.log(sum);
+  }
+
+  private static int sampleIndex(Random rand, double [] logWeights, double logSum)
+  {
+    final double u = rand.nextDouble();
+    double cumulative = 0.0;
+    for (int j = 0; j < logWeights.length; j++)
+    {
+      cumulative += Math.exp(logWeights[j] - logSum);
+      if (u < cumulative)
+        return j;
+    }
+    // round-off: return the last index with positive weight
+    for (int j = logWeights.length - 1; j >= 0; j--)
+      if (logWeights[j] > Double.NEGATIVE_INFINITY)
+        return j;
+    throw new RuntimeException();
+  }
+
+  /**
+   * Evaluates the densities of the values in [start, end), split
+   * recursively so that each value can be evaluated in parallel.
+   */
+  private class Evaluations extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+    private final double [] values, logDensities;
+    private final int start, end;
+
+    private Evaluations(double [] values, double [] logDensities, int start, int end)
+    {
+      this.values = values;
+      this.logDensities = logDensities;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (end - start == 1)
+      {
+        logDensities[start] = logDensityAt(values[start]);
+        return;
+      }
+      final int middle = (start + end) / 2;
+      Evaluations
+        left = new Evaluations(values, logDensities, start, middle),
+        right = new Evaluations(values, logDensities, middle, end);
+      if (!inForkJoinPool())
+      {
+        left.compute();
+        right.compute();
+        return;
+      }
+      left.fork();
+      right.compute();
+      left.join();
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package polya.mcmc;
+
+
+
+
+/**
+ * Settings of the proposals of a MultipleTryMHMove. For example,
+ * MultipleTryProposal.withTries(8).onLogScale() proposes 8 values at
+ * each move, from a multiplicative random walk.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class MultipleTryProposal
+{
+  /**
+   * Number of candidate values proposed at each move.
+   */
+  final int nTries;
+
+  /**
+   * Standard deviation of the random walk increments.
+   */
+  final double scale;
+
+  /**
+   * If true, the random walk is on the log of the variable, which
+   * should be positive.
+   */
+  final boolean logScale;
+
+  /**
+   *
+   * @param nTries Typically, a multiple of the number of cores
+   * @return Proposals with a standard normal random walk on the variable itself
+   */
+  public static MultipleTryProposal withTries(int nTries)
+  {
+    return new MultipleTryProposal(nTries, 1.0, false);
+  }
+
+  /**
+   *
+   * @param scale
+   * @return
+   */
+  public MultipleTryProposal withScale(double scale)
+  {
+    return new MultipleTryProposal(nTries, scale, logScale);
+  }
+
+  /**
+   *
+   * @return Same settings, but with proposals x' = x exp(scale * N(0,1)),
+   *   for positive variables
+   */
+  public MultipleTryProposal onLogScale()
+  {
+    return new MultipleTryProposal(nTries, scale, true);
+  }
+
+  private MultipleTryProposal(int nTries, double scale, boolean logScale)
+  {
+    if (nTries < 1 || !(scale > 0.0))
+      throw new RuntimeException();
+    this.nTries = nTries;
+    this.scale = scale;
+    this.logScale = logScale;
+  }
+}
@@ -0,0 +1,24 @@
+package polya.mcmc;
+
+
+/**
+ * A factor which can be evaluated at other values of one of its variables,
+ * without setting that variable, so that several values can be evaluated
+ * concurrently (see MultipleTryMHMove).
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public interface PointwiseFactor extends Factor
+{
+  /**
+   * Should not modify the variables, nor any state shared with other 
+   * evaluations.
+   * 
+   * @param variable A variable connected to this factor
+   * @param value
+   * @return The log potential when the variable takes the provided value,
+   *   the other variables keeping their current values
+   */
+  public double logUnnormalizedPotentialAt(RealVariable variable, double value);
+}
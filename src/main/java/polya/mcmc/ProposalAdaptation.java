@@ -0,0 +1,102 @@
+package polya.mcmc;
+
+
+
+
+/**
+ * Settings of the adaptive random walk proposals of an
+ * AdaptiveRealVariableMHMove. For example,
+ * ProposalAdaptation.standard().onLogScale().frozenAfter(1000) tunes
+ * the scale of a multiplicative random walk during the first 1000 moves.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class ProposalAdaptation
+{
+  /**
+   * The acceptance rate the scale is tuned towards.
+   */
+  final double targetAcceptance;
+
+  /**
+   * The standard deviation of the first proposals.
+   */
+  final double initialScale;
+
+  /**
+   * Number of moves after which the scale is frozen.
+   */
+  final int nAdaptationSteps;
+
+  /**
+   * If true, the random walk is on the log of the variable, which
+   * should be positive.
+   */
+  final boolean logScale;
+
+  /**
+   *
+   * @return Target acceptance rate of 0.44 (optimal in one dimension),
+   *   initial scale of 1, adaptation during 1000 moves, random walk on
+   *   the variable itself.
+   */
+  public static ProposalAdaptation standard()
+  {
+    return new ProposalAdaptation(0.44, 1.0, 1000, false);
+  }
+
+  /**
+   *
+   * @param targetAcceptance
+   * @return
+   */
+  public ProposalAdaptation withTarget(double targetAcceptance)
+  {
+    return new ProposalAdaptation(targetAcceptance, initialScale, nAdaptationSteps, logScale);
+  }
+
+  /**
+   *
+   * @param initialScale
+   * @return
+   */
+  public ProposalAdaptation withInitialScale(double initialScale)
+  {
+    return new ProposalAdaptation(targetAcceptance, initialScale, nAdaptationSteps, logScale);
+  }
+
+  /**
+   *
+   * @param nAdaptationSteps Typically, the number of burn-in iterations
+   * @return
+   */
+  public ProposalAdaptation frozenAfter(int nAdaptationSteps)
+  {
+    return new ProposalAdaptation(targetAcceptance, initialScale, nAdaptationSteps, logScale);
+  }
+
+  /**
+   *
+   * @return Same settings, but with proposals x' = x exp(scale * N(0,1)),
+   *   for positive variables
+   */
+  public ProposalAdaptation onLogScale()
+  {
+    return new ProposalAdaptation(targetAcceptance, initialScale, nAdaptationSteps, true);
+  }
+
+  private ProposalAdaptation(
+      double targetAcceptance,
+      double initialScale,
+      int nAdaptationSteps,
+      boolean logScale)
+  {
+    if (!(targetAcceptance > 0.0 && targetAcceptance < 1.0) || !(initialScale > 0.0) || nAdaptationSteps < 0)
+      throw new RuntimeException();
+    this.targetAcceptance = targetAcceptance;
+    this.initialScale = initialScale;
+    this.nAdaptationSteps = nAdaptationSteps;
+    this.logScale = logScale;
+  }
+}
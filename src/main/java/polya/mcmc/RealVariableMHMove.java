@@ -1,5 +1,8 @@
 package polya.mcmc;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Random;
 
@@ -44,17 +47,60 @@ public class RealVariableMHMove
       throw new RuntimeException(); 
     }
     
+    /**
+     * 
+     * @return The variable provided at construction
+     */
+    RealVariable variable()
+    {
+      return variable;
+    }
+    
+    /**
+     * 
+     * @return The factors provided at construction
+     */
+    Collection<? extends Factor> connectedFactors()
+    {
+      return connectedFactors;
+    }
+    
     /**
      * Compute the part of the density that will be affected by 
      * chaning the variable held in this object.
      * 
      * @return
      */
-    private double computeLogUnnormalizedPotentials()
+    double computeLogUnnormalizedPotentials()
     {
       double result = 0.0;
       for (Factor f : connectedFactors)
         result += f.logUnnormalizedPotential();
       return result;
     }
+    
+    /**
+     * Writes the state of this move that is not recreated by creating it 
+     * again (see MHAlternation.writeState()). This move has none, but 
+     * adaptive moves do (see AdaptiveRealVariableMHMove).
+     * 
+     * @param out
+     * @throws IOException
+     */
+    void writeState(DataOutput out) throws IOException
+    {
+      out.writeBoolean(false);
+    }
+    
+    /**
+     * Restores the state written by writeState().
+     * 
+     * @param in
+     * @throws IOException
+     */
+    void readState(DataInput in) throws IOException
+    {
+      if (in.readBoolean())
+        throw new RuntimeException("The state is the one of an adaptive move.");
+    }
   }
@@ -10,7 +10,7 @@ package polya.mcmc;
  * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
  *
  */
-public class UniformPrior implements RealNodePrior
+public class UniformPrior implements RealNodePrior, PointwiseFactor
 {
   private RealVariable variable;
   private final double min = 0.0, max = 1.0;
@@ -27,7 +27,15 @@ public class UniformPrior implements RealNodePrior
   @Override
   public double logUnnormalizedPotential()
   {
-    double x = variable.getValue();
+    return logUnnormalizedPotentialAt(variable, variable.getValue());
+  }
+
+  @Override
+  public double logUnnormalizedPotentialAt(RealVariable variable, double value)
+  {
+    if (variable != this.variable)
+      throw new RuntimeException();
+    double x = value;
     if (x < min) return Double.NEGATIVE_INFINITY;
     if (x > max) return Double.NEGATIVE_INFINITY;
     return 0.0;
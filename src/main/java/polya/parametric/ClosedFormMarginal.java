@@ -0,0 +1,27 @@
+package polya.parametric;
+
+
+
+/**
+ * Optional interface for CollapsedConjugateModels which can compute the 
+ * marginal density of the data in closed form (for example, a ratio of
+ * NIW normalizations), instead of the ratio of densities at theta* used 
+ * by Parametrics.logMarginal().
+ * 
+ * See Parametrics.logMarginalWithClosedForm(), which uses this interface 
+ * when available.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public interface ClosedFormMarginal extends CollapsedConjugateModel
+{
+  /**
+   * Should agree with Parametrics.logMarginal(this, hp, data)
+   * 
+   * @param hp
+   * @param data
+   * @return p\_hp(data)
+   */
+  public double logMarginal(HyperParameter hp, SufficientStatistic data);
+}
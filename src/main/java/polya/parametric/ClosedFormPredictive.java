@@ -0,0 +1,28 @@
+package polya.parametric;
+
+
+
+/**
+ * Optional interface for CollapsedConjugateModels which can compute the 
+ * predictive density of one new point in closed form (for example, a 
+ * Student-t for the NIW model), instead of the ratio of two 
+ * marginals used by Parametrics.logPredictive().
+ * 
+ * See Parametrics.logSinglePointPredictive(), which uses this interface 
+ * when available.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public interface ClosedFormPredictive extends CollapsedConjugateModel
+{
+  /**
+   * Should agree with Parametrics.logPredictive(this, hp, newPoint, oldPoints)
+   * 
+   * @param hp
+   * @param newPoint The statistic of a single point
+   * @param oldPoints The statistic of the points conditioned on, or null if there are none
+   * @return p\_hp(newPoint|oldPoints)
+   */
+  public double logPredictive(HyperParameter hp, SufficientStatistic newPoint, SufficientStatistic oldPoints);
+}
@@ -46,5 +46,49 @@ public class Parametrics
   {
     throw new RuntimeException();  
   }
+  
+  /**
+   * Computes p\_hp(newPoint|oldPoints) for a single new point.
+   * 
+   * Uses the closed form provided by the model if it implements 
+   * ClosedFormPredictive, and falls back to logPredictive() otherwise.
+   * 
+   * @param model
+   * @param hp
+   * @param newPoint The statistic of a single point
+   * @param oldPoints
+   * @return
+   */
+  public static double logSinglePointPredictive(
+      CollapsedConjugateModel model,
+      HyperParameter hp, 
+      SufficientStatistic newPoint, 
+      SufficientStatistic oldPoints)
+  {
+    if (model instanceof ClosedFormPredictive && newPoint.numberOfPoints() == 1)
+      return ((ClosedFormPredictive) model).logPredictive(hp, newPoint, oldPoints);
+    return logPredictive(model, hp, newPoint, oldPoints);
+  }
+  
+  /**
+   * Computes p\_hp(data).
+   * 
+   * Uses the closed form provided by the model if it implements 
+   * ClosedFormMarginal, and falls back to logMarginal() otherwise.
+   * 
+   * @param model
+   * @param hp
+   * @param data
+   * @return
+   */
+  public static double logMarginalWithClosedForm(
+      CollapsedConjugateModel model,
+      HyperParameter hp, 
+      SufficientStatistic data)
+  {
+    if (model instanceof ClosedFormMarginal)
+      return ((ClosedFormMarginal) model).logMarginal(hp, data);
+    return logMarginal(model, hp, data);
+  }
 
 }
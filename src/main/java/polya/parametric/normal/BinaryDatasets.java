@@ -0,0 +1,211 @@
+package polya.parametric.normal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import briefj.BriefIO;
+
+
+/**
+ * A binary format for datasets of real vectors, which can be memory mapped
+ * instead of parsed, so that loading a dataset takes a time proportional to
+ * the part of the file actually read, rather than to the size of the file.
+ *
+ * Layout, little endian:
+ *
+ * - a header of HEADER_SIZE bytes: the 8 bytes of MAGIC, then the version (int),
+ *   the type of the coordinates (int, only DTYPE_FLOAT64 for now), the number
+ *   of points (long) and their dimensionality (int), padded with zeros
+ * - the points, row after row, each point being dim consecutive doubles
+ *
+ * Points are stored row after row since the samplers always read all
+ * the coordinates of a point at once.
+ *
+ * Use convertFromCSV() to create a file from the CSV format read by
+ * NIWs.loadFromCSVFile(), or run this class:
+ *
+ * BinaryDatasets [input.csv] [output.bin]
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class BinaryDatasets
+{
+  public static final byte [] MAGIC = "POLYABIN".getBytes(StandardCharsets.US_ASCII);
+  public static final int VERSION = 1;
+  public static final int DTYPE_FLOAT64 = 1;
+  public static final int HEADER_SIZE = 64;
+
+  /**
+   * Maximum size of each mapping (a single mapping is limited to 2GB).
+   */
+  private static final int MAX_PAGE_BYTES = 1 << 30;
+
+  private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+  public static void main(String [] args)
+  {
+    if (args.length != 2)
+    {
+      System.err.println("Usage: BinaryDatasets [input.csv] [output.bin]");
+      System.exit(1);
+    }
+    convertFromCSV(new File(args[0]), new File(args[1]));
+  }
+
+  /**
+   * Converts a CSV file where each row is a point, and columns are dimensions,
+   * streaming the rows (the CSV file is not loaded in memory).
+   *
+   * @param csvFile
+   * @param binaryFile Created or overwritten
+   */
+  public static void convertFromCSV(File csvFile, File binaryFile)
+  {
+    try (FileChannel channel = FileChannel.open(binaryFile.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      channel.position(HEADER_SIZE);
+      long nPoints = 0;
+      int dim = -1;
+      for (List<String> datum : BriefIO.readLines(csvFile).splitCSV())
+      {
+        if (dim == -1)
+        {
+          dim = datum.size();
+          if (dim == 0 || 8L * dim > WRITE_BUFFER_SIZE)
+            throw new RuntimeException("Unsupported dimensionality: " + dim);
+        }
+        if (datum.size() != dim)
+          throw new RuntimeException("Row " + nPoints + " has " + datum.size() + " columns, expected " + dim);
+        if (buffer.remaining() < 8 * dim)
+          flush(buffer, channel);
+        for (String coordinate : datum)
+          buffer.putDouble(Double.parseDouble(coordinate.trim()));
+        nPoints++;
+      }
+      if (dim == -1)
+        throw new RuntimeException("Empty dataset: " + csvFile);
+      flush(buffer, channel);
+
+      ByteBuffer header = header(nPoints, dim);
+      while (header.hasRemaining())
+        channel.write(header, header.position());
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException
+  {
+    buffer.flip();
+    while (buffer.hasRemaining())
+      channel.write(buffer);
+    buffer.clear();
+  }
+
+  private static ByteBuffer header(long nPoints, int dim)
+  {
+    ByteBuffer result = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    result.put(MAGIC);
+    result.putInt(VERSION);
+    result.putInt(DTYPE_FLOAT64);
+    result.putLong(nPoints);
+    result.putInt(dim);
+    result.rewind();
+    return result;
+  }
+
+  /**
+   *
+   * @param file
+   * @return If the file starts with MAGIC
+   */
+  public static boolean isBinaryDataset(File file)
+  {
+    if (!file.isFile() || file.length() < HEADER_SIZE)
+      return false;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+    {
+      ByteBuffer start = ByteBuffer.allocate(MAGIC.length);
+      while (start.hasRemaining() && channel.read(start) >= 0) {}
+      return Arrays.equals(start.array(), MAGIC);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Memory maps a file created by convertFromCSV().
+   *
+   * The points are not copied: the statistics of the customers of the returned
+   * arena are read-only views on the mapped file, created the first time each
+   * customer is accessed, and the operating system loads the pages of the file
+   * as they are touched. The statistics of the tables are stored on the heap.
+   *
+   * Use for example with DenseCRPState.fullyDisconnectedClustering(arena).
+   *
+   * @param binaryFile
+   * @return An arena with read-only points (see StatisticArena.setPoint())
+   */
+  public static StatisticArena map(File binaryFile)
+  {
+    try (FileChannel channel = FileChannel.open(binaryFile.toPath(), StandardOpenOption.READ))
+    {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      while (header.hasRemaining() && channel.read(header) >= 0) {}
+      header.flip();
+      if (header.remaining() < HEADER_SIZE)
+        throw new RuntimeException("Truncated header: " + binaryFile);
+      byte [] magic = new byte[MAGIC.length];
+      header.get(magic);
+      if (!Arrays.equals(magic, MAGIC))
+        throw new RuntimeException("Not a binary dataset: " + binaryFile);
+      final int version = header.getInt();
+      if (version != VERSION)
+        throw new RuntimeException("Unsupported version: " + version);
+      final int dtype = header.getInt();
+      if (dtype != DTYPE_FLOAT64)
+        throw new RuntimeException("Unsupported type of coordinates: " + dtype);
+      final long nPoints = header.getLong();
+      final int dim = header.getInt();
+      if (dim < 1 || nPoints < 0 || nPoints > Integer.MAX_VALUE)
+        throw new RuntimeException("Invalid header: nPoints=" + nPoints + ", dim=" + dim);
+      if (channel.size() < HEADER_SIZE + 8L * dim * nPoints)
+        throw new RuntimeException("Truncated file: " + binaryFile);
+
+      final int pointsPerPage = Math.max(1, MAX_PAGE_BYTES / (8 * dim));
+      final int nPages = (int) ((nPoints + pointsPerPage - 1) / pointsPerPage);
+      DoubleBuffer [] pages = new DoubleBuffer[nPages];
+      for (int p = 0; p < nPages; p++)
+      {
+        final long firstPoint = (long) p * pointsPerPage;
+        final long nPagePoints = Math.min(pointsPerPage, nPoints - firstPoint);
+        pages[p] = channel
+            .map(MapMode.READ_ONLY, HEADER_SIZE + 8L * dim * firstPoint, 8L * dim * nPagePoints)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .asDoubleBuffer();
+      }
+      // the mappings stay valid after the channel is closed
+      return new StatisticArena(dim, (int) nPoints, pages, pointsPerPage, false);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -7,6 +7,8 @@ import java.util.Random;
 import org.apache.commons.lang3.tuple.Pair;
 import org.ejml.simple.SimpleMatrix;
 
+import polya.parametric.ClosedFormMarginal;
+import polya.parametric.ClosedFormPredictive;
 import polya.parametric.CollapsedConjugateModel;
 import polya.parametric.HyperParameter;
 import polya.parametric.Parameter;
@@ -23,7 +25,7 @@ import bayonet.math.SpecialFunctions;
  * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
  *
  */
-public class CollapsedNIWModel implements CollapsedConjugateModel, TestedModel
+public class CollapsedNIWModel implements CollapsedConjugateModel, ClosedFormPredictive, ClosedFormMarginal, TestedModel
 {
   public static CollapsedNIWModel instance = new CollapsedNIWModel();
   private CollapsedNIWModel() {}
@@ -73,7 +75,7 @@ public class CollapsedNIWModel implements CollapsedConjugateModel, TestedModel
   @Override
   public double logLikelihoodGivenThetaStar(SufficientStatistic _data)
   {
-    TwoMomentsSufficientStatistics data = (TwoMomentsSufficientStatistics) _data;
+    TwoMomentsStatistic data = (TwoMomentsStatistic) _data;
 
     throw new RuntimeException(); 
   }
@@ -92,20 +94,46 @@ public class CollapsedNIWModel implements CollapsedConjugateModel, TestedModel
   public HyperParameter update(HyperParameter _before, SufficientStatistic _data)
   {
     NIWHyperParameter before = (NIWHyperParameter) _before;
-    TwoMomentsSufficientStatistics data = (TwoMomentsSufficientStatistics) _data;
+    TwoMomentsStatistic data = (TwoMomentsStatistic) _data;
     
     checkCompatible(before, data);
     
     throw new RuntimeException(); 
   }
 
+  /**
+   * The predictive of a single point is a multivariate Student-t, see 
+   * NIWCholeskyPosterior. Costs O(dim^3) to factor the updated scatter matrix;
+   * use NIWCholeskyPosterior directly to amortize this over several points.
+   */
+  @Override
+  public double logPredictive(HyperParameter _hp, SufficientStatistic _newPoint, SufficientStatistic _oldPoints)
+  {
+    NIWHyperParameter hp = (NIWHyperParameter) _hp;
+    TwoMomentsStatistic newPoint = (TwoMomentsStatistic) _newPoint;
+    TwoMomentsStatistic oldPoints = (TwoMomentsStatistic) _oldPoints;
+    return NIWCholeskyPosterior.fromData(hp, oldPoints).logPredictive(newPoint);
+  }
+
+  /**
+   * The marginal is a ratio of NIW normalizations, see 
+   * NIWCholeskyPosterior.logMarginal(). Costs O(dim^3).
+   */
+  @Override
+  public double logMarginal(HyperParameter _hp, SufficientStatistic _data)
+  {
+    NIWHyperParameter hp = (NIWHyperParameter) _hp;
+    TwoMomentsStatistic data = (TwoMomentsStatistic) _data;
+    return NIWCholeskyPosterior.fromData(hp, data).logMarginal(hp);
+  }
+
   /**
    * Performs a simple sanity check on dimensionality.
    * @param before
    * @param data
    */
   private void checkCompatible(NIWHyperParameter before,
-      TwoMomentsSufficientStatistics data)
+      TwoMomentsStatistic data)
   {
     if (before.dim() != data.dim())
       throw new RuntimeException();
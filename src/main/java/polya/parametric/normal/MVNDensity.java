@@ -0,0 +1,81 @@
+package polya.parametric.normal;
+
+
+/**
+ * The density of a multivariate normal with fixed parameters, e.g. drawn
+ * with NIWs.nextNIW(). The Cholesky factor of the covariance is computed
+ * once, so that each evaluation takes O(dim^2) and does not allocate.
+ *
+ * Evaluations only read this object, so they can be done concurrently,
+ * each thread providing its own buffer.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class MVNDensity
+{
+  private final int dim;
+  private final double [] mean;
+
+  /**
+   * Lower triangular Cholesky factor of the covariance, row major.
+   */
+  private final double [] cholesky;
+  private final double logNormalization;
+
+  /**
+   *
+   * @param parameter
+   */
+  public MVNDensity(MVNParameter parameter)
+  {
+    this.dim = parameter.getMeanParameter().numRows();
+    this.mean = new double[dim];
+    this.cholesky = new double[dim * dim];
+    for (int i = 0; i < dim; i++)
+    {
+      mean[i] = parameter.getMeanParameter().get(i);
+      for (int j = 0; j < dim; j++)
+        cholesky[i * dim + j] = parameter.getCovarianceParameter().get(i, j);
+    }
+    if (!NIWCholeskyPosterior.choleskyInPlace(cholesky, dim))
+      throw new RuntimeException("Covariance matrix not positive definite.");
+    double logDeterminant = 0.0;
+    for (int i = 0; i < dim; i++)
+      logDeterminant += 2.0 * Math.log(cholesky[i * dim + i]);
+    this.logNormalization = - dim / 2.0 * Math.log(2.0 * Math.PI) - logDeterminant / 2.0;
+  }
+
+  /**
+   *
+   * @param point The statistic of a single point
+   * @param buffer Of size at least dim(), overwritten
+   * @return The log density at the point
+   */
+  public double logDensity(TwoMomentsStatistic point, double [] buffer)
+  {
+    if (point.dim() != dim)
+      throw new RuntimeException();
+    // solve L z = x - mean by forward substitution
+    double squaredNorm = 0.0;
+    for (int i = 0; i < dim; i++)
+    {
+      double current = point.sumOfValues(i) - mean[i];
+      for (int j = 0; j < i; j++)
+        current -= cholesky[i * dim + j] * buffer[j];
+      current /= cholesky[i * dim + i];
+      buffer[i] = current;
+      squaredNorm += current * current;
+    }
+    return logNormalization - squaredNorm / 2.0;
+  }
+
+  /**
+   *
+   * @return The dimensionality of the points
+   */
+  public int dim()
+  {
+    return dim;
+  }
+}
@@ -0,0 +1,431 @@
+package polya.parametric.normal;
+
+import org.apache.commons.math3.special.Gamma;
+import org.ejml.simple.SimpleMatrix;
+
+
+/**
+ * The parameters of an NIW updated with some data, kept in a form suitable
+ * for evaluating the predictive distribution of one new point in O(dim^2),
+ * and for adding or removing one point in O(dim^2).
+ *
+ * We use the parameterization of p.46 of
+ * http://cs.brown.edu/~sudderth/papers/sudderthPhD.pdf
+ * where the covariance has an inverse Wishart distribution with scale
+ * matrix nu * delta. Given n points with sum s and sum of outer products S:
+ *
+ * kappa' = kappa + n
+ * nu' = nu + n
+ * mean' = (kappa scriptV + s) / kappa'
+ * scatter' = nu delta + S + kappa scriptV scriptV^T - kappa' mean' mean'^T
+ *
+ * where scatter' = nu' delta'. We keep the lower triangular Cholesky factor L of
+ * scatter'. Adding a point x changes the scatter by the rank-one matrix
+ * kappa'/(kappa'+1) (x - mean')(x - mean')^T, so L can be updated in O(dim^2)
+ * (and similarly downdated when a point is removed).
+ *
+ * The predictive distribution of a new point is a multivariate Student-t with
+ * nu' - dim + 1 degrees of freedom, location mean' and scale matrix
+ * (kappa' + 1) / (kappa' (nu' - dim + 1)) scatter'.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class NIWCholeskyPosterior
+{
+  private final int dim;
+  private double kappa, nu;
+  private int numberOfPoints;
+  private final double [] mean;
+
+  /**
+   * Lower triangular Cholesky factor of the scatter matrix, row major dim by dim
+   */
+  private final double [] cholesky;
+
+  /**
+   * Work space used by the rank-one updates and the predictive.
+   */
+  private final double [] buffer;
+
+  /**
+   * Part of the predictive log density not depending on the new point;
+   * NaN when it needs to be recomputed.
+   */
+  private double logNormalization = Double.NaN;
+
+  private NIWCholeskyPosterior(int dim)
+  {
+    this.dim = dim;
+    this.mean = new double[dim];
+    this.cholesky = new double[dim * dim];
+    this.buffer = new double[dim];
+  }
+
+  /**
+   *
+   * @param hp
+   * @return The parameters before any update
+   */
+  public static NIWCholeskyPosterior fromPrior(NIWHyperParameter hp)
+  {
+    NIWCholeskyPosterior result = new NIWCholeskyPosterior(hp.dim());
+    result.setToPrior(hp);
+    return result;
+  }
+
+  /**
+   *
+   * @param hp
+   * @param data
+   * @return The parameters of hp updated with data
+   */
+  public static NIWCholeskyPosterior fromData(NIWHyperParameter hp, TwoMomentsStatistic data)
+  {
+    NIWCholeskyPosterior result = new NIWCholeskyPosterior(hp.dim());
+    result.setToPosterior(hp, data);
+    return result;
+  }
+
+  /**
+   * Resets this object to the parameters before any update.
+   * @param hp
+   */
+  public void setToPrior(NIWHyperParameter hp)
+  {
+    setToPosterior(hp, null);
+  }
+
+  /**
+   * Resets this object to the parameters of hp updated with data, in O(dim^3).
+   *
+   * @param hp
+   * @param data Null is interpreted as no data
+   */
+  public void setToPosterior(NIWHyperParameter hp, TwoMomentsStatistic data)
+  {
+    if (hp.dim() != dim || (data != null && data.dim() != dim))
+      throw new RuntimeException();
+    final int n = data == null ? 0 : data.numberOfPoints();
+    final double kappa0 = hp.kappa();
+    numberOfPoints = n;
+    kappa = kappa0 + n;
+    nu = hp.nu() + n;
+    final SimpleMatrix scriptV = hp.scriptV(), delta = hp.delta();
+    for (int i = 0; i < dim; i++)
+      mean[i] = (kappa0 * scriptV.get(i) + (data == null ? 0.0 : data.sumOfValues(i))) / kappa;
+    // lower triangle of the scatter matrix, factored in place below
+    for (int i = 0; i < dim; i++)
+      for (int j = 0; j <= i; j++)
+        cholesky[i * dim + j] =
+          hp.nu() * delta.get(i, j) +
+          (data == null ? 0.0 : data.sumOfOuterProducts(i, j)) +
+          kappa0 * scriptV.get(i) * scriptV.get(j) -
+          kappa * mean[i] * mean[j];
+    if (!choleskyInPlace(cholesky, dim))
+      throw new RuntimeException("Scatter matrix not positive definite; check the hyper-parameters.");
+    logNormalization = Double.NaN;
+  }
+
+  /**
+   * Copy the contents of other into this object.
+   * @param other
+   */
+  public void setTo(NIWCholeskyPosterior other)
+  {
+    if (other.dim != dim)
+      throw new RuntimeException();
+    kappa = other.kappa;
+    nu = other.nu;
+    numberOfPoints = other.numberOfPoints;
+    System.arraycopy(other.mean, 0, mean, 0, dim);
+    System.arraycopy(other.cholesky, 0, cholesky, 0, dim * dim);
+    logNormalization = other.logNormalization;
+  }
+
+  /**
+   * Updates the parameters with one more point, in O(dim^2).
+   *
+   * @param point The statistic of a single point
+   */
+  public void add(TwoMomentsStatistic point)
+  {
+    checkSinglePoint(point);
+    final double scale = Math.sqrt(kappa / (kappa + 1.0));
+    for (int i = 0; i < dim; i++)
+    {
+      final double difference = point.sumOfValues(i) - mean[i];
+      buffer[i] = scale * difference;
+      mean[i] += difference / (kappa + 1.0);
+    }
+    rankOneUpdate(buffer, 1.0);
+    kappa += 1.0;
+    nu += 1.0;
+    numberOfPoints++;
+    logNormalization = Double.NaN;
+  }
+
+  /**
+   * Removes a point previously added, in O(dim^2).
+   *
+   * @param point The statistic of a single point
+   * @return False if the downdate was numerically unstable, in which case
+   *   this object is left in an undefined state and should be reset via setToPosterior()
+   */
+  public boolean remove(TwoMomentsStatistic point)
+  {
+    checkSinglePoint(point);
+    if (numberOfPoints == 0)
+      throw new RuntimeException();
+    final double scale = Math.sqrt(kappa / (kappa - 1.0));
+    for (int i = 0; i < dim; i++)
+    {
+      final double x = point.sumOfValues(i);
+      buffer[i] = scale * (x - mean[i]);
+      mean[i] = (kappa * mean[i] - x) / (kappa - 1.0);
+    }
+    kappa -= 1.0;
+    nu -= 1.0;
+    numberOfPoints--;
+    logNormalization = Double.NaN;
+    return rankOneUpdate(buffer, -1.0);
+  }
+
+  private void checkSinglePoint(TwoMomentsStatistic point)
+  {
+    if (point.numberOfPoints() != 1 || point.dim() != dim)
+      throw new RuntimeException("Expected the statistic of a single point of dimension " + dim);
+  }
+
+  /**
+   * L L^T := L L^T + sign * v v^T, destroying v.
+   *
+   * @return False if the result is not positive definite
+   */
+  private boolean rankOneUpdate(double [] v, double sign)
+  {
+    for (int k = 0; k < dim; k++)
+    {
+      final double diagonal = cholesky[k * dim + k];
+      final double squared = diagonal * diagonal + sign * v[k] * v[k];
+      if (!(squared > 0.0))
+        return false;
+      final double r = Math.sqrt(squared);
+      final double c = r / diagonal, s = v[k] / diagonal;
+      cholesky[k * dim + k] = r;
+      for (int i = k + 1; i < dim; i++)
+      {
+        final int index = i * dim + k;
+        cholesky[index] = (cholesky[index] + sign * s * v[i]) / c;
+        v[i] = c * v[i] - s * cholesky[index];
+      }
+    }
+    return true;
+  }
+
+  /**
+   * In place Cholesky decomposition of the lower triangle of a row major matrix.
+   *
+   * @return False if the matrix is not positive definite
+   */
+  static boolean choleskyInPlace(double [] matrix, int dim)
+  {
+    for (int j = 0; j < dim; j++)
+    {
+      double sum = matrix[j * dim + j];
+      for (int k = 0; k < j; k++)
+        sum -= matrix[j * dim + k] * matrix[j * dim + k];
+      if (!(sum > 0.0))
+        return false;
+      final double diagonal = Math.sqrt(sum);
+      matrix[j * dim + j] = diagonal;
+      for (int i = j + 1; i < dim; i++)
+      {
+        double current = matrix[i * dim + j];
+        for (int k = 0; k < j; k++)
+          current -= matrix[i * dim + k] * matrix[j * dim + k];
+        matrix[i * dim + j] = current / diagonal;
+      }
+      for (int k = j + 1; k < dim; k++)
+        matrix[j * dim + k] = 0.0;
+    }
+    return true;
+  }
+
+  /**
+   *
+   * @return log of the determinant of the scatter matrix, nu' delta'
+   */
+  public double logDeterminant()
+  {
+    double result = 0.0;
+    for (int i = 0; i < dim; i++)
+      result += Math.log(cholesky[i * dim + i]);
+    return 2.0 * result;
+  }
+
+  /**
+   * Log of the marginal density of the points this object was updated with,
+   * in O(dim^3):
+   *
+   * - n dim/2 log(pi) + dim/2 log(kappa/kappa') + logGamma_dim(nu'/2) - logGamma_dim(nu/2)
+   *   + nu/2 log|nu delta| - nu'/2 log|scatter'|
+   *
+   * @param hp The hyper-parameters this object was created from
+   * @return
+   */
+  public double logMarginal(NIWHyperParameter hp)
+  {
+    if (hp.dim() != dim || hp.nu() + numberOfPoints != nu)
+      throw new RuntimeException();
+    final double nu0 = hp.nu();
+    double result =
+      - numberOfPoints * dim / 2.0 * Math.log(Math.PI)
+      + dim / 2.0 * (Math.log(hp.kappa()) - Math.log(kappa))
+      + nu0 / 2.0 * fromPrior(hp).logDeterminant()
+      - nu / 2.0 * logDeterminant();
+    // ratio of multivariate gamma functions
+    for (int j = 0; j < dim; j++)
+      result += logGamma((nu - j) / 2.0) - logGamma((nu0 - j) / 2.0);
+    return result;
+  }
+
+  /**
+   *
+   * @return Degrees of freedom of the Student-t predictive
+   */
+  public double degreesOfFreedom()
+  {
+    return nu - dim + 1.0;
+  }
+
+  /**
+   * Log density of the predictive distribution (a multivariate Student-t)
+   * evaluated at a single point, in O(dim^2).
+   *
+   * @param point The statistic of a single point
+   * @return
+   */
+  public double logPredictive(TwoMomentsStatistic point)
+  {
+    checkSinglePoint(point);
+    for (int i = 0; i < dim; i++)
+      buffer[i] = point.sumOfValues(i) - mean[i];
+    return logPredictiveOfDifference();
+  }
+
+  /**
+   * Same as logPredictive(TwoMomentsStatistic)
+   *
+   * @param point
+   * @return
+   */
+  public double logPredictive(double [] point)
+  {
+    if (point.length != dim)
+      throw new RuntimeException();
+    for (int i = 0; i < dim; i++)
+      buffer[i] = point[i] - mean[i];
+    return logPredictiveOfDifference();
+  }
+
+  private double logPredictiveOfDifference()
+  {
+    final double dof = degreesOfFreedom();
+    final double scale = (kappa + 1.0) / (kappa * dof);
+    // solve L z = x - mean by forward substitution
+    double squaredNorm = 0.0;
+    for (int i = 0; i < dim; i++)
+    {
+      double current = buffer[i];
+      for (int j = 0; j < i; j++)
+        current -= cholesky[i * dim + j] * buffer[j];
+      current /= cholesky[i * dim + i];
+      buffer[i] = current;
+      squaredNorm += current * current;
+    }
+    if (Double.isNaN(logNormalization))
+      logNormalization =
+        logGamma((dof + dim) / 2.0) - logGamma(dof / 2.0)
+        - dim / 2.0 * Math.log(dof * Math.PI)
+        - dim / 2.0 * Math.log(scale)
+        - logDeterminant() / 2.0;
+    return logNormalization - (dof + dim) / 2.0 * Math.log1p(squaredNorm / (scale * dof));
+  }
+
+  /**
+   * Same as Gamma.logGamma(), but without allocating: for small arguments,
+   * Gamma.logGamma() goes through FastMath.log1p(), which creates a temporary 
+   * array at each call. We shift the argument above 8 using
+   * Gamma(x + 1) = x Gamma(x) instead.
+   */
+  static double logGamma(double x)
+  {
+    if (!(x > 0.0))
+      return Gamma.logGamma(x);
+    double product = 1.0;
+    while (x < 8.0)
+    {
+      product *= x;
+      x += 1.0;
+    }
+    return Gamma.logGamma(x) - Math.log(product);
+  }
+
+  /**
+   *
+   * @return The dimensionality of each observation.
+   */
+  public int dim()
+  {
+    return dim;
+  }
+
+  /**
+   *
+   * @return Number of points the prior has been updated with
+   */
+  public int numberOfPoints()
+  {
+    return numberOfPoints;
+  }
+
+  /**
+   *
+   * @return Updated scale parameter of the random mean
+   */
+  public double kappa()
+  {
+    return kappa;
+  }
+
+  /**
+   *
+   * @return Updated scale parameter of the random covariance
+   */
+  public double nu()
+  {
+    return nu;
+  }
+
+  /**
+   *
+   * @param i
+   * @return Coordinate i of the updated location parameter of the mean
+   */
+  public double mean(int i)
+  {
+    return mean[i];
+  }
+
+  /**
+   *
+   * @param i
+   * @param j
+   * @return Entry (i, j) of the lower triangular Cholesky factor of the scatter matrix
+   */
+  public double cholesky(int i, int j)
+  {
+    return cholesky[i * dim + j];
+  }
+}
@@ -163,27 +163,33 @@ public class NIWHyperParameter implements HyperParameter
   
   /**
    * Used by the generic MH machinery to resample hyper-parameter kappa
-   * @return
+   * @return The same object at each call, so that factors can
+   *   recognize it (see PointwiseFactor)
    */
   public RealVariable kappaVariableView()
   {
-    return new RealVariable() {
-      @Override public void setValue(double newValue) { kappa = newValue; }
-      @Override  public double getValue()             { return kappa; }
-    };
+    return kappaView;
   }
   
+  private final RealVariable kappaView = new RealVariable() {
+    @Override public void setValue(double newValue) { kappa = newValue; }
+    @Override  public double getValue()             { return kappa; }
+  };
+  
   /**
    * Used by the generic MH machinery to resample hyper-parameter nu
-   * @return
+   * @return The same object at each call, so that factors can
+   *   recognize it (see PointwiseFactor)
    */
   public RealVariable nuVariableView()
   {
-    return new RealVariable() {
-      @Override public void setValue(double newValue) { nu = newValue; }
-      @Override  public double getValue()             { return nu; }
-    };
+    return nuView;
   }
+  
+  private final RealVariable nuView = new RealVariable() {
+    @Override public void setValue(double newValue) { nu = newValue; }
+    @Override  public double getValue()             { return nu; }
+  };
 
   /**
    * Creates a deep cloned copy.
@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.math3.analysis.MultivariateFunction;
 import org.ejml.ops.CovarianceRandomDraw;
@@ -15,7 +16,6 @@ import briefj.BriefArrays;
 import briefj.BriefIO;
 import briefj.BriefMath;
 
-import polya.parametric.Parametrics;
 import polya.parametric.SufficientStatistic;
 
 
@@ -32,18 +32,21 @@ public class NIWs
    * hyperparameters. Typically used to plot the posterior (achieved via updated hyper-params and
    * PlotContour)
    * 
+   * Uses the closed form Student-t density, the parameters of which are 
+   * computed once. Note: the returned function is not thread safe.
+   * 
    * @param updated
    * @return
    */
   public static MultivariateFunction logMarginalAsFunctionOfData(final NIWHyperParameter updated)
   {
+    final NIWCholeskyPosterior predictive = NIWCholeskyPosterior.fromPrior(updated);
     return new MultivariateFunction() {
       
       @Override
       public double value(double[] point)
       {
-        TwoMomentsSufficientStatistics stat = TwoMomentsSufficientStatistics.fromOnePoint(point);
-        return Parametrics.logMarginal(CollapsedNIWModel.instance, updated, stat);
+        return predictive.logPredictive(point);
       }
     };
   }
@@ -148,18 +151,56 @@ public class NIWs
    * @return A map from datapoint index (row in file) to the sufficient stat of that row
    */
   public static Map<Integer,SufficientStatistic> loadFromCSVFile(File file)
+  {
+    return loadFromCSVFile(file, false);
+  }
+  
+  /**
+   * Same as loadFromCSVFile(file), optionally using PackedTwoMomentsSufficientStatistics,
+   * which have a smaller footprint and are updated without allocation.
+   * 
+   * @param file
+   * @param packedStatistics
+   * @return A map from datapoint index (row in file) to the sufficient stat of that row
+   */
+  public static Map<Integer,SufficientStatistic> loadFromCSVFile(File file, boolean packedStatistics)
   {
     Map<Integer,SufficientStatistic> result = new HashMap<Integer,SufficientStatistic>();
     int i = 0;
     for (List<String> datum : BriefIO.readLines(file).splitCSV())
     {
       double [] parsedDatum = BriefArrays.parseDoublesToArray(datum);
-      SufficientStatistic stat = TwoMomentsSufficientStatistics.fromOnePoint(parsedDatum);
+      SufficientStatistic stat = packedStatistics ? 
+          PackedTwoMomentsSufficientStatistics.fromOnePoint(parsedDatum) :
+          TwoMomentsSufficientStatistics.fromOnePoint(parsedDatum);
       result.put(i++, stat);
     }
     return result;
   }
 
+  /**
+   * Same format as loadFromCSVFile(), but streaming the file and parsing it 
+   * with several threads, directly into the primitive storage of a 
+   * StatisticArena. All the rows should have the same number of columns,
+   * which gives the dimensionality of the points. Blank lines are ignored.
+   * 
+   * @param file
+   * @param nThreads
+   * @return An arena where customer i is the point in row i (not counting blank lines)
+   */
+  public static StatisticArena loadFromCSVFileInParallel(File file, int nThreads)
+  {
+    ForkJoinPool pool = new ForkJoinPool(nThreads);
+    try
+    {
+      return new ParallelCSVParser(file, pool).parse();
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+  }
+
   /**
    * 
    * @param p1
@@ -0,0 +1,251 @@
+package polya.parametric.normal;
+
+import org.ejml.simple.SimpleMatrix;
+
+import polya.parametric.SufficientStatistic;
+
+
+/**
+ * Same as TwoMomentsSufficientStatistics, but backed by primitive arrays
+ * and updated in place, so that plusEqual() and minusEqual() do not allocate.
+ *
+ * Since the sum of outer products is symmetric, only its upper triangular part
+ * is stored, packed row by row in a double[] of length dim * (dim + 1) / 2.
+ *
+ * The statistic of a single point, created with fromOnePoint(), only stores
+ * the point; its outer product is computed on the fly until the object is
+ * modified.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class PackedTwoMomentsSufficientStatistics implements TwoMomentsStatistic
+{
+  /**
+   * The number of points this object is summarizing. (Different than dim())
+   */
+  private int numberOfPoints;
+
+  /**
+   * The sum of the vectors, \sum_i^numberOfPoints x
+   */
+  private final double [] sumOfValues;
+
+  /**
+   * Upper triangular part of the sum of the outerproducts, \sum_i^numberOfPoints x x^T,
+   * packed row by row. Null if this object summarizes a single point, in which
+   * case the outer product is computed from sumOfValues.
+   */
+  private double [] sumOfOuterProducts;
+
+  /**
+   * Create an object containing the sufficient statistic for a single data point
+   * @param point Array, with entry p denoting the value of the point for coordinate p
+   * @return
+   */
+  public static PackedTwoMomentsSufficientStatistics fromOnePoint(double [] point)
+  {
+    return new PackedTwoMomentsSufficientStatistics(1, point.clone(), null);
+  }
+
+  /**
+   * Create an object containing the sufficient statistic of zero points.
+   * @param dim The dimensionality of the points that will inserted in the future
+   * @return
+   */
+  public static PackedTwoMomentsSufficientStatistics fromEmpty(int dim)
+  {
+    return new PackedTwoMomentsSufficientStatistics(0, new double[dim], new double[packedSize(dim)]);
+  }
+
+  private PackedTwoMomentsSufficientStatistics(
+      int numberOfPoints,
+      double [] sumOfValues,
+      double [] sumOfOuterProducts)
+  {
+    if (sumOfValues.length < 1 || numberOfPoints < 0)
+      throw new RuntimeException();
+    this.numberOfPoints = numberOfPoints;
+    this.sumOfValues = sumOfValues;
+    this.sumOfOuterProducts = sumOfOuterProducts;
+  }
+
+  /**
+   *
+   * @param dim
+   * @return The number of entries in the upper triangular part of a dim by dim matrix
+   */
+  public static int packedSize(int dim)
+  {
+    return dim * (dim + 1) / 2;
+  }
+
+  /**
+   *
+   * @param dim
+   * @param i
+   * @param j
+   * @return Position of entry (i, j) in a packed upper triangular matrix
+   */
+  public static int packedIndex(int dim, int i, int j)
+  {
+    if (i > j)
+    {
+      int tmp = i;
+      i = j;
+      j = tmp;
+    }
+    return i * dim - i * (i - 1) / 2 + (j - i);
+  }
+
+  @Override
+  public int dim()
+  {
+    return sumOfValues.length;
+  }
+
+  @Override
+  public int numberOfPoints()
+  {
+    return numberOfPoints;
+  }
+
+  @Override
+  public double sumOfValues(int i)
+  {
+    return sumOfValues[i];
+  }
+
+  @Override
+  public double sumOfOuterProducts(int i, int j)
+  {
+    if (sumOfOuterProducts == null)
+      return sumOfValues[i] * sumOfValues[j];
+    return sumOfOuterProducts[packedIndex(dim(), i, j)];
+  }
+
+  /**
+   * Note: returns a copy.
+   */
+  @Override
+  public SimpleMatrix sumOfValues()
+  {
+    final int dim = dim();
+    SimpleMatrix result = new SimpleMatrix(dim, 1);
+    for (int i = 0; i < dim; i++)
+      result.set(i, 0, sumOfValues[i]);
+    return result;
+  }
+
+  /**
+   * Note: returns a copy.
+   */
+  @Override
+  public SimpleMatrix sumOfOuterProducts()
+  {
+    final int dim = dim();
+    SimpleMatrix result = new SimpleMatrix(dim, dim);
+    for (int i = 0; i < dim; i++)
+      for (int j = i; j < dim; j++)
+      {
+        double value = sumOfOuterProducts(i, j);
+        result.set(i, j, value);
+        result.set(j, i, value);
+      }
+    return result;
+  }
+
+  /**
+   * The sum of the vectors. Warning: not a copy, do not modify.
+   * @return
+   */
+  public double [] sumOfValuesArray()
+  {
+    return sumOfValues;
+  }
+
+  @Override
+  public void plusEqual(SufficientStatistic _other)
+  {
+    add(_other, 1);
+  }
+
+  @Override
+  public void minusEqual(SufficientStatistic _other)
+  {
+    add(_other, -1);
+  }
+
+  /**
+   * In place update, this += sign * other
+   * @param _other
+   * @param sign
+   */
+  private void add(SufficientStatistic _other, int sign)
+  {
+    TwoMomentsStatistic other = (TwoMomentsStatistic) _other;
+    final int dim = dim();
+    if (other.dim() != dim)
+      throw new RuntimeException();
+    materialize();
+    numberOfPoints += sign * other.numberOfPoints();
+    if (other instanceof PackedTwoMomentsSufficientStatistics)
+    {
+      PackedTwoMomentsSufficientStatistics packedOther = (PackedTwoMomentsSufficientStatistics) other;
+      final double [] otherValues = packedOther.sumOfValues;
+      final double [] otherOuter = packedOther.sumOfOuterProducts;
+      for (int i = 0; i < dim; i++)
+        sumOfValues[i] += sign * otherValues[i];
+      if (otherOuter == null)
+      {
+        int index = 0;
+        for (int i = 0; i < dim; i++)
+        {
+          final double scaled = sign * otherValues[i];
+          for (int j = i; j < dim; j++)
+            sumOfOuterProducts[index++] += scaled * otherValues[j];
+        }
+      }
+      else
+        for (int index = 0; index < otherOuter.length; index++)
+          sumOfOuterProducts[index] += sign * otherOuter[index];
+      return;
+    }
+    int index = 0;
+    for (int i = 0; i < dim; i++)
+    {
+      sumOfValues[i] += sign * other.sumOfValues(i);
+      for (int j = i; j < dim; j++)
+        sumOfOuterProducts[index++] += sign * other.sumOfOuterProducts(i, j);
+    }
+  }
+
+  /**
+   * Creates the explicit storage for the outer products, if needed.
+   */
+  private void materialize()
+  {
+    if (sumOfOuterProducts != null)
+      return;
+    final int dim = dim();
+    sumOfOuterProducts = new double[packedSize(dim)];
+    int index = 0;
+    for (int i = 0; i < dim; i++)
+      for (int j = i; j < dim; j++)
+        sumOfOuterProducts[index++] = sumOfValues[i] * sumOfValues[j];
+  }
+
+  @Override
+  public SufficientStatistic copy()
+  {
+    PackedTwoMomentsSufficientStatistics copy = PackedTwoMomentsSufficientStatistics.fromEmpty(dim());
+    copy.plusEqual(this);
+    return copy;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "PackedTwoMomentsSufficientStatistics [numberOfPoints=" + numberOfPoints + "]";
+  }
+}
@@ -0,0 +1,365 @@
+package polya.parametric.normal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Reads a CSV file of points (one point per row, one coordinate per column,
+ * no header) into a StatisticArena, using several threads. See
+ * NIWs.loadFromCSVFileInParallel().
+ *
+ * The file is split into byte ranges, each owning the rows that start in it.
+ * Two passes are made over the ranges, in parallel:
+ *
+ * 1. count the rows of each range, and check that they all have the same
+ *    number of columns; this gives the size of the arena, and the index
+ *    of the first point of each range
+ * 2. parse the coordinates, writing them directly in the arena
+ *
+ * The file is read through positional reads in a small buffer per range,
+ * so it is never held in memory. Numbers with at most 15 significant digits
+ * and a small exponent are parsed without allocation, with the same result
+ * as Double.parseDouble() (one correctly rounded operation on exact
+ * operands); other numbers fall back to Double.parseDouble().
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+class ParallelCSVParser
+{
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Ranges smaller than this are not split further.
+   */
+  private static final long MIN_RANGE_SIZE = 1 << 20;
+
+  private static final double [] POWERS_OF_TEN = new double[23];
+  static
+  {
+    POWERS_OF_TEN[0] = 1.0;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++)
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+  }
+
+  private final File file;
+  private final ForkJoinPool pool;
+
+  ParallelCSVParser(File file, ForkJoinPool pool)
+  {
+    this.file = file;
+    this.pool = pool;
+  }
+
+  StatisticArena parse()
+  {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+    {
+      final long size = channel.size();
+      final int nRanges = (int) Math.max(1, Math.min(4L * pool.getParallelism(), size / MIN_RANGE_SIZE));
+      List<Range> ranges = new ArrayList<Range>();
+      for (int r = 0; r < nRanges; r++)
+        ranges.add(new Range(channel, size * r / nRanges, size * (r + 1) / nRanges));
+
+      // pass 1
+      invokeAll(ranges);
+      int dim = -1;
+      long nPoints = 0;
+      for (Range range : ranges)
+      {
+        if (range.nRows == 0)
+          continue;
+        if (dim == -1)
+          dim = range.dim;
+        else if (range.dim != dim)
+          throw new RuntimeException("Inconsistent number of columns: " + dim + " and " + range.dim);
+        range.firstPoint = nPoints;
+        nPoints += range.nRows;
+      }
+      if (dim == -1)
+        throw new RuntimeException("Empty dataset: " + file);
+      if (nPoints > Integer.MAX_VALUE)
+        throw new RuntimeException("Too many points: " + nPoints);
+
+      // pass 2
+      StatisticArena result = new StatisticArena(dim, (int) nPoints, false);
+      for (Range range : ranges)
+      {
+        range.dim = dim;
+        range.target = result;
+      }
+      invokeAll(ranges);
+      return result;
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void invokeAll(List<Range> ranges)
+  {
+    try
+    {
+      for (Future<Object> future : pool.invokeAll(ranges))
+        future.get();
+    }
+    catch (InterruptedException e)
+    {
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e)
+    {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * The rows starting in [start, end). When target is null, counts the rows,
+   * otherwise parses them in target.
+   */
+  private class Range implements Callable<Object>
+  {
+    private final FileChannel channel;
+    private final long start, end;
+
+    private int dim = -1;
+    private long nRows = 0;
+    private long firstPoint;
+    private StatisticArena target = null;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * File position of buffer.get(0)
+     */
+    private long bufferStart;
+
+    private byte [] token = new byte[32];
+    private int tokenLength;
+    private double [] point;
+
+    private Range(FileChannel channel, long start, long end)
+    {
+      this.channel = channel;
+      this.start = start;
+      this.end = end;
+      // nothing read yet
+      buffer.limit(0);
+    }
+
+    @Override
+    public Object call() throws IOException
+    {
+      long position = start;
+      // a row starting before start belongs to the previous range
+      if (start > 0 && byteAt(start - 1) != '\n')
+        position = skipLine(start);
+
+      final boolean parsing = target != null;
+      long row = firstPoint;
+      if (parsing)
+        point = new double[dim];
+      while (position < end)
+      {
+        if (isBlankLine(position))
+          position = skipLine(position);
+        else if (parsing)
+          position = parseLine(position, row++);
+        else
+          position = countLine(position);
+      }
+      return null;
+    }
+
+    private boolean isBlankLine(long position) throws IOException
+    {
+      int b;
+      while ((b = byteAt(position)) != -1 && b != '\n')
+      {
+        if (!isSpace(b))
+          return false;
+        position++;
+      }
+      return true;
+    }
+
+    /**
+     * @return The position after the end of the line
+     */
+    private long countLine(long position) throws IOException
+    {
+      int nColumns = 1;
+      int b;
+      while ((b = byteAt(position)) != -1 && b != '\n')
+      {
+        if (b == ',')
+          nColumns++;
+        position++;
+      }
+      if (dim == -1)
+        dim = nColumns;
+      else if (nColumns != dim)
+        throw new RuntimeException("Row with " + nColumns + " columns, expected " + dim + " (byte " + position + ")");
+      nRows++;
+      return position + 1;
+    }
+
+    /**
+     * @return The position after the end of the line
+     */
+    private long parseLine(long position, long row) throws IOException
+    {
+      int b;
+      for (int d = 0; d < dim; d++)
+      {
+        tokenLength = 0;
+        while ((b = byteAt(position)) != -1 && b != '\n' && b != ',')
+        {
+          if (!isSpace(b))
+            appendToToken(b);
+          position++;
+        }
+        point[d] = parseToken();
+        position++;
+      }
+      target.setPoint((int) row, point);
+      return position;
+    }
+
+    private long skipLine(long position) throws IOException
+    {
+      int b;
+      while ((b = byteAt(position)) != -1 && b != '\n')
+        position++;
+      return position + 1;
+    }
+
+    private void appendToToken(int b)
+    {
+      if (tokenLength == token.length)
+        token = Arrays.copyOf(token, 2 * token.length);
+      token[tokenLength++] = (byte) b;
+    }
+
+    private double parseToken()
+    {
+      int i = 0;
+      boolean negative = false;
+      if (i < tokenLength && (token[i] == '-' || token[i] == '+'))
+        negative = token[i++] == '-';
+      long mantissa = 0;
+      int nDigits = 0, exponent = 0;
+      boolean anyDigit = false;
+      for (; i < tokenLength && isDigit(token[i]); i++)
+      {
+        anyDigit = true;
+        if (mantissa == 0 && token[i] == '0')
+          continue;
+        if (++nDigits > 15)
+          return fallback();
+        mantissa = 10 * mantissa + (token[i] - '0');
+      }
+      if (i < tokenLength && token[i] == '.')
+        for (i++; i < tokenLength && isDigit(token[i]); i++)
+        {
+          anyDigit = true;
+          exponent--;
+          if (mantissa == 0 && token[i] == '0')
+            continue;
+          if (++nDigits > 15)
+            return fallback();
+          mantissa = 10 * mantissa + (token[i] - '0');
+        }
+      if (!anyDigit)
+        return fallback();
+      if (i < tokenLength && (token[i] == 'e' || token[i] == 'E'))
+      {
+        i++;
+        boolean negativeExponent = false;
+        if (i < tokenLength && (token[i] == '-' || token[i] == '+'))
+          negativeExponent = token[i++] == '-';
+        if (i == tokenLength)
+          return fallback();
+        int explicit = 0;
+        for (; i < tokenLength && isDigit(token[i]); i++)
+        {
+          explicit = 10 * explicit + (token[i] - '0');
+          if (explicit > 1000)
+            return fallback();
+        }
+        exponent += negativeExponent ? -explicit : explicit;
+      }
+      if (i != tokenLength)
+        return fallback();
+      // mantissa < 10^15 < 2^53 is exact, and so are the powers of ten up to 10^22
+      double result;
+      if (mantissa == 0)
+        result = 0.0;
+      else if (exponent >= 0 && exponent < POWERS_OF_TEN.length)
+        result = mantissa * POWERS_OF_TEN[exponent];
+      else if (exponent < 0 && -exponent < POWERS_OF_TEN.length)
+        result = mantissa / POWERS_OF_TEN[-exponent];
+      else
+        return fallback();
+      return negative ? -result : result;
+    }
+
+    private double fallback()
+    {
+      String string = new String(token, 0, tokenLength, StandardCharsets.US_ASCII);
+      try
+      {
+        return Double.parseDouble(string);
+      }
+      catch (NumberFormatException e)
+      {
+        throw new RuntimeException("Could not parse: " + string, e);
+      }
+    }
+
+    /**
+     * @return The byte at the given position of the file, or -1 after the end of the file
+     */
+    private int byteAt(long position) throws IOException
+    {
+      if (position < bufferStart || position >= bufferStart + buffer.limit())
+      {
+        fill(position);
+        if (buffer.limit() == 0)
+          return -1;
+      }
+      return buffer.get((int) (position - bufferStart)) & 0xFF;
+    }
+
+    private void fill(long position) throws IOException
+    {
+      buffer.clear();
+      bufferStart = position;
+      while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {}
+      buffer.flip();
+    }
+  }
+
+  private static boolean isSpace(int b)
+  {
+    return b == ' ' || b == '\t' || b == '\r';
+  }
+
+  private static boolean isDigit(byte b)
+  {
+    return b >= '0' && b <= '9';
+  }
+}
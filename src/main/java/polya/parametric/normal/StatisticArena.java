@@ -0,0 +1,471 @@
+package polya.parametric.normal;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.ejml.simple.SimpleMatrix;
+
+import polya.parametric.SufficientStatistic;
+
+
+/**
+ * Stores the two-moment statistics of all customers and all tables in
+ * contiguous slabs of doubles, instead of one object (and several arrays)
+ * per statistic scattered across the heap.
+ *
+ * - Customers: the points, row after row, in one slab of nCustomers * dim doubles
+ *   (or in several slabs of consecutive points, for example when the points are 
+ *   memory mapped from a file, see BinaryDatasets). Since a customer is a single 
+ *   point, its outer product is computed on the fly.
+ * - Tables: one record per table slot, [n, sum of values, packed upper triangular
+ *   sum of outer products]. Records are stored in pages of consecutive slots, so that
+ *   the number of slots can grow without copying the existing ones.
+ *
+ * The slabs can be allocated off-heap (ByteBuffer.allocateDirect) to reduce
+ * the pressure on the garbage collector.
+ *
+ * Statistics are accessed via views (customerStatistic(), tableStatistic()), which
+ * implement TwoMomentsStatistic and hence can be used by CollapsedNIWModel. See
+ * DenseCRPState for a seating arrangement that keeps its table statistics in an
+ * arena.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class StatisticArena
+{
+  /**
+   * Approximate number of doubles per page of table records.
+   */
+  private static final int PAGE_SIZE = 1 << 16;
+
+  private final int dim, nCustomers;
+  private final boolean offHeap;
+
+  /**
+   * Number of doubles in a table record, [n, sum of values, packed sum of outer products]
+   */
+  private final int recordSize;
+  private final int tablesPerPage;
+
+  /**
+   * Points, customer after customer, pointsPerPage customers per page.
+   */
+  private final DoubleBuffer [] pointPages;
+  private final int pointsPerPage;
+
+  private DoubleBuffer [] tablePages = new DoubleBuffer[0];
+
+  /**
+   * Views are created once and reused.
+   */
+  private PointStatistic [] pointViews;
+  private TableStatistic [] tableViews = new TableStatistic[0];
+
+  /**
+   * Creates an arena where all points are initially zero. See setPoint().
+   *
+   * @param dim Dimensionality of each point
+   * @param nCustomers
+   * @param offHeap Whether to allocate the slabs using direct buffers
+   */
+  public StatisticArena(int dim, int nCustomers, boolean offHeap)
+  {
+    this(dim, nCustomers, new DoubleBuffer[]{allocate((long) dim * nCustomers, offHeap)}, Math.max(1, nCustomers), offHeap);
+  }
+
+  /**
+   * Creates an arena containing the provided customers.
+   *
+   * @param data Statistics of single points, keyed by 0, 1, ..., n-1, for
+   *   example as created by NIWs.loadFromCSVFile()
+   * @param offHeap Whether to allocate the slabs using direct buffers
+   * @return
+   */
+  public static StatisticArena fromStatistics(Map<Integer,SufficientStatistic> data, boolean offHeap)
+  {
+    if (data.isEmpty())
+      throw new RuntimeException("Empty dataset.");
+    final int dim = ((TwoMomentsStatistic) data.values().iterator().next()).dim();
+    StatisticArena result = new StatisticArena(dim, data.size(), offHeap);
+    double [] point = new double[dim];
+    for (Integer customer : data.keySet())
+    {
+      TwoMomentsStatistic stat = (TwoMomentsStatistic) data.get(customer);
+      if (stat.numberOfPoints() != 1 || stat.dim() != dim)
+        throw new RuntimeException("Expected statistics of single points of dimension " + dim);
+      for (int d = 0; d < dim; d++)
+        point[d] = stat.sumOfValues(d);
+      result.setPoint(customer, point);
+    }
+    return result;
+  }
+
+  /**
+   * 
+   * @param dim
+   * @param nCustomers
+   * @param pointPages Page p holds the points of customers p * pointsPerPage, 
+   *   p * pointsPerPage + 1, ..., row after row
+   * @param pointsPerPage
+   * @param offHeap Whether to allocate the table slabs using direct buffers
+   */
+  StatisticArena(int dim, int nCustomers, DoubleBuffer [] pointPages, int pointsPerPage, boolean offHeap)
+  {
+    if (dim < 1 || nCustomers < 0 || pointsPerPage < 1 || (long) pointPages.length * pointsPerPage < nCustomers)
+      throw new RuntimeException();
+    for (int p = 0; p < pointPages.length; p++)
+      if (pointPages[p].capacity() < (long) dim * Math.min(pointsPerPage, nCustomers - (long) p * pointsPerPage))
+        throw new RuntimeException();
+    this.dim = dim;
+    this.nCustomers = nCustomers;
+    this.pointPages = pointPages;
+    this.pointsPerPage = pointsPerPage;
+    this.offHeap = offHeap;
+    this.recordSize = 1 + dim + PackedTwoMomentsSufficientStatistics.packedSize(dim);
+    this.tablesPerPage = Math.max(1, PAGE_SIZE / recordSize);
+    this.pointViews = new PointStatistic[nCustomers];
+  }
+
+  private static DoubleBuffer allocate(long size, boolean offHeap)
+  {
+    if (offHeap)
+    {
+      if (size * 8 > Integer.MAX_VALUE)
+        throw new RuntimeException("Slab too large for a direct buffer: " + size + " doubles");
+      return ByteBuffer.allocateDirect((int) size * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+    if (size > Integer.MAX_VALUE)
+      throw new RuntimeException("Slab too large for an array: " + size + " doubles");
+    return DoubleBuffer.wrap(new double[(int) size]);
+  }
+
+  /**
+   *
+   * @return The dimensionality of each point
+   */
+  public int dim()
+  {
+    return dim;
+  }
+
+  /**
+   *
+   * @return Number of customers (points) stored in this arena
+   */
+  public int nCustomers()
+  {
+    return nCustomers;
+  }
+
+  /**
+   *
+   * @param customer
+   * @param point
+   */
+  public void setPoint(int customer, double [] point)
+  {
+    if (point.length != dim)
+      throw new RuntimeException();
+    final DoubleBuffer page = pointPages[customer / pointsPerPage];
+    final int offset = (customer % pointsPerPage) * dim;
+    for (int d = 0; d < dim; d++)
+      page.put(offset + d, point[d]);
+  }
+
+  /**
+   *
+   * @param customer
+   * @param coordinate
+   * @return
+   */
+  public double point(int customer, int coordinate)
+  {
+    return pointPages[customer / pointsPerPage].get((customer % pointsPerPage) * dim + coordinate);
+  }
+
+  /**
+   *
+   * @param customer
+   * @return A read-only view on the statistic of the given customer
+   */
+  public TwoMomentsStatistic customerStatistic(int customer)
+  {
+    if (customer < 0 || customer >= nCustomers)
+      throw new RuntimeException("Unknown customer: " + customer);
+    PointStatistic result = pointViews[customer];
+    if (result == null)
+    {
+      result = new PointStatistic(customer);
+      pointViews[customer] = result;
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @return A read-only map view from customer to statistic, as expected by CRPState
+   */
+  public Map<Integer,SufficientStatistic> customerStatistics()
+  {
+    return new AbstractMap<Integer,SufficientStatistic>() {
+      @Override
+      public SufficientStatistic get(Object key)
+      {
+        if (!containsKey(key))
+          return null;
+        return customerStatistic((Integer) key);
+      }
+
+      @Override
+      public boolean containsKey(Object key)
+      {
+        if (!(key instanceof Integer))
+          return false;
+        int customer = (Integer) key;
+        return customer >= 0 && customer < nCustomers;
+      }
+
+      @Override
+      public int size()
+      {
+        return nCustomers;
+      }
+
+      @Override
+      public Set<Map.Entry<Integer,SufficientStatistic>> entrySet()
+      {
+        return new AbstractSet<Map.Entry<Integer,SufficientStatistic>>() {
+          @Override
+          public Iterator<Map.Entry<Integer,SufficientStatistic>> iterator()
+          {
+            return new Iterator<Map.Entry<Integer,SufficientStatistic>>() {
+              private int current = 0;
+              @Override public boolean hasNext() { return current < nCustomers; }
+              @Override public Map.Entry<Integer,SufficientStatistic> next()
+              {
+                if (!hasNext())
+                  throw new NoSuchElementException();
+                int customer = current++;
+                return new SimpleImmutableEntry<Integer,SufficientStatistic>(customer, customerStatistic(customer));
+              }
+              @Override public void remove() { throw new UnsupportedOperationException(); }
+            };
+          }
+
+          @Override
+          public int size()
+          {
+            return nCustomers;
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * The record of a table slot, growing the slabs if needed. Note that
+   * the record is not cleared, see TableStatistic.clear().
+   *
+   * @param slot
+   * @return A view on the record of the given table slot
+   */
+  public TableStatistic tableStatistic(int slot)
+  {
+    if (slot >= tableViews.length)
+      growTables(slot + 1);
+    TableStatistic result = tableViews[slot];
+    if (result == null)
+    {
+      result = new TableStatistic(slot);
+      tableViews[slot] = result;
+    }
+    return result;
+  }
+
+  private void growTables(int minCapacity)
+  {
+    final int nPages = (minCapacity + tablesPerPage - 1) / tablesPerPage;
+    final int oldNPages = tablePages.length;
+    tablePages = Arrays.copyOf(tablePages, Math.max(nPages, 2 * oldNPages));
+    for (int p = oldNPages; p < tablePages.length; p++)
+      tablePages[p] = allocate((long) tablesPerPage * recordSize, offHeap);
+    tableViews = Arrays.copyOf(tableViews, tablePages.length * tablesPerPage);
+  }
+
+  /**
+   * A read-only view on the statistic of a single customer.
+   */
+  private class PointStatistic implements TwoMomentsStatistic
+  {
+    private final DoubleBuffer page;
+    private final int offset;
+
+    private PointStatistic(int customer)
+    {
+      this.page = pointPages[customer / pointsPerPage];
+      this.offset = (customer % pointsPerPage) * dim;
+    }
+
+    @Override public int dim()             { return dim; }
+    @Override public int numberOfPoints()  { return 1; }
+    @Override public double sumOfValues(int i) { return page.get(offset + i); }
+
+    @Override
+    public double sumOfOuterProducts(int i, int j)
+    {
+      return page.get(offset + i) * page.get(offset + j);
+    }
+
+    @Override public SimpleMatrix sumOfValues()       { return copy().sumOfValues(); }
+    @Override public SimpleMatrix sumOfOuterProducts() { return copy().sumOfOuterProducts(); }
+
+    @Override
+    public void plusEqual(SufficientStatistic other)
+    {
+      throw new UnsupportedOperationException("Customer statistics are read-only");
+    }
+
+    @Override
+    public void minusEqual(SufficientStatistic other)
+    {
+      throw new UnsupportedOperationException("Customer statistics are read-only");
+    }
+
+    @Override
+    public PackedTwoMomentsSufficientStatistics copy()
+    {
+      PackedTwoMomentsSufficientStatistics copy = PackedTwoMomentsSufficientStatistics.fromEmpty(dim);
+      copy.plusEqual(this);
+      return copy;
+    }
+
+    private StatisticArena arena()
+    {
+      return StatisticArena.this;
+    }
+
+    @Override
+    public String toString()
+    {
+      return "PointStatistic [offset=" + offset + "]";
+    }
+  }
+
+  /**
+   * A view on the record of a table slot, modified in place.
+   */
+  public class TableStatistic implements TwoMomentsStatistic
+  {
+    private final DoubleBuffer page;
+    private final int offset;
+
+    private TableStatistic(int slot)
+    {
+      this.page = tablePages[slot / tablesPerPage];
+      this.offset = (slot % tablesPerPage) * recordSize;
+    }
+
+    /**
+     * Sets this record to the statistic of zero points.
+     */
+    public void clear()
+    {
+      for (int i = 0; i < recordSize; i++)
+        page.put(offset + i, 0.0);
+    }
+
+    @Override public int dim()            { return dim; }
+    @Override public int numberOfPoints() { return (int) page.get(offset); }
+    @Override public double sumOfValues(int i) { return page.get(offset + 1 + i); }
+
+    @Override
+    public double sumOfOuterProducts(int i, int j)
+    {
+      return page.get(offset + 1 + dim + PackedTwoMomentsSufficientStatistics.packedIndex(dim, i, j));
+    }
+
+    @Override public SimpleMatrix sumOfValues()       { return copy().sumOfValues(); }
+    @Override public SimpleMatrix sumOfOuterProducts() { return copy().sumOfOuterProducts(); }
+
+    @Override
+    public void plusEqual(SufficientStatistic other)
+    {
+      add(other, 1);
+    }
+
+    @Override
+    public void minusEqual(SufficientStatistic other)
+    {
+      add(other, -1);
+    }
+
+    private void add(SufficientStatistic _other, int sign)
+    {
+      TwoMomentsStatistic other = (TwoMomentsStatistic) _other;
+      if (other.dim() != dim)
+        throw new RuntimeException();
+      page.put(offset, page.get(offset) + sign * other.numberOfPoints());
+      final int valuesOffset = offset + 1, outerOffset = offset + 1 + dim;
+      if (other instanceof PointStatistic && ((PointStatistic) other).arena() == StatisticArena.this)
+      {
+        final DoubleBuffer pointPage = ((PointStatistic) other).page;
+        final int pointOffset = ((PointStatistic) other).offset;
+        int index = outerOffset;
+        for (int i = 0; i < dim; i++)
+        {
+          final double xi = pointPage.get(pointOffset + i);
+          page.put(valuesOffset + i, page.get(valuesOffset + i) + sign * xi);
+          final double scaled = sign * xi;
+          for (int j = i; j < dim; j++, index++)
+            page.put(index, page.get(index) + scaled * pointPage.get(pointOffset + j));
+        }
+        return;
+      }
+      if (other instanceof TableStatistic && ((TableStatistic) other).arena() == StatisticArena.this)
+      {
+        final TableStatistic otherTable = (TableStatistic) other;
+        for (int i = 1; i < recordSize; i++)
+          page.put(offset + i, page.get(offset + i) + sign * otherTable.page.get(otherTable.offset + i));
+        return;
+      }
+      int index = outerOffset;
+      for (int i = 0; i < dim; i++)
+      {
+        page.put(valuesOffset + i, page.get(valuesOffset + i) + sign * other.sumOfValues(i));
+        for (int j = i; j < dim; j++, index++)
+          page.put(index, page.get(index) + sign * other.sumOfOuterProducts(i, j));
+      }
+    }
+
+    private StatisticArena arena()
+    {
+      return StatisticArena.this;
+    }
+
+    /**
+     * Note: returns a detached copy, not backed by the arena.
+     */
+    @Override
+    public PackedTwoMomentsSufficientStatistics copy()
+    {
+      PackedTwoMomentsSufficientStatistics copy = PackedTwoMomentsSufficientStatistics.fromEmpty(dim);
+      copy.plusEqual(this);
+      return copy;
+    }
+
+    @Override
+    public String toString()
+    {
+      return "TableStatistic [numberOfPoints=" + numberOfPoints() + "]";
+    }
+  }
+}
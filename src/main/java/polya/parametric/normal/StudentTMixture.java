@@ -0,0 +1,312 @@
+package polya.parametric.normal;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+
+
+/**
+ * The log density of a weighted sum of multivariate Student-t densities,
+ * such as the NIW predictive distributions of the tables, averaged over
+ * samples:
+ *
+ * log(exp(logW1) t1(x) + exp(logW2) t2(x) + ... )
+ *
+ * Same value as a LogAverageFunction of NIWs.logMarginalAsFunctionOfData()
+ * functions, but each component is compiled once, when added, into
+ * primitive arrays: a log offset (the log weight plus the log
+ * normalization), an exponent and a whitening matrix W, lower triangular,
+ * such that
+ *
+ * log t(x) + logW = offset - exponent log(1 + |W (x - mean)|^2)
+ *
+ * so that evaluating a component at a point is a triangular matrix-vector
+ * product, without allocation. Mixtures collected at different samples
+ * are flattened with addAll().
+ *
+ * value() is thread safe, and tabulate() evaluates a two dimensional grid
+ * concurrently, component by component over each row of the grid.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public class StudentTMixture implements MultivariateFunction
+{
+  /**
+   * Number of rows of the grid evaluated by each task in tabulate().
+   */
+  private static final int ROWS_PER_TASK = 4;
+
+  private final int dim;
+  private int nComponents = 0;
+
+  /**
+   * Indexed by component; the means and whitening matrices are
+   * contiguous blocks of size dim and dim * dim (row major).
+   */
+  private double [] logOffsets = new double[16], exponents = new double[16];
+  private double [] means, whitenings;
+
+  /**
+   *
+   * @param dim The dimensionality of the points
+   */
+  public StudentTMixture(int dim)
+  {
+    this.dim = dim;
+    this.means = new double[16 * dim];
+    this.whitenings = new double[16 * dim * dim];
+  }
+
+  /**
+   * Adds the predictive distribution of the provided NIW posterior.
+   *
+   * @param logWeight
+   * @param posterior
+   */
+  public void add(double logWeight, NIWCholeskyPosterior posterior)
+  {
+    if (posterior.dim() != dim)
+      throw new RuntimeException();
+    ensureCapacity(nComponents + 1);
+    final int k = nComponents;
+    final double dof = posterior.degreesOfFreedom();
+    final double scale = (posterior.kappa() + 1.0) / (posterior.kappa() * dof);
+    logOffsets[k] = logWeight
+      + NIWCholeskyPosterior.logGamma((dof + dim) / 2.0) - NIWCholeskyPosterior.logGamma(dof / 2.0)
+      - dim / 2.0 * Math.log(dof * Math.PI)
+      - dim / 2.0 * Math.log(scale)
+      - posterior.logDeterminant() / 2.0;
+    exponents[k] = (dof + dim) / 2.0;
+    for (int i = 0; i < dim; i++)
+      means[k * dim + i] = posterior.mean(i);
+    // W = L^{-1} / sqrt(scale dof), by forward substitution on the columns of the identity
+    final int offset = k * dim * dim;
+    final double factor = 1.0 / Math.sqrt(scale * dof);
+    for (int j = 0; j < dim; j++)
+      for (int i = j; i < dim; i++)
+      {
+        double current = i == j ? factor : 0.0;
+        for (int l = j; l < i; l++)
+          current -= posterior.cholesky(i, l) * whitenings[offset + l * dim + j];
+        whitenings[offset + i * dim + j] = current / posterior.cholesky(i, i);
+      }
+    nComponents++;
+  }
+
+  /**
+   * Adds all the components of other, with their log weights incremented
+   * by logWeight.
+   *
+   * @param logWeight
+   * @param other
+   */
+  public void addAll(double logWeight, StudentTMixture other)
+  {
+    if (other.dim != dim)
+      throw new RuntimeException();
+    ensureCapacity(nComponents + other.nComponents);
+    for (int k = 0; k < other.nComponents; k++)
+    {
+      logOffsets[nComponents + k] = logWeight + other.logOffsets[k];
+      exponents[nComponents + k] = other.exponents[k];
+    }
+    System.arraycopy(other.means, 0, means, nComponents * dim, other.nComponents * dim);
+    System.arraycopy(other.whitenings, 0, whitenings, nComponents * dim * dim, other.nComponents * dim * dim);
+    nComponents += other.nComponents;
+  }
+
+  private void ensureCapacity(int capacity)
+  {
+    if (capacity <= logOffsets.length)
+      return;
+    final int newCapacity = Math.max(capacity, 2 * logOffsets.length);
+    logOffsets = Arrays.copyOf(logOffsets, newCapacity);
+    exponents = Arrays.copyOf(exponents, newCapacity);
+    means = Arrays.copyOf(means, newCapacity * dim);
+    whitenings = Arrays.copyOf(whitenings, newCapacity * dim * dim);
+  }
+
+  /**
+   *
+   */
+  @Override
+  public double value(double[] point)
+  {
+    if (point.length != dim)
+      throw new RuntimeException();
+    double max = Double.NEGATIVE_INFINITY, sum = 0.0;
+    for (int k = 0; k < nComponents; k++)
+    {
+      final int meanOffset = k * dim, offset = k * dim * dim;
+      double squaredNorm = 0.0;
+      for (int i = 0; i < dim; i++)
+      {
+        double current = 0.0;
+        for (int j = 0; j <= i; j++)
+          current += whitenings[offset + i * dim + j] * (point[j] - means[meanOffset + j]);
+        squaredNorm += current * current;
+      }
+      final double logDensity = logOffsets[k] - exponents[k] * Math.log1p(squaredNorm);
+      // running log sum exp
+      if (logDensity > max)
+      {
+        sum = sum * Math.exp(max - logDensity) + 1.0;
+        max = logDensity;
+      }
+      else if (logDensity > Double.NEGATIVE_INFINITY)
+        sum += Math.exp(logDensity - max);
+    }
+    return max + Math.log(sum);
+  }
+
+  /**
+   * Evaluates this function, which should be two dimensional, on the
+   * nPointsPerAxis by nPointsPerAxis regular grid covering
+   * [-radius, radius]^2, with nThreads threads.
+   *
+   * @param radius
+   * @param nPointsPerAxis
+   * @param nThreads
+   * @return A function interpolating bilinearly the values on the grid,
+   *   and falling back to value() outside of the grid, to be plotted with
+   *   PlotContour.fromFunction() and centerToZero(radius)
+   */
+  public MultivariateFunction tabulate(double radius, int nPointsPerAxis, int nThreads)
+  {
+    if (dim != 2 || nPointsPerAxis < 2)
+      throw new RuntimeException("Only two dimensional functions can be tabulated.");
+    final double [][] values = new double[nPointsPerAxis][nPointsPerAxis];
+    final double [] coordinates = new double[nPointsPerAxis];
+    for (int i = 0; i < nPointsPerAxis; i++)
+      coordinates[i] = -radius + 2.0 * radius * i / (nPointsPerAxis - 1);
+    ForkJoinPool pool = new ForkJoinPool(nThreads);
+    try
+    {
+      pool.invoke(new GridTask(coordinates, values, 0, nPointsPerAxis));
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+    return new Tabulated(radius, values);
+  }
+
+  /**
+   * See tabulate()
+   */
+  private class Tabulated implements MultivariateFunction
+  {
+    private final double radius, spacing;
+    private final double [][] values;
+
+    private Tabulated(double radius, double [][] values)
+    {
+      this.radius = radius;
+      this.spacing = 2.0 * radius / (values.length - 1);
+      this.values = values;
+    }
+
+    @Override
+    public double value(double [] point)
+    {
+      final double
+        x = (point[0] + radius) / spacing,
+        y = (point[1] + radius) / spacing;
+      final int last = values.length - 1;
+      if (!(x >= 0.0 && x <= last && y >= 0.0 && y <= last))
+        return StudentTMixture.this.value(point);
+      final int
+        i = Math.min((int) x, last - 1),
+        j = Math.min((int) y, last - 1);
+      final double u = x - i, v = y - j;
+      return
+        (1.0 - u) * ((1.0 - v) * values[i][j]     + v * values[i][j + 1]) +
+               u  * ((1.0 - v) * values[i + 1][j] + v * values[i + 1][j + 1]);
+    }
+  }
+
+  /**
+   * Evaluates the rows [start, end) of the grid, one component at a time
+   * across the row, keeping a running log sum exp for each point.
+   */
+  private class GridTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+    private final double [] coordinates;
+    private final double [][] values;
+    private final int start, end;
+
+    private GridTask(double [] coordinates, double [][] values, int start, int end)
+    {
+      this.coordinates = coordinates;
+      this.values = values;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (end - start <= ROWS_PER_TASK)
+      {
+        final int n = coordinates.length;
+        final double [] sums = new double[n];
+        for (int r = start; r < end; r++)
+        {
+          final double [] row = values[r];
+          Arrays.fill(row, Double.NEGATIVE_INFINITY);
+          Arrays.fill(sums, 0.0);
+          final double x = coordinates[r];
+          for (int k = 0; k < nComponents; k++)
+          {
+            final int offset = 4 * k;
+            final double
+              w00 = whitenings[offset], w10 = whitenings[offset + 2], w11 = whitenings[offset + 3],
+              logOffset = logOffsets[k], exponent = exponents[k];
+            final double dx = x - means[2 * k], z0 = w00 * dx, z0Squared = z0 * z0, partial = w10 * dx;
+            for (int c = 0; c < n; c++)
+            {
+              final double z1 = partial + w11 * (coordinates[c] - means[2 * k + 1]);
+              final double logDensity = logOffset - exponent * Math.log1p(z0Squared + z1 * z1);
+              if (logDensity > row[c])
+              {
+                sums[c] = sums[c] * Math.exp(row[c] - logDensity) + 1.0;
+                row[c] = logDensity;
+              }
+              else if (logDensity > Double.NEGATIVE_INFINITY)
+                sums[c] += Math.exp(logDensity - row[c]);
+            }
+          }
+          for (int c = 0; c < n; c++)
+            row[c] += Math.log(sums[c]);
+        }
+      }
+      else
+      {
+        final int middle = (start + end) / 2;
+        invokeAll(new GridTask(coordinates, values, start, middle), new GridTask(coordinates, values, middle, end));
+      }
+    }
+  }
+
+  /**
+   *
+   * @return Number of Student-t densities in the sum
+   */
+  public int nComponents()
+  {
+    return nComponents;
+  }
+
+  /**
+   *
+   * @return The dimensionality of the points
+   */
+  public int dim()
+  {
+    return dim;
+  }
+}
@@ -0,0 +1,55 @@
+package polya.parametric.normal;
+
+import org.ejml.simple.SimpleMatrix;
+
+import polya.parametric.SufficientStatistic;
+
+
+/**
+ * A sufficient statistic for the first two moments, i.e. the number
+ * of points, the sum of the points and the sum of their outer products.
+ *
+ * This is what CollapsedNIWModel needs to know about the data. See
+ * TwoMomentsSufficientStatistics (EJML-based) and
+ * PackedTwoMomentsSufficientStatistics (primitive array based) for
+ * implementations. Implementations should accept each other in
+ * plusEqual() and minusEqual().
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ *
+ */
+public interface TwoMomentsStatistic extends SufficientStatistic
+{
+  /**
+   *
+   * @return The dimensionality of each point summarized by this object
+   */
+  public int dim();
+
+  /**
+   *
+   * @param i
+   * @return Coordinate i of the sum of the vectors, \sum_i^numberOfPoints x
+   */
+  public double sumOfValues(int i);
+
+  /**
+   *
+   * @param i
+   * @param j
+   * @return Entry (i, j) of the sum of the outerproducts, \sum_i^numberOfPoints x x^T
+   */
+  public double sumOfOuterProducts(int i, int j);
+
+  /**
+   *
+   * @return The sum of the vectors, \sum_i^numberOfPoints x
+   */
+  public SimpleMatrix sumOfValues();
+
+  /**
+   * @return The sum of the outerproducts, \sum_i^numberOfPoints x x^T
+   * where x^T denotes transpose
+   */
+  public SimpleMatrix sumOfOuterProducts();
+}
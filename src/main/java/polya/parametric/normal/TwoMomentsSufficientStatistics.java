@@ -1,5 +1,7 @@
 package polya.parametric.normal;
 
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
 import org.ejml.simple.SimpleMatrix;
 
 import polya.parametric.SufficientStatistic;
@@ -12,7 +14,7 @@ import polya.parametric.SufficientStatistic;
  * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
  *
  */
-public class TwoMomentsSufficientStatistics implements SufficientStatistic
+public class TwoMomentsSufficientStatistics implements TwoMomentsStatistic
 {
   /**
    * The number of points this object is summarizing. (Different than dim())
@@ -22,13 +24,13 @@ public class TwoMomentsSufficientStatistics implements SufficientStatistic
   /**
    * The sum of the vectors, \sum_i^numberOfPoints x
    */
-  private SimpleMatrix sumOfValues;
+  private final SimpleMatrix sumOfValues;
   
   /**
    * The sum of the outerproducts, \sum_i^numberOfPoints x x^T
    * where x^T denotes transpose
    */
-  private SimpleMatrix sumOfOuterProducts;
+  private final SimpleMatrix sumOfOuterProducts;
   
   /**
    * Create an object containing the sufficient statistic for a single data point
@@ -80,32 +82,35 @@ public class TwoMomentsSufficientStatistics implements SufficientStatistic
       throw new RuntimeException();
   }
 
-  /**
-   * 
-   * @return The dimensionality of each point summarized by this object
-   */
+  @Override
   public int dim()
   {
     return sumOfOuterProducts.numRows();
   }
   
-  /**
-   * 
-   * @return The sum of the vectors, \sum_i^numberOfPoints x
-   */
+  @Override
   public SimpleMatrix sumOfValues()
   {
     return sumOfValues;
   }
   
-  /**
-   * @return The sum of the outerproducts, \sum_i^numberOfPoints x x^T
-   * where x^T denotes transpose
-   */
+  @Override
   public SimpleMatrix sumOfOuterProducts()
   {
     return sumOfOuterProducts;
   }
+  
+  @Override
+  public double sumOfValues(int i)
+  {
+    return sumOfValues.get(i);
+  }
+
+  @Override
+  public double sumOfOuterProducts(int i, int j)
+  {
+    return sumOfOuterProducts.get(i, j);
+  }
 
   @Override
   public int numberOfPoints()
@@ -116,19 +121,41 @@ public class TwoMomentsSufficientStatistics implements SufficientStatistic
   @Override
   public void plusEqual(SufficientStatistic _other)
   {
-    TwoMomentsSufficientStatistics other = (TwoMomentsSufficientStatistics) _other;
-    this.numberOfPoints += other.numberOfPoints;
-    this.sumOfValues = this.sumOfValues.plus(other.sumOfValues);
-    this.sumOfOuterProducts = this.sumOfOuterProducts.plus(other.sumOfOuterProducts);
+    add(_other, 1);
   }
 
   @Override
   public void minusEqual(SufficientStatistic _other)
   {
-    TwoMomentsSufficientStatistics other = (TwoMomentsSufficientStatistics) _other;
-    this.numberOfPoints -= other.numberOfPoints;
-    this.sumOfValues = this.sumOfValues.minus(other.sumOfValues);
-    this.sumOfOuterProducts = this.sumOfOuterProducts.minus(other.sumOfOuterProducts);
+    add(_other, -1);
+  }
+  
+  /**
+   * In place update, this += sign * other
+   * @param _other
+   * @param sign
+   */
+  private void add(SufficientStatistic _other, int sign)
+  {
+    TwoMomentsStatistic other = (TwoMomentsStatistic) _other;
+    if (other.dim() != dim())
+      throw new RuntimeException();
+    this.numberOfPoints += sign * other.numberOfPoints();
+    if (other instanceof TwoMomentsSufficientStatistics)
+    {
+      TwoMomentsSufficientStatistics ejmlOther = (TwoMomentsSufficientStatistics) other;
+      CommonOps.addEquals(this.sumOfValues.getMatrix(), sign, ejmlOther.sumOfValues.getMatrix());
+      CommonOps.addEquals(this.sumOfOuterProducts.getMatrix(), sign, ejmlOther.sumOfOuterProducts.getMatrix());
+      return;
+    }
+    final int dim = dim();
+    DenseMatrix64F values = sumOfValues.getMatrix(), outer = sumOfOuterProducts.getMatrix();
+    for (int i = 0; i < dim; i++)
+    {
+      values.set(i, 0, values.get(i, 0) + sign * other.sumOfValues(i));
+      for (int j = 0; j < dim; j++)
+        outer.set(i, j, outer.get(i, j) + sign * other.sumOfOuterProducts(i, j));
+    }
   }
 
   @Override
@@ -0,0 +1,97 @@
+package polya;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.mcmc.AdaptiveRealVariableMHMove;
+import polya.mcmc.ExponentialPrior;
+import polya.mcmc.Factor;
+import polya.mcmc.MHAlternation;
+import polya.mcmc.MHTest.RealVariableImpl;
+import polya.mcmc.ProposalAdaptation;
+import polya.mcmc.RealVariable;
+
+
+/**
+ * Checks the adaptive MH moves on the example of MHTest, and that their
+ * scale survives MHAlternation.writeState() and readState().
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class AdaptiveMHTest
+{
+  @Test
+  public void exponentialOnLogScale()
+  {
+    final RealVariable variable = new RealVariableImpl(1.0);
+    final double lambda = 5.0;
+    Factor exponentialDist = new Factor() {
+      @Override
+      public double logUnnormalizedPotential()
+      {
+        if (variable.getValue() < 0.0)
+          return Double.NEGATIVE_INFINITY;
+        return -lambda * variable.getValue();
+      }
+    };
+    // a poor initial scale, corrected by the adaptation
+    AdaptiveRealVariableMHMove move = new AdaptiveRealVariableMHMove(variable, Collections.singleton(exponentialDist),
+        ProposalAdaptation.standard().withInitialScale(100.0).onLogScale().frozenAfter(2000));
+    Random rand = new Random(1);
+    for (int i = 0; i < 2000; i++)
+      move.sample(rand);
+    Assert.assertFalse(move.isAdapting());
+    final double scale = move.scale();
+    Assert.assertTrue(scale < 10.0);
+
+    SummaryStatistics stat = new SummaryStatistics();
+    for (int i = 0; i < 100000; i++)
+    {
+      move.sample(rand);
+      stat.addValue(variable.getValue());
+    }
+    Assert.assertEquals(scale, move.scale(), 0.0);
+    Assert.assertEquals(1.0 / lambda, stat.getMean(), 0.01);
+    Assert.assertEquals(0.44, move.meanAcceptance(), 0.05);
+  }
+
+  @Test
+  public void writeAndReadState() throws IOException
+  {
+    RealVariable first = new RealVariableImpl(1.0), second = new RealVariableImpl(1.0);
+    MHAlternation original = alternation(first), restored = alternation(second);
+    Random rand = new Random(1);
+    for (int i = 0; i < 500; i++)
+      original.sampleOneRound(rand);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    original.writeState(new DataOutputStream(bytes));
+    restored.readState(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    second.setValue(first.getValue());
+
+    Random firstRand = new Random(2), secondRand = new Random(2);
+    for (int i = 0; i < 1000; i++)
+    {
+      original.sampleOneRound(firstRand);
+      restored.sampleOneRound(secondRand);
+    }
+    Assert.assertEquals(first.getValue(), second.getValue(), 0.0);
+  }
+
+  private static MHAlternation alternation(RealVariable variable)
+  {
+    MHAlternation result = new MHAlternation();
+    result.addRealNodeToResampleWithPrior(variable, ExponentialPrior.withRate(2.0),
+        ProposalAdaptation.standard().onLogScale().frozenAfter(1000));
+    return result;
+  }
+}
@@ -0,0 +1,55 @@
+package polya;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.DenseCRPState;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.BinaryDatasets;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.StatisticArena;
+import polya.parametric.normal.TwoMomentsStatistic;
+
+
+/**
+ * Checks that a converted and memory mapped dataset gives the same
+ * statistics as loading the CSV file.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class BinaryDatasetsTest
+{
+  @Test
+  public void roundTrip() throws IOException
+  {
+    File csvFile = new File("data/circle.csv");
+    File binaryFile = File.createTempFile("circle", ".bin");
+    binaryFile.deleteOnExit();
+    BinaryDatasets.convertFromCSV(csvFile, binaryFile);
+    Assert.assertTrue(BinaryDatasets.isBinaryDataset(binaryFile));
+    Assert.assertFalse(BinaryDatasets.isBinaryDataset(csvFile));
+
+    Map<Integer,SufficientStatistic> expected = NIWs.loadFromCSVFile(csvFile, true);
+    StatisticArena arena = BinaryDatasets.map(binaryFile);
+    Assert.assertEquals(expected.size(), arena.nCustomers());
+    for (int customer = 0; customer < arena.nCustomers(); customer++)
+    {
+      TwoMomentsStatistic e = (TwoMomentsStatistic) expected.get(customer);
+      TwoMomentsStatistic actual = arena.customerStatistic(customer);
+      for (int i = 0; i < arena.dim(); i++)
+      {
+        Assert.assertEquals(e.sumOfValues(i), actual.sumOfValues(i), 0.0);
+        for (int j = 0; j < arena.dim(); j++)
+          Assert.assertEquals(e.sumOfOuterProducts(i, j), actual.sumOfOuterProducts(i, j), 0.0);
+      }
+    }
+
+    DenseCRPState state = DenseCRPState.fullyDisconnectedClustering(arena);
+    Assert.assertEquals(expected.size(), state.nTables());
+    state.checkIntegrity();
+  }
+}
@@ -0,0 +1,137 @@
+package polya;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.BlockLogFactors;
+import polya.crp.CRPState;
+import polya.crp.CRPs;
+import polya.crp.CachedClusteringFactor;
+import polya.crp.CachedLikelihoodFactor;
+import polya.crp.DenseCRPState;
+import polya.crp.PYPrior;
+import polya.crp.utils.ClusterId;
+import polya.mcmc.RealVariable;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.NIWs;
+
+
+/**
+ * Checks the incrementally maintained factors against recomputation from scratch.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class CachedFactorsTest
+{
+  @Test
+  public void clusteringFactor()
+  {
+    Random rand = new Random(1);
+    CRPState state = DenseCRPState.fullyDisconnectedClustering(NIWs.loadFromCSVFile(new File("data/circle.csv"), true));
+    PYPrior prior = new PYPrior(1.0, 0.5);
+    CachedClusteringFactor factor = new CachedClusteringFactor(state, prior);
+    for (int iter = 0; iter < 5000; iter++)
+    {
+      Integer customer = rand.nextInt(state.nCustomers());
+      state.removeCustomer(customer);
+      List<ClusterId> tables = state.getAllClusterIds();
+      if (tables.isEmpty() || rand.nextInt(10) == 0)
+        state.addCustomerToNewTable(customer);
+      else
+        state.addCustomerToExistingTable(customer, tables.get(rand.nextInt(tables.size())));
+      if (rand.nextInt(10) == 0)
+        prior.alpha0VariableView().setValue(rand.nextDouble() * 5.0);
+      if (rand.nextInt(10) == 0)
+        prior.discountVariableView().setValue(rand.nextDouble());
+      if (iter % 100 == 0)
+      {
+        final double expected = fromScratch(prior, state);
+        Assert.assertEquals(expected, CRPs.crpAssignmentLogProbabilitiy(prior, state), 1e-6);
+        Assert.assertEquals(expected, factor.logUnnormalizedPotential(), 1e-6);
+        state.checkIntegrity();
+      }
+    }
+    prior.discountVariableView().setValue(-1.0);
+    Assert.assertEquals(Double.NEGATIVE_INFINITY, factor.logUnnormalizedPotential(), 0.0);
+  }
+
+  @Test
+  public void likelihoodFactor()
+  {
+    Random rand = new Random(1);
+    CRPState state = DenseCRPState.fullyDisconnectedClustering(NIWs.loadFromCSVFile(new File("data/circle.csv"), true));
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(2);
+    CachedLikelihoodFactor factor = new CachedLikelihoodFactor(state, hp, CollapsedNIWModel.instance);
+    RealVariable kappa = hp.kappaVariableView(), nu = hp.nuVariableView();
+    for (int iter = 0; iter < 2000; iter++)
+    {
+      final int move = rand.nextInt(4);
+      if (move < 2)
+      {
+        // reseat a customer, sometimes at a new table, destroying tables on the way
+        Integer customer = rand.nextInt(state.nCustomers());
+        state.removeCustomer(customer);
+        List<ClusterId> tables = state.getAllClusterIds();
+        if (tables.isEmpty() || rand.nextInt(5) == 0)
+          state.addCustomerToNewTable(customer);
+        else
+          state.addCustomerToExistingTable(customer, tables.get(rand.nextInt(tables.size())));
+      }
+      else
+      {
+        // MH round trip on kappa or nu: propose, evaluate, then accept or reject
+        RealVariable variable = move == 2 ? kappa : nu;
+        final double before = variable.getValue();
+        variable.setValue(move == 2 ? before * Math.exp(0.5 * rand.nextGaussian()) : 2.0 + 3.0 * rand.nextDouble());
+        Assert.assertEquals(fromScratch(hp, state), factor.logUnnormalizedPotential(), 1e-6);
+        if (rand.nextBoolean())
+          variable.setValue(before);
+      }
+      if (rand.nextInt(3) == 0)
+        Assert.assertEquals(fromScratch(hp, state), factor.logUnnormalizedPotential(), 1e-6);
+    }
+    factor.detach();
+  }
+
+  @Test
+  public void blockLogFactors()
+  {
+    Random rand = new Random(1);
+    BlockLogFactors blocks = new BlockLogFactors();
+    for (int i = 0; i < 1000; i++)
+    {
+      // alternates between a few discounts, with small and large sizes
+      final double discount = rand.nextInt(3) / 4.0;
+      final int size = rand.nextBoolean() ? 1 + rand.nextInt(100) : 1 + rand.nextInt(1000000);
+      final double expected = CRPs.blockLogFactor(discount, size);
+      Assert.assertEquals(expected, blocks.blockLogFactor(discount, size), 1e-9 * Math.max(1.0, Math.abs(expected)));
+    }
+  }
+
+  /**
+   * The collapsed likelihood recomputed table by table, with the closed form marginal
+   */
+  private static double fromScratch(NIWHyperParameter hp, CRPState state)
+  {
+    double result = 0.0;
+    for (ClusterId id : state.getAllClusterIds())
+      result += CollapsedNIWModel.instance.logMarginal(hp, state.getClusterStatistics(id));
+    return result;
+  }
+
+  /**
+   * The PY prior computed table by table, without the histogram nor the cached block factors
+   */
+  private static double fromScratch(PYPrior prior, CRPState state)
+  {
+    double result = CRPs.crpNormalization(prior, state.nTables(), state.nCustomers());
+    for (ClusterId id : state.getAllClusterIds())
+      result += CRPs.blockLogFactor(prior.discount(), state.getTable(id).size());
+    return result;
+  }
+}
@@ -0,0 +1,74 @@
+package polya;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.Checkpointer;
+import polya.crp.Checkpoints;
+import polya.crp.CompleteState;
+import polya.crp.CopyOnWriteCRPState;
+import polya.crp.DenseCRPState;
+import polya.parametric.normal.NIWs;
+
+
+/**
+ * Checks that a chain restored from a checkpoint has the same seating,
+ * parameters and random number generator as the chain checkpointed.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class CheckpointsTest
+{
+  @Test
+  public void restore() throws IOException
+  {
+    File data = new File("data/circle.csv");
+    CompleteState [] states = new CompleteState[]{
+        CompleteState.standardInit(DenseCRPState.fullyDisconnectedClustering(NIWs.loadFromCSVFileInParallel(data, 2))),
+        CompleteState.standardInit(CopyOnWriteCRPState.fullyDisconnectedClustering(NIWs.loadFromCSVFile(data, true)))};
+    for (CompleteState state : states)
+    {
+      File file = File.createTempFile("checkpoint", ".bin");
+      file.deleteOnExit();
+      state.useGibbsSweep();
+      state.clusteringParams.alpha0VariableView().setValue(2.5);
+      state.setInverseTemperature(0.5);
+      Random rand = new Random(1);
+      Checkpointer checkpointer = new Checkpointer(file, 2);
+      for (int sweep = 0; sweep < 3; sweep++)
+      {
+        state.doOneSamplingRound(rand);
+        checkpointer.afterSweep(state, rand, sweep + 1);
+        if (sweep == 1)
+        {
+          // the chain keeps running while the checkpoint of the second sweep is written
+          Checkpoints.write(new File(file.getPath() + ".expected"), state, rand, sweep + 1);
+          checkpointer.waitForPending();
+        }
+      }
+      checkpointer.close();
+
+      Checkpoints.Checkpoint checkpoint = Checkpoints.restore(file);
+      checkpoint.restoreMHMoves();
+      Checkpoints.Checkpoint expected = Checkpoints.restore(new File(file.getPath() + ".expected"));
+      new File(file.getPath() + ".expected").delete();
+      Assert.assertEquals(2, checkpoint.nSweeps);
+      checkpoint.state.clustering.checkIntegrity();
+      Assert.assertEquals(state.clustering.getClass(), checkpoint.state.clustering.getClass());
+      Assert.assertEquals(expected.state.clustering.partition(), checkpoint.state.clustering.partition());
+      Assert.assertEquals(expected.state.allCustomers, checkpoint.state.allCustomers);
+      Assert.assertEquals(2.5, checkpoint.state.clusteringParams.alpha0(), 0.0);
+      Assert.assertEquals(state.hp.kappa(), checkpoint.state.hp.kappa(), 0.0);
+      Assert.assertEquals(0.5, checkpoint.state.inverseTemperature(), 0.0);
+      Assert.assertEquals(expected.rand.nextLong(), checkpoint.rand.nextLong());
+
+      // the restored chain can be resumed
+      checkpoint.state.doOneSamplingRound(checkpoint.rand);
+      checkpoint.state.clustering.checkIntegrity();
+    }
+  }
+}
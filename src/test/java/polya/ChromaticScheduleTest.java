@@ -0,0 +1,57 @@
+package polya;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.mcmc.ChromaticSchedule;
+import polya.mcmc.Factor;
+import polya.mcmc.MHTest.RealVariableImpl;
+import polya.mcmc.RealVariableMHMove;
+
+
+/**
+ * Checks the grouping of MH moves into concurrent batches.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class ChromaticScheduleTest
+{
+  @Test
+  public void colors()
+  {
+    Factor
+      clustering = new ConstantFactor(), likelihood = new ConstantFactor(),
+      prior1 = new ConstantFactor(), prior2 = new ConstantFactor(),
+      prior3 = new ConstantFactor(), prior4 = new ConstantFactor();
+    // as in CompleteState: alpha0, discount, kappa, nu
+    List<RealVariableMHMove> moves = Arrays.asList(
+        move(clustering, prior1),
+        move(clustering, prior2),
+        move(likelihood, prior3),
+        move(likelihood, prior4));
+    Assert.assertEquals(2, new ChromaticSchedule(moves).nColors());
+
+    // independent variables
+    Assert.assertEquals(1, new ChromaticSchedule(Arrays.asList(move(prior1), move(prior2), move(prior3))).nColors());
+
+    // a triangle
+    Assert.assertEquals(3, new ChromaticSchedule(Arrays.asList(move(prior1, prior2), move(prior2, prior3), move(prior3, prior1))).nColors());
+  }
+
+  private static RealVariableMHMove move(Factor ... factors)
+  {
+    return new RealVariableMHMove(new RealVariableImpl(0.0), Arrays.asList(factors));
+  }
+
+  private static class ConstantFactor implements Factor
+  {
+    @Override
+    public double logUnnormalizedPotential()
+    {
+      return 0.0;
+    }
+  }
+}
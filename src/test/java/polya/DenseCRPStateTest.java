@@ -0,0 +1,115 @@
+package polya;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.CRPState;
+import polya.crp.DenseCRPState;
+import polya.crp.utils.ClusterId;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.PackedTwoMomentsSufficientStatistics;
+import polya.parametric.normal.StatisticArena;
+import polya.parametric.normal.TwoMomentsStatistic;
+
+import com.beust.jcommander.internal.Sets;
+
+
+/**
+ * Test cases for the array-based seating arrangement.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class DenseCRPStateTest
+{
+  @Test
+  public void tests()
+  {
+    CRPState state = new DenseCRPState(NIWs.loadFromCSVFile(new File("data/tiny-data.csv")));
+
+    state.checkIntegrity();
+    state.addCustomerToNewTable(0);
+    state.checkIntegrity();
+    state.addCustomerToExistingTable(1, state.getClusterIdOfCustomer(0));
+    state.checkIntegrity();
+    Assert.assertEquals(state.partition(), part(block(0,1)));
+
+    state.addCustomerToNewTable(2);
+    state.checkIntegrity();
+    Assert.assertEquals(state.nTables(), 2);
+    Assert.assertEquals(state.nCustomers(), 3);
+    state.removeCustomer(2);
+    state.checkIntegrity();
+    Assert.assertEquals(state.nTables(), 1);
+    Assert.assertEquals(state.nCustomers(), 2);
+    state.removeCustomer(1);
+    state.checkIntegrity();
+    state.addCustomerToExistingTable(3, state.getClusterIdOfCustomer(0));
+    Assert.assertEquals(state.partition(), part(block(0,3)));
+    state.checkIntegrity();
+  }
+
+  @Test
+  public void randomMoves()
+  {
+    Map<Integer,SufficientStatistic> data = NIWs.loadFromCSVFile(new File("data/tiny-data.csv"));
+    randomMoves(DenseCRPState.fullyDisconnectedClustering(data));
+    randomMoves(DenseCRPState.fullyDisconnectedClustering(StatisticArena.fromStatistics(data, false)));
+    randomMoves(DenseCRPState.fullyDisconnectedClustering(StatisticArena.fromStatistics(data, true)));
+  }
+  
+  private void randomMoves(CRPState state)
+  {
+    Random rand = new Random(1);
+    for (int iter = 0; iter < 1000; iter++)
+    {
+      Integer customer = rand.nextInt(state.nCustomers());
+      state.removeCustomer(customer);
+      if (state.nTables() == 0 || rand.nextInt(3) == 0)
+        state.addCustomerToNewTable(customer);
+      else
+      {
+        ClusterId table = state.getAllClusterIds().get(rand.nextInt(state.nTables()));
+        state.addCustomerToExistingTable(customer, table);
+        Assert.assertTrue(state.getTable(table).contains(customer));
+      }
+      state.checkIntegrity();
+    }
+    Assert.assertEquals(8, state.getAllCustomers().size());
+    for (ClusterId table : state.getAllClusterIds())
+    {
+      TwoMomentsStatistic recomputed = PackedTwoMomentsSufficientStatistics.fromEmpty(2);
+      for (Integer customer : state.getTable(table))
+        recomputed.plusEqual(state.getCustomerStatistic(customer));
+      TwoMomentsStatistic stored = (TwoMomentsStatistic) state.getClusterStatistics(table);
+      for (int i = 0; i < 2; i++)
+      {
+        Assert.assertEquals(recomputed.sumOfValues(i), stored.sumOfValues(i), 1e-10);
+        for (int j = 0; j < 2; j++)
+          Assert.assertEquals(recomputed.sumOfOuterProducts(i, j), stored.sumOfOuterProducts(i, j), 1e-10);
+      }
+    }
+  }
+
+  @SafeVarargs
+  private static Set<Set<Integer>> part(Set<Integer> ... blocks)
+  {
+    Set<Set<Integer>> result = Sets.newHashSet();
+    for (Set<Integer> block : blocks)
+      result.add(block);
+    return result;
+  }
+
+  private static Set<Integer> block(int ... numbers )
+  {
+    Set<Integer> result = Sets.newHashSet();
+    for (int number : numbers)
+      result.add(number);
+    return result;
+  }
+}
@@ -0,0 +1,184 @@
+package polya;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import polya.crp.CRPState;
+import polya.crp.CRPs;
+import polya.crp.DenseCRPState;
+import polya.crp.GibbsSweep;
+import polya.crp.PYPrior;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWCholeskyPosterior;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.StatisticArena;
+import polya.parametric.normal.TwoMomentsStatistic;
+
+import com.google.common.collect.Maps;
+
+
+/**
+ * Checks the allocation-free Gibbs sweep against the exact posterior on
+ * a small example, and counts the bytes it allocates.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class GibbsSweepTest
+{
+  @Test
+  public void exactPosteriorOnThreeCustomers()
+  {
+    Map<Integer,SufficientStatistic> data = threeCustomers();
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(2);
+    PYPrior prior = new PYPrior(1.0, 0.3);
+    Map<Set<Set<Integer>>,Double> exact = exactPosterior(data, hp, prior);
+
+    Random rand = new Random(1);
+    CRPState state = DenseCRPState.fullyDisconnectedClustering(data);
+    GibbsSweep sweep = new GibbsSweep(state, hp, CollapsedNIWModel.instance, prior);
+    List<Integer> customers = new ArrayList<Integer>(state.getAllCustomers());
+    Map<Set<Set<Integer>>, Integer> counts = Maps.newHashMap();
+    final int nIters = 50000;
+    for (int iter = 0; iter < nIters; iter++)
+    {
+      sweep.sweep(rand, customers);
+      increment(counts, state.partition());
+    }
+    sweep.detach();
+    assertFrequencies(exact, counts, nIters);
+  }
+
+  /**
+   *
+   * @return The first three points of tiny-data.csv
+   */
+  static Map<Integer,SufficientStatistic> threeCustomers()
+  {
+    Map<Integer,SufficientStatistic> allData = NIWs.loadFromCSVFile(new File("data/tiny-data.csv"));
+    Map<Integer,SufficientStatistic> data = Maps.newHashMap();
+    for (int i = 0; i < 3; i++)
+      data.put(i, allData.get(i));
+    return data;
+  }
+
+  /**
+   * Enumerates the 5 partitions of three customers.
+   *
+   * @return The posterior probability of each partition
+   */
+  static Map<Set<Set<Integer>>,Double> exactPosterior(Map<Integer,SufficientStatistic> data, NIWHyperParameter hp, PYPrior prior)
+  {
+    List<Set<Set<Integer>>> partitions = new ArrayList<Set<Set<Integer>>>();
+    List<Double> logJoints = new ArrayList<Double>();
+    int [][] labellings = {{0,0,0}, {0,0,1}, {0,1,0}, {0,1,1}, {0,1,2}};
+    for (int [] labels : labellings)
+    {
+      CRPState state = seat(data, labels);
+      partitions.add(state.partition());
+      logJoints.add(CRPs.crpAssignmentLogProbabilitiy(prior, state) + logLikelihood(hp, data, labels));
+    }
+    double max = Collections.max(logJoints), norm = 0.0;
+    for (double logJoint : logJoints)
+      norm += Math.exp(logJoint - max);
+    Map<Set<Set<Integer>>,Double> result = Maps.newHashMap();
+    for (int i = 0; i < partitions.size(); i++)
+      result.put(partitions.get(i), Math.exp(logJoints.get(i) - max) / norm);
+    return result;
+  }
+
+  static void increment(Map<Set<Set<Integer>>, Integer> counts, Set<Set<Integer>> partition)
+  {
+    counts.put(partition, 1 + (counts.containsKey(partition) ? counts.get(partition) : 0));
+  }
+
+  static void assertFrequencies(Map<Set<Set<Integer>>,Double> exact, Map<Set<Set<Integer>>, Integer> counts, int nIters)
+  {
+    for (Set<Set<Integer>> partition : exact.keySet())
+    {
+      Integer count = counts.get(partition);
+      double actual = (count == null ? 0.0 : count) / nIters;
+      Assert.assertEquals(exact.get(partition), actual, 0.01);
+    }
+  }
+
+  static CRPState seat(Map<Integer,SufficientStatistic> data, int [] labels)
+  {
+    CRPState state = new DenseCRPState(data);
+    for (int i = 0; i < labels.length; i++)
+    {
+      int firstWithSameLabel = i;
+      for (int j = 0; j < i; j++)
+        if (labels[j] == labels[i])
+        {
+          firstWithSameLabel = j;
+          break;
+        }
+      if (firstWithSameLabel == i)
+        state.addCustomerToNewTable(i);
+      else
+        state.addCustomerToExistingTable(i, state.getClusterIdOfCustomer(firstWithSameLabel));
+    }
+    return state;
+  }
+
+  /**
+   * Computed as a product of predictives, independently of the sampler.
+   */
+  static double logLikelihood(NIWHyperParameter hp, Map<Integer,SufficientStatistic> data, int [] labels)
+  {
+    double result = 0.0;
+    Map<Integer,NIWCholeskyPosterior> posteriors = Maps.newHashMap();
+    for (int i = 0; i < labels.length; i++)
+    {
+      if (!posteriors.containsKey(labels[i]))
+        posteriors.put(labels[i], NIWCholeskyPosterior.fromPrior(hp));
+      NIWCholeskyPosterior posterior = posteriors.get(labels[i]);
+      TwoMomentsStatistic point = (TwoMomentsStatistic) data.get(i);
+      result += posterior.logPredictive(point);
+      posterior.add(point);
+    }
+    return result;
+  }
+
+  @Test
+  public void noAllocationPerMove()
+  {
+    // the allocation counters are specific to some JVMs
+    ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(mx instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) mx;
+    Assume.assumeTrue(bean.isThreadAllocatedMemorySupported());
+    bean.setThreadAllocatedMemoryEnabled(true);
+    Map<Integer,SufficientStatistic> data = NIWs.loadFromCSVFile(new File("data/circle.csv"), true);
+    CRPState state = DenseCRPState.fullyDisconnectedClustering(StatisticArena.fromStatistics(data, false));
+    GibbsSweep sweep = new GibbsSweep(state, NIWHyperParameter.withDimensionality(2), CollapsedNIWModel.instance, new PYPrior(1.0, 0.0));
+    List<Integer> customers = new ArrayList<Integer>(state.getAllCustomers());
+    Random rand = new Random(1);
+    // warm-up: grows the buffers and caches, and lets the JIT compile the sweep
+    for (int i = 0; i < 200; i++)
+      sweep.sweep(rand, customers);
+
+    final long threadId = Thread.currentThread().getId();
+    final int nSweeps = 100;
+    final long before = bean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < nSweeps; i++)
+      sweep.sweep(rand, customers);
+    final long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+    final double perMove = ((double) allocated) / nSweeps / customers.size();
+    // tolerance for the occasional growth of a buffer when the number of tables reaches a new maximum
+    Assert.assertTrue("Bytes allocated per customer move: " + perMove, perMove < 1.0);
+  }
+}
@@ -0,0 +1,69 @@
+package polya;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.CompleteState;
+import polya.crp.MultiChainRunner;
+import polya.mcmc.ConvergenceDiagnostics;
+
+
+/**
+ * Checks the R-hat diagnostic and the reproducibility of parallel chains.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class MultiChainRunnerTest
+{
+  @Test
+  public void potentialScaleReduction()
+  {
+    Random rand = new Random(1);
+    List<List<Double>> mixed = new ArrayList<List<Double>>(), stuck = new ArrayList<List<Double>>();
+    for (int c = 0; c < 4; c++)
+    {
+      List<Double> current = new ArrayList<Double>(), shifted = new ArrayList<Double>();
+      for (int i = 0; i < 1000; i++)
+      {
+        double sample = rand.nextGaussian();
+        current.add(sample);
+        shifted.add(sample + 3.0 * c);
+      }
+      mixed.add(current);
+      stuck.add(shifted);
+    }
+    Assert.assertEquals(1.0, ConvergenceDiagnostics.potentialScaleReduction(mixed), 0.01);
+    Assert.assertTrue(ConvergenceDiagnostics.potentialScaleReduction(stuck) > 2.0);
+  }
+
+  @Test
+  public void independentOfNumberOfThreads()
+  {
+    MultiChainRunner sequential = runner(), parallel = runner();
+    sequential.run(1);
+    parallel.run(4);
+    for (int c = 0; c < sequential.nChains(); c++)
+      Assert.assertEquals(sequential.samples(c, "nClusters"), parallel.samples(c, "nClusters"));
+    Assert.assertEquals(1.0, sequential.potentialScaleReductions().get("alpha0"), 0.0);
+  }
+
+  private static MultiChainRunner runner()
+  {
+    MultiChainRunner result = new MultiChainRunner(new MultiChainRunner.StateFactory() {
+      @Override
+      public CompleteState newState()
+      {
+        CompleteState state = CompleteState.standardInit(new File("data/circle.csv"), true);
+        state.useGibbsSweep();
+        return state;
+      }
+    }, 4, 1);
+    result.setSchedule(200, 20, 1, Integer.MAX_VALUE);
+    return result;
+  }
+}
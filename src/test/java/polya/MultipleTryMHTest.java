@@ -0,0 +1,107 @@
+package polya;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.CompleteState;
+import polya.crp.DenseCRPState;
+import polya.mcmc.ExponentialPrior;
+import polya.mcmc.MHAlternation;
+import polya.mcmc.MHTest.RealVariableImpl;
+import polya.mcmc.MultipleTryProposal;
+import polya.mcmc.PointwiseFactor;
+import polya.mcmc.RealVariable;
+import polya.parametric.normal.NIWs;
+
+
+/**
+ * Checks the multiple-try MH moves against the posterior of alpha0 given
+ * a fixed seating, computed by quadrature.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class MultipleTryMHTest
+{
+  @Test
+  public void alpha0GivenSeating()
+  {
+    CompleteState state = CompleteState.standardInit(DenseCRPState.fullyDisconnectedClustering(
+        NIWs.loadFromCSVFile(new File("data/circle.csv"), true)));
+    state.useGibbsSweep();
+    Random rand = new Random(1);
+    for (int i = 0; i < 5; i++)
+      state.doOneSamplingRound(rand);
+
+    // the factor evaluated at a value agrees with the factor after setting the value
+    RealVariable alpha0 = state.clusteringParams.alpha0VariableView();
+    PointwiseFactor clusteringFactor = (PointwiseFactor) state.clusteringFactor;
+    final double expected = clusteringFactor.logUnnormalizedPotentialAt(alpha0, 3.0);
+    alpha0.setValue(3.0);
+    Assert.assertEquals(expected, state.clusteringFactor.logUnnormalizedPotential(), 1e-10);
+    Assert.assertEquals(Double.NEGATIVE_INFINITY, clusteringFactor.logUnnormalizedPotentialAt(alpha0, -1.0), 0.0);
+
+    // posterior mean of alpha0 under an exponential prior, by quadrature
+    final double rate = 0.5, step = 1e-3;
+    ExponentialPrior prior = ExponentialPrior.withRate(rate);
+    prior.setVariable(alpha0);
+    List<Double> logDensities = new ArrayList<Double>();
+    double max = Double.NEGATIVE_INFINITY;
+    for (double x = step / 2.0; x < 20.0; x += step)
+    {
+      final double logDensity = prior.logUnnormalizedPotentialAt(alpha0, x) + clusteringFactor.logUnnormalizedPotentialAt(alpha0, x);
+      logDensities.add(logDensity);
+      max = Math.max(max, logDensity);
+    }
+    double norm = 0.0, mean = 0.0;
+    for (int i = 0; i < logDensities.size(); i++)
+    {
+      final double weight = Math.exp(logDensities.get(i) - max);
+      norm += weight;
+      mean += weight * (step / 2.0 + i * step);
+    }
+    mean /= norm;
+
+    MHAlternation moves = new MHAlternation();
+    moves.addRealNodeToResampleWithPrior(alpha0, ExponentialPrior.withRate(rate),
+        MultipleTryProposal.withTries(8).onLogScale(), state.clusteringFactor);
+    ForkJoinPool pool = new ForkJoinPool(2);
+    moves.useThreads(pool);
+    SummaryStatistics stat = new SummaryStatistics();
+    for (int i = 0; i < 20000; i++)
+    {
+      moves.sampleOneRound(rand);
+      stat.addValue(alpha0.getValue());
+    }
+    pool.shutdown();
+    Assert.assertEquals(mean, stat.getMean(), 0.02 * mean);
+  }
+
+  @Test
+  public void sameResultWithAnyNumberOfThreads()
+  {
+    RealVariable first = new RealVariableImpl(1.0), second = new RealVariableImpl(1.0);
+    MHAlternation firstMoves = new MHAlternation(), secondMoves = new MHAlternation();
+    firstMoves.addRealNodeToResampleWithPrior(first, ExponentialPrior.withRate(5.0), MultipleTryProposal.withTries(5).onLogScale());
+    secondMoves.addRealNodeToResampleWithPrior(second, ExponentialPrior.withRate(5.0), MultipleTryProposal.withTries(5).onLogScale());
+    ForkJoinPool onePool = new ForkJoinPool(1), threePool = new ForkJoinPool(3);
+    firstMoves.useThreads(onePool);
+    secondMoves.useThreads(threePool);
+    Random firstRand = new Random(1), secondRand = new Random(1);
+    for (int i = 0; i < 10000; i++)
+    {
+      firstMoves.sampleOneRound(firstRand);
+      secondMoves.sampleOneRound(secondRand);
+      Assert.assertEquals(first.getValue(), second.getValue(), 0.0);
+    }
+    Assert.assertTrue(first.getValue() != 1.0);
+    onePool.shutdown();
+    threePool.shutdown();
+  }
+}
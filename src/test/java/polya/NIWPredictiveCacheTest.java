@@ -0,0 +1,104 @@
+package polya;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.CRPState;
+import polya.crp.DenseCRPState;
+import polya.crp.NIWPredictiveCache;
+import polya.crp.utils.ClusterId;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWCholeskyPosterior;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.PackedTwoMomentsSufficientStatistics;
+import polya.parametric.normal.TwoMomentsStatistic;
+import polya.parametric.normal.TwoMomentsSufficientStatistics;
+
+
+/**
+ * Checks the rank-one maintained predictive against recomputation from scratch.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class NIWPredictiveCacheTest
+{
+  @Test
+  public void agreesWithRecomputation()
+  {
+    Random rand = new Random(1);
+    Map<Integer,SufficientStatistic> data = NIWs.loadFromCSVFile(new File("data/circle.csv"), true);
+    CRPState state = DenseCRPState.fullyDisconnectedClustering(data);
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(2);
+    NIWPredictiveCache cache = new NIWPredictiveCache(state, hp);
+    for (int iter = 0; iter < 5000; iter++)
+    {
+      Integer customer = rand.nextInt(state.nCustomers());
+      state.removeCustomer(customer);
+      List<ClusterId> tables = state.getAllClusterIds();
+      if (rand.nextInt(10) == 0)
+        state.addCustomerToNewTable(customer);
+      else
+        state.addCustomerToExistingTable(customer, tables.get(rand.nextInt(tables.size())));
+      if (iter == 2500)
+        hp.setKappa(0.5);
+    }
+    SufficientStatistic point = data.get(0);
+    for (ClusterId table : state.getAllClusterIds())
+    {
+      double expected = NIWCholeskyPosterior.fromData(hp, (TwoMomentsStatistic) state.getClusterStatistics(table)).logPredictive((TwoMomentsStatistic) point);
+      Assert.assertEquals(expected, cache.logPredictive(point, table), 1e-8);
+    }
+  }
+
+  @Test
+  public void predictiveIsNormalized()
+  {
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(2);
+    hp.setKappa(1.0);
+    hp.setNu(4.0);
+    NIWCholeskyPosterior posterior = NIWCholeskyPosterior.fromPrior(hp);
+    posterior.add(PackedTwoMomentsSufficientStatistics.fromOnePoint(new double[]{1.0, 0.5}));
+    final double step = 0.05, range = 40.0;
+    double sum = 0.0;
+    for (double x = -range; x < range; x += step)
+      for (double y = -range; y < range; y += step)
+        sum += Math.exp(posterior.logPredictive(new double[]{x, y})) * step * step;
+    Assert.assertEquals(1.0, sum, 1e-2);
+  }
+
+  /**
+   * The closed form marginal agrees with the product of the predictives,
+   * p(x1, .., xn) = p(x1) p(x2|x1) .., and with CollapsedNIWModel.
+   */
+  @Test
+  public void marginalIsProductOfPredictives()
+  {
+    Random rand = new Random(1);
+    for (int dim = 1; dim <= 3; dim++)
+    {
+      NIWHyperParameter hp = NIWHyperParameter.withDimensionality(dim);
+      NIWCholeskyPosterior posterior = NIWCholeskyPosterior.fromPrior(hp);
+      TwoMomentsSufficientStatistics data = TwoMomentsSufficientStatistics.fromEmpty(dim);
+      double expected = 0.0;
+      for (int n = 0; n < 20; n++)
+      {
+        Assert.assertEquals(expected, posterior.logMarginal(hp), 1e-8 * Math.max(1.0, Math.abs(expected)));
+        Assert.assertEquals(expected, CollapsedNIWModel.instance.logMarginal(hp, data), 1e-8 * Math.max(1.0, Math.abs(expected)));
+        double [] point = new double[dim];
+        for (int d = 0; d < dim; d++)
+          point[d] = 2.0 * rand.nextGaussian() + d;
+        TwoMomentsSufficientStatistics statistic = TwoMomentsSufficientStatistics.fromOnePoint(point);
+        expected += posterior.logPredictive(statistic);
+        posterior.add(statistic);
+        data.plusEqual(statistic);
+      }
+    }
+  }
+}
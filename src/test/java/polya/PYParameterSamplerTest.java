@@ -0,0 +1,76 @@
+package polya;
+
+import java.io.File;
+import java.util.Random;
+
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.CRPs;
+import polya.crp.CompleteState;
+import polya.crp.DenseCRPState;
+import polya.crp.PYParameterSampler;
+import polya.crp.PYPrior;
+import polya.mcmc.ExponentialPrior;
+import polya.mcmc.UniformPrior;
+import polya.parametric.normal.NIWs;
+
+
+/**
+ * Checks the slice sampler of alpha0 and the discount against their joint
+ * posterior given a fixed seating, computed by quadrature.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class PYParameterSamplerTest
+{
+  @Test
+  public void parametersGivenSeating()
+  {
+    CompleteState state = CompleteState.standardInit(DenseCRPState.fullyDisconnectedClustering(
+        NIWs.loadFromCSVFile(new File("data/circle.csv"), true)));
+    state.useGibbsSweep();
+    Random rand = new Random(1);
+    for (int i = 0; i < 5; i++)
+      state.doOneSamplingRound(rand);
+
+    // posterior means under alpha0 ~ Exp(0.5), discount ~ U(0,1), by quadrature
+    final double rate = 0.5, alpha0Step = 0.02, discountStep = 0.005;
+    final int nAlpha0 = 1000, nDiscount = 200;
+    final double [][] logDensities = new double[nAlpha0][nDiscount];
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < nAlpha0; i++)
+      for (int j = 0; j < nDiscount; j++)
+      {
+        final double
+          alpha0 = (i + 0.5) * alpha0Step,
+          discount = (j + 0.5) * discountStep;
+        logDensities[i][j] = - rate * alpha0 + CRPs.crpAssignmentLogProbabilitiy(new PYPrior(alpha0, discount), state.clustering);
+        max = Math.max(max, logDensities[i][j]);
+      }
+    double norm = 0.0, alpha0Mean = 0.0, discountMean = 0.0;
+    for (int i = 0; i < nAlpha0; i++)
+      for (int j = 0; j < nDiscount; j++)
+      {
+        final double weight = Math.exp(logDensities[i][j] - max);
+        norm += weight;
+        alpha0Mean += weight * (i + 0.5) * alpha0Step;
+        discountMean += weight * (j + 0.5) * discountStep;
+      }
+    alpha0Mean /= norm;
+    discountMean /= norm;
+
+    PYParameterSampler sampler = new PYParameterSampler(state.clustering, state.clusteringParams,
+        ExponentialPrior.withRate(rate), UniformPrior.onUnitInteval());
+    SummaryStatistics alpha0Stat = new SummaryStatistics(), discountStat = new SummaryStatistics();
+    for (int i = 0; i < 50000; i++)
+    {
+      sampler.sampleOneRound(rand);
+      alpha0Stat.addValue(state.clusteringParams.alpha0());
+      discountStat.addValue(state.clusteringParams.discount());
+    }
+    Assert.assertEquals("alpha0", alpha0Mean, alpha0Stat.getMean(), 0.02 * alpha0Mean);
+    Assert.assertEquals("discount", discountMean, discountStat.getMean(), 0.02 * discountMean);
+  }
+}
@@ -0,0 +1,51 @@
+package polya;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.parametric.normal.PackedTwoMomentsSufficientStatistics;
+import polya.parametric.normal.TwoMomentsStatistic;
+import polya.parametric.normal.TwoMomentsSufficientStatistics;
+
+
+/**
+ * Checks that the packed statistics agree with the EJML-based ones.
+ * 
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class PackedTwoMomentsTest
+{
+  @Test
+  public void agreesWithEJML()
+  {
+    Random rand = new Random(1);
+    final int dim = 5;
+    TwoMomentsStatistic 
+      packed = PackedTwoMomentsSufficientStatistics.fromEmpty(dim),
+      ejml = TwoMomentsSufficientStatistics.fromEmpty(dim);
+    for (int iter = 0; iter < 100; iter++)
+    {
+      double [] point = new double[dim];
+      for (int d = 0; d < dim; d++)
+        point[d] = rand.nextGaussian();
+      // mix both implementations on both sides
+      packed.plusEqual(TwoMomentsSufficientStatistics.fromOnePoint(point));
+      ejml.plusEqual(PackedTwoMomentsSufficientStatistics.fromOnePoint(point));
+      if (iter % 3 == 0)
+      {
+        packed.minusEqual(PackedTwoMomentsSufficientStatistics.fromOnePoint(point));
+        ejml.minusEqual(TwoMomentsSufficientStatistics.fromOnePoint(point));
+      }
+    }
+    Assert.assertEquals(ejml.numberOfPoints(), packed.numberOfPoints());
+    for (int i = 0; i < dim; i++)
+    {
+      Assert.assertEquals(ejml.sumOfValues(i), packed.sumOfValues(i), 1e-10);
+      for (int j = 0; j < dim; j++)
+        Assert.assertEquals(ejml.sumOfOuterProducts(i, j), packed.sumOfOuterProducts(i, j), 1e-10);
+    }
+    Assert.assertEquals(0.0, ejml.sumOfOuterProducts().minus(packed.sumOfOuterProducts()).normF(), 1e-10);
+  }
+}
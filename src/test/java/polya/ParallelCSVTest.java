@@ -0,0 +1,67 @@
+package polya;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.StatisticArena;
+import polya.parametric.normal.TwoMomentsStatistic;
+
+
+/**
+ * Checks that the parallel CSV loader gives the same points as the 
+ * sequential one.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class ParallelCSVTest
+{
+  @Test
+  public void sameAsSequential()
+  {
+    File file = new File("data/circle.csv");
+    for (int nThreads = 1; nThreads <= 4; nThreads++)
+      check(NIWs.loadFromCSVFile(file), NIWs.loadFromCSVFileInParallel(file, nThreads));
+  }
+
+  /**
+   * Spans several byte ranges, with various number formats, blank lines 
+   * and Windows line endings.
+   */
+  @Test
+  public void largeFile() throws IOException
+  {
+    Random rand = new Random(1);
+    File file = File.createTempFile("points", ".csv");
+    file.deleteOnExit();
+    PrintWriter out = new PrintWriter(file);
+    for (int i = 0; i < 200000; i++)
+    {
+      if (i % 1000 == 0)
+        out.print("\n");
+      out.print(rand.nextGaussian() + ", " + (float) rand.nextGaussian() + "," + rand.nextInt(100) + 
+          "," + (rand.nextDouble() * 1e-30) + "," + (i % 2 == 0 ? "1E3" : "-.5") + (i % 3 == 0 ? "\r\n" : "\n"));
+    }
+    out.close();
+    check(NIWs.loadFromCSVFile(file), NIWs.loadFromCSVFileInParallel(file, 4));
+  }
+
+  private static void check(Map<Integer,SufficientStatistic> expected, StatisticArena actual)
+  {
+    Assert.assertEquals(expected.size(), actual.nCustomers());
+    for (int customer = 0; customer < actual.nCustomers(); customer++)
+    {
+      TwoMomentsStatistic e = (TwoMomentsStatistic) expected.get(customer);
+      Assert.assertEquals(e.dim(), actual.dim());
+      for (int d = 0; d < actual.dim(); d++)
+        Assert.assertEquals(e.sumOfValues(d), actual.point(customer, d), 0.0);
+    }
+  }
+}
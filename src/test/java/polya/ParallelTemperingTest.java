@@ -0,0 +1,64 @@
+package polya;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.CompleteState;
+import polya.crp.DenseCRPState;
+import polya.crp.MultiChainRunner;
+import polya.crp.ParallelTempering;
+import polya.parametric.SufficientStatistic;
+
+import com.google.common.collect.Maps;
+
+
+/**
+ * Checks that the cold chain of a tempering ladder targets the posterior,
+ * on the small example of GibbsSweepTest.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class ParallelTemperingTest
+{
+  @Test
+  public void exactPosteriorOnThreeCustomers()
+  {
+    final Map<Integer,SufficientStatistic> data = GibbsSweepTest.threeCustomers();
+    ParallelTempering tempering = new ParallelTempering(new MultiChainRunner.StateFactory() {
+      @Override
+      public CompleteState newState()
+      {
+        CompleteState result = CompleteState.standardInit(DenseCRPState.fullyDisconnectedClustering(data));
+        result.clusteringParams.discountVariableView().setValue(0.3);
+        // spreads the posterior over the partitions
+        result.hp.kappaVariableView().setValue(1.0);
+        return result;
+      }
+    }, 4, 3.0, 1, 2);
+    tempering.setNAdaptationRounds(1000);
+    CompleteState cold = tempering.coldState();
+    Map<Set<Set<Integer>>,Double> exact = GibbsSweepTest.exactPosterior(data, cold.hp, cold.clusteringParams);
+
+    for (int round = 0; round < tempering.nAdaptationRounds(); round++)
+      tempering.sampleOneRound();
+    Map<Set<Set<Integer>>, Integer> counts = Maps.newHashMap();
+    final int nRounds = 50000;
+    for (int round = 0; round < nRounds; round++)
+    {
+      tempering.sampleOneRound();
+      GibbsSweepTest.increment(counts, tempering.coldState().clustering.partition());
+    }
+    tempering.shutdown();
+    GibbsSweepTest.assertFrequencies(exact, counts, nRounds);
+
+    for (int k = 0; k < tempering.nTemperatures() - 1; k++)
+    {
+      Assert.assertTrue(tempering.inverseTemperature(k) > tempering.inverseTemperature(k + 1));
+      Assert.assertTrue(tempering.swapAcceptanceRate(k) > 0.0);
+    }
+    Assert.assertEquals(1.0, tempering.inverseTemperature(0), 0.0);
+  }
+}
@@ -0,0 +1,103 @@
+package polya;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.CRPs;
+import polya.crp.CopyOnWriteCRPState;
+import polya.crp.PYPrior;
+import polya.crp.SMCSampler;
+import polya.crp.utils.ClusterId;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWHyperParameter;
+
+import com.google.common.collect.Maps;
+
+
+/**
+ * Checks that copies of a CopyOnWriteCRPState are independent, and the weighted
+ * particles and marginal likelihood estimate of SMCSampler against exact values
+ * on a small example.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class SMCSamplerTest
+{
+  @Test
+  public void copiesAreIndependent()
+  {
+    Map<Integer,SufficientStatistic> data = GibbsSweepTest.threeCustomers();
+    CopyOnWriteCRPState original = CopyOnWriteCRPState.fullyDisconnectedClustering(data);
+    Set<Set<Integer>> before = original.partition();
+    CopyOnWriteCRPState copy = original.copy();
+
+    ClusterId table = copy.getClusterIdOfCustomer(0);
+    copy.removeCustomer(1);
+    copy.addCustomerToExistingTable(1, table);
+    copy.checkIntegrity();
+    original.checkIntegrity();
+    Assert.assertEquals(before, original.partition());
+    Assert.assertEquals(2, copy.nTables());
+
+    original.removeCustomer(2);
+    original.addCustomerToExistingTable(2, original.getClusterIdOfCustomer(1));
+    original.checkIntegrity();
+    copy.checkIntegrity();
+    Assert.assertEquals(2, copy.tableSize(table));
+    Assert.assertEquals(copy.nTables(), copy.tableSizeHistogram().nTablesOfSize(1) + 1);
+  }
+
+  @Test
+  public void weightedParticlesOnThreeCustomers()
+  {
+    Map<Integer,SufficientStatistic> data = GibbsSweepTest.threeCustomers();
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(2);
+    PYPrior prior = new PYPrior(1.0, 0.3);
+    Map<Set<Set<Integer>>,Double> exact = GibbsSweepTest.exactPosterior(data, hp, prior);
+
+    final int nParticles = 20000;
+    SMCSampler sampler = new SMCSampler(data, hp, CollapsedNIWModel.instance, prior, nParticles, new Random(1), 2);
+    // resample at every step
+    sampler.setResamplingThreshold(1.0);
+    sampler.setRejuvenation(1, 100);
+    List<Integer> customers = new ArrayList<Integer>();
+    for (int i = 0; i < 3; i++)
+      customers.add(i);
+    sampler.addCustomers(new Random(2), customers);
+    sampler.shutdown();
+
+    double [] weights = sampler.normalizedWeights();
+    Map<Set<Set<Integer>>,Double> approximation = Maps.newHashMap();
+    for (int i = 0; i < sampler.nParticles(); i++)
+    {
+      sampler.particle(i).checkIntegrity();
+      Set<Set<Integer>> partition = sampler.particle(i).partition();
+      approximation.put(partition, weights[i] + (approximation.containsKey(partition) ? approximation.get(partition) : 0.0));
+    }
+    for (Set<Set<Integer>> partition : exact.keySet())
+    {
+      Double weight = approximation.get(partition);
+      Assert.assertEquals(exact.get(partition), weight == null ? 0.0 : weight, 0.01);
+    }
+    Assert.assertTrue(sampler.nResamplings() > 0);
+    Assert.assertEquals(exactLogMarginal(data, hp, prior), sampler.logNormalization(), 0.02);
+  }
+
+  private static double exactLogMarginal(Map<Integer,SufficientStatistic> data, NIWHyperParameter hp, PYPrior prior)
+  {
+    int [][] labellings = {{0,0,0}, {0,0,1}, {0,1,0}, {0,1,1}, {0,1,2}};
+    double result = 0.0;
+    for (int [] labels : labellings)
+      result += Math.exp(
+          CRPs.crpAssignmentLogProbabilitiy(prior, GibbsSweepTest.seat(data, labels)) +
+          GibbsSweepTest.logLikelihood(hp, data, labels));
+    return Math.log(result);
+  }
+}
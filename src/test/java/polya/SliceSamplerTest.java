@@ -0,0 +1,52 @@
+package polya;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.ejml.simple.SimpleMatrix;
+import org.junit.Test;
+
+import polya.crp.CRPState;
+import polya.crp.DenseCRPState;
+import polya.crp.PYPrior;
+import polya.crp.SliceSampler;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.NIWHyperParameter;
+
+import com.google.common.collect.Maps;
+
+
+/**
+ * Checks that the slice sampler leaves the posterior invariant, on the
+ * small example of GibbsSweepTest.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class SliceSamplerTest
+{
+  @Test
+  public void exactPosteriorOnThreeCustomers()
+  {
+    Map<Integer,SufficientStatistic> data = GibbsSweepTest.threeCustomers();
+    // with a diffuse prior on the means, the tables drawn from the prior are
+    // rarely accepted, so the slice sampler mixes slowly
+    NIWHyperParameter hp = new NIWHyperParameter(1.0, new SimpleMatrix(2, 1), 2, SimpleMatrix.identity(2).scale(0.1));
+    PYPrior prior = new PYPrior(1.0, 0.3);
+    Map<Set<Set<Integer>>,Double> exact = GibbsSweepTest.exactPosterior(data, hp, prior);
+
+    Random rand = new Random(1);
+    CRPState state = DenseCRPState.fullyDisconnectedClustering(data);
+    SliceSampler sampler = new SliceSampler(state, hp, prior, 2);
+    Map<Set<Set<Integer>>, Integer> counts = Maps.newHashMap();
+    final int nIters = 100000;
+    for (int iter = 0; iter < nIters; iter++)
+    {
+      sampler.sampleOneRound(rand);
+      GibbsSweepTest.increment(counts, state.partition());
+    }
+    sampler.shutdown();
+    state.checkIntegrity();
+    GibbsSweepTest.assertFrequencies(exact, counts, nIters);
+  }
+}
@@ -0,0 +1,61 @@
+package polya;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.CRPs;
+import polya.crp.CompleteState;
+import polya.crp.CopyOnWriteCRPState;
+import polya.parametric.normal.NIWs;
+
+
+/**
+ * Checks that snapshots of a CompleteState are not affected by the moves
+ * on the chain they were taken from, nor on the chains forked from them.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class SnapshotTest
+{
+  @Test
+  public void snapshotsAreIndependent()
+  {
+    CompleteState state = CompleteState.standardInit(CopyOnWriteCRPState.fullyDisconnectedClustering(
+        NIWs.loadFromCSVFile(new File("data/circle.csv"), true)));
+    state.useGibbsSweep();
+    state.useCachedFactors();
+    Random rand = new Random(1);
+
+    List<CompleteState.Snapshot> snapshots = new ArrayList<CompleteState.Snapshot>();
+    List<Set<Set<Integer>>> partitions = new ArrayList<Set<Set<Integer>>>();
+    for (int i = 0; i < 5; i++)
+    {
+      state.doOneSamplingRound(rand);
+      snapshots.add(state.snapshot());
+      partitions.add(state.clustering.partition());
+    }
+    state.clusteringParams.alpha0VariableView().setValue(2.0);
+
+    CompleteState fork = snapshots.get(0).fork();
+    for (int i = 0; i < 5; i++)
+      fork.doOneSamplingRound(rand);
+    fork.clustering.checkIntegrity();
+    Assert.assertEquals(
+        CRPs.crpAssignmentLogProbabilitiy(fork.clusteringParams, fork.clustering),
+        fork.clusteringFactor.logUnnormalizedPotential(), 1e-6);
+    Assert.assertEquals(1.0, fork.clusteringParams.alpha0(), 0.0);
+
+    for (int i = 0; i < snapshots.size(); i++)
+    {
+      snapshots.get(i).clustering().checkIntegrity();
+      Assert.assertEquals(partitions.get(i), snapshots.get(i).clustering().partition());
+      Assert.assertEquals(1.0, snapshots.get(i).alpha0(), 0.0);
+    }
+  }
+}
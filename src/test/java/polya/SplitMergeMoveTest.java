@@ -0,0 +1,55 @@
+package polya;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.ejml.simple.SimpleMatrix;
+import org.junit.Test;
+
+import polya.crp.CRPState;
+import polya.crp.DenseCRPState;
+import polya.crp.PYPrior;
+import polya.crp.SplitMergeMove;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWHyperParameter;
+
+import com.google.common.collect.Maps;
+
+
+/**
+ * Checks that the split-merge moves alone leave the posterior invariant,
+ * on the small example of GibbsSweepTest.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class SplitMergeMoveTest
+{
+  @Test
+  public void exactPosteriorOnThreeCustomers()
+  {
+    Map<Integer,SufficientStatistic> data = GibbsSweepTest.threeCustomers();
+    // a small covariance scale spreads the posterior over the partitions
+    NIWHyperParameter hp = new NIWHyperParameter(0.001, new SimpleMatrix(2, 1), 2, SimpleMatrix.identity(2).scale(0.1));
+    PYPrior prior = new PYPrior(1.0, 0.3);
+    Map<Set<Set<Integer>>,Double> exact = GibbsSweepTest.exactPosterior(data, hp, prior);
+
+    Random rand = new Random(1);
+    CRPState state = DenseCRPState.fullyDisconnectedClustering(data);
+    SplitMergeMove move = new SplitMergeMove(state, hp, CollapsedNIWModel.instance, prior);
+    move.setNIntermediateScans(2);
+    List<Integer> customers = new ArrayList<Integer>(state.getAllCustomers());
+    Map<Set<Set<Integer>>, Integer> counts = Maps.newHashMap();
+    final int nIters = 100000;
+    for (int iter = 0; iter < nIters; iter++)
+    {
+      move.sample(rand, customers);
+      GibbsSweepTest.increment(counts, state.partition());
+    }
+    state.checkIntegrity();
+    GibbsSweepTest.assertFrequencies(exact, counts, nIters);
+  }
+}
@@ -0,0 +1,60 @@
+package polya;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.CRPs;
+import polya.crp.CompleteState;
+import polya.crp.DenseCRPState;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.NIWs;
+
+
+/**
+ * Checks that customers can be added to a running chain, for restaurants
+ * backed by maps of statistics and by arenas.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class StreamingTest
+{
+  @Test
+  public void addCustomers()
+  {
+    Map<Integer,SufficientStatistic> data = NIWs.loadFromCSVFile(new File("data/circle.csv"), true);
+    final int nInitial = 50;
+    Map<Integer,SufficientStatistic> initial = new HashMap<Integer,SufficientStatistic>();
+    for (int i = 0; i < nInitial; i++)
+      initial.put(i, data.get(i));
+
+    CompleteState fromMap = CompleteState.standardInit(DenseCRPState.fullyDisconnectedClustering(initial));
+    CompleteState fromArena = CompleteState.standardInit(DenseCRPState.fullyDisconnectedClustering(
+        NIWs.loadFromCSVFileInParallel(new File("data/circle.csv"), 2)));
+    for (CompleteState state : new CompleteState[]{fromMap, fromArena})
+    {
+      Random rand = new Random(1);
+      state.setStreamingWindowSize(20);
+      state.useCachedFactors();
+      final int nBefore = state.clustering.nCustomers();
+      for (int i = nInitial; i < data.size(); i++)
+      {
+        Integer customer = state.addCustomer(rand, data.get(i));
+        Assert.assertEquals(nBefore + i - nInitial, (int) customer);
+        Assert.assertNotNull(state.clustering.getClusterIdOfCustomer(customer));
+      }
+      state.doOneSamplingRound(rand);
+      state.clustering.checkIntegrity();
+      final int nAfter = nBefore + data.size() - nInitial;
+      Assert.assertEquals(nAfter, state.clustering.nCustomers());
+      Assert.assertEquals(nAfter, state.allCustomers.size());
+      Assert.assertEquals(
+          CRPs.crpAssignmentLogProbabilitiy(state.clusteringParams, state.clustering), 
+          state.clusteringFactor.logUnnormalizedPotential(), 1e-6);
+    }
+  }
+}
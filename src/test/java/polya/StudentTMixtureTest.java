@@ -0,0 +1,119 @@
+package polya;
+
+import java.util.Random;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.ejml.simple.SimpleMatrix;
+import org.junit.Assert;
+import org.junit.Test;
+
+import polya.crp.utils.LogAverageFunction;
+import polya.parametric.normal.NIWCholeskyPosterior;
+import polya.parametric.normal.NIWHyperParameter;
+import polya.parametric.normal.NIWs;
+import polya.parametric.normal.StudentTMixture;
+import polya.parametric.normal.TwoMomentsSufficientStatistics;
+
+
+/**
+ * Checks the compiled mixture of Student-t predictives against
+ * LogAverageFunction, and its tabulation on a grid.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class StudentTMixtureTest
+{
+  @Test
+  public void agreesWithLogAverageFunction()
+  {
+    Random rand = new Random(1);
+    for (int dim : new int[]{2, 3})
+    {
+      NIWHyperParameter hp = NIWHyperParameter.withDimensionality(dim);
+      LogAverageFunction expected = new LogAverageFunction();
+      StudentTMixture sample = new StudentTMixture(dim), merged = new StudentTMixture(dim);
+      for (int k = 0; k < 20; k++)
+      {
+        NIWCholeskyPosterior posterior = NIWCholeskyPosterior.fromPrior(hp);
+        final int nPoints = rand.nextInt(10);
+        for (int i = 0; i < nPoints; i++)
+        {
+          double [] point = new double[dim];
+          for (int d = 0; d < dim; d++)
+            point[d] = 3.0 * k + rand.nextGaussian();
+          posterior.add(TwoMomentsSufficientStatistics.fromOnePoint(point));
+        }
+        final double logWeight = rand.nextGaussian();
+        expected.addFunction(logWeight - 1.0, NIWs.logMarginalAsFunctionOfData(updated(hp, posterior)));
+        sample.add(logWeight, posterior);
+        // flattening: a new sample every 5 components, weighted by -1
+        if (k % 5 == 4)
+        {
+          merged.addAll(-1.0, sample);
+          sample = new StudentTMixture(dim);
+        }
+      }
+      Assert.assertEquals(20, merged.nComponents());
+      for (int i = 0; i < 100; i++)
+      {
+        double [] point = new double[dim];
+        for (int d = 0; d < dim; d++)
+          point[d] = 30.0 * rand.nextDouble() - 15.0;
+        Assert.assertEquals(expected.value(point), merged.value(point), 1e-8);
+      }
+    }
+  }
+
+  @Test
+  public void tabulation()
+  {
+    Random rand = new Random(1);
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(2);
+    StudentTMixture mixture = new StudentTMixture(2);
+    for (int k = 0; k < 10; k++)
+    {
+      NIWCholeskyPosterior posterior = NIWCholeskyPosterior.fromPrior(hp);
+      for (int i = 0; i < 5; i++)
+        posterior.add(TwoMomentsSufficientStatistics.fromOnePoint(
+            new double[]{5.0 * rand.nextGaussian(), 5.0 * rand.nextGaussian()}));
+      mixture.add(rand.nextGaussian(), posterior);
+    }
+    final double radius = 15.0;
+    final int nPoints = 301;
+    MultivariateFunction tabulated = mixture.tabulate(radius, nPoints, 3);
+    final double spacing = 2.0 * radius / (nPoints - 1);
+    // exact at the nodes and outside of the grid, close in between
+    for (int i = 0; i < nPoints; i += 7)
+      for (int j = 0; j < nPoints; j += 11)
+      {
+        double [] node = new double[]{-radius + i * spacing, -radius + j * spacing};
+        Assert.assertEquals(mixture.value(node), tabulated.value(node), 1e-8);
+      }
+    double [] outside = new double[]{20.0, 0.0};
+    Assert.assertEquals(mixture.value(outside), tabulated.value(outside), 0.0);
+    for (int i = 0; i < 1000; i++)
+    {
+      double [] point = new double[]{2.0 * radius * rand.nextDouble() - radius, 2.0 * radius * rand.nextDouble() - radius};
+      Assert.assertEquals(mixture.value(point), tabulated.value(point), 1e-2);
+    }
+  }
+
+  /**
+   * The hyper-parameters updated with the data, read from their Cholesky form.
+   */
+  private static NIWHyperParameter updated(NIWHyperParameter hp, NIWCholeskyPosterior posterior)
+  {
+    final int dim = hp.dim();
+    SimpleMatrix
+      mean = new SimpleMatrix(dim, 1),
+      cholesky = new SimpleMatrix(dim, dim);
+    for (int i = 0; i < dim; i++)
+    {
+      mean.set(i, posterior.mean(i));
+      for (int j = 0; j <= i; j++)
+        cholesky.set(i, j, posterior.cholesky(i, j));
+    }
+    return new NIWHyperParameter(posterior.kappa(), mean, posterior.nu(),
+        cholesky.mult(cholesky.transpose()).scale(1.0 / posterior.nu()));
+  }
+}
@@ -0,0 +1,50 @@
+package polya;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import polya.crp.CRPState;
+import polya.crp.DenseCRPState;
+import polya.crp.PYPrior;
+import polya.crp.SuperclusterSampler;
+import polya.parametric.SufficientStatistic;
+import polya.parametric.normal.CollapsedNIWModel;
+import polya.parametric.normal.NIWHyperParameter;
+
+import com.google.common.collect.Maps;
+
+
+/**
+ * Checks that the parallel sampler targets the same posterior as the
+ * sequential one.
+ *
+ * @author Alexandre Bouchard (alexandre.bouchard@gmail.com)
+ */
+public class SuperclusterSamplerTest
+{
+  @Test
+  public void exactPosteriorOnThreeCustomers()
+  {
+    Map<Integer,SufficientStatistic> data = GibbsSweepTest.threeCustomers();
+    NIWHyperParameter hp = NIWHyperParameter.withDimensionality(2);
+    PYPrior prior = new PYPrior(1.5, 0.0);
+    Map<Set<Set<Integer>>,Double> exact = GibbsSweepTest.exactPosterior(data, hp, prior);
+
+    Random rand = new Random(1);
+    CRPState state = DenseCRPState.fullyDisconnectedClustering(data);
+    SuperclusterSampler sampler = new SuperclusterSampler(state, hp, CollapsedNIWModel.instance, prior, 2);
+    Map<Set<Set<Integer>>, Integer> counts = Maps.newHashMap();
+    final int nIters = 50000;
+    for (int iter = 0; iter < nIters; iter++)
+    {
+      sampler.sampleOneRound(rand);
+      state.checkIntegrity();
+      GibbsSweepTest.increment(counts, state.partition());
+    }
+    sampler.shutdown();
+    GibbsSweepTest.assertFrequencies(exact, counts, nIters);
+  }
+}